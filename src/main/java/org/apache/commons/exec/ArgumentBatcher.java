@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.util.DebugUtils;
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * Runs a command on a long list of arguments, like {@code xargs}: the arguments are packed into as few invocations as the platform limit on the size of
+ * the arguments and environment of a new process allows. For example:
+ *
+ * <pre>
+ * ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(new CommandLine("clang-format").addArgument("-i")).setMaxParallelism(8).get();
+ * ArgumentBatcher.Result result = batcher.execute(paths);
+ * if (result.isFailure()) {
+ *     // result.getExitValue() is the exit value of the first failed invocation
+ * }
+ * </pre>
+ * <p>
+ * An invocation holds the command line followed by as many arguments as fit in the maximum command length, counted as the arguments and environment
+ * variables with their terminating NUL bytes and pointers, as the kernel does, less 2048 bytes of headroom as POSIX {@code xargs} does. Unless
+ * configured, the limit is queried once with {@code getconf ARG_MAX}, falling back to 128 KiB, or 32767 on Windows.
+ * </p>
+ * <p>
+ * The invocations run on a {@link BatchExecutor}. Their standard output is written to the output stream in the order of the arguments, their standard
+ * error is written to the error stream as it comes.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ArgumentBatcher {
+
+    /**
+     * Builds ArgumentBatcher instances.
+     */
+    public static final class Builder implements Supplier<ArgumentBatcher> {
+
+        /** The command preceding the arguments. */
+        private CommandLine commandLine;
+
+        /** The environment of the processes, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** Receives the standard error of the processes. */
+        private OutputStream errorStream = System.err;
+
+        /** Whether the first failure stops the remaining invocations. */
+        private boolean failFast;
+
+        /** Whether to quote the arguments. */
+        private boolean handleQuoting;
+
+        /** The maximum number of arguments of an invocation. */
+        private int maxArguments = Integer.MAX_VALUE;
+
+        /** The maximum size of the arguments and environment of a process in bytes, 0 to query the platform. */
+        private long maxCommandLength;
+
+        /** The maximum number of processes running at the same time. */
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /** Receives the standard output of the processes. */
+        private OutputStream outputStream = System.out;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each invocation. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ArgumentBatcher, querying the maximum command length of the platform if not set.
+         *
+         * @return A new configured ArgumentBatcher.
+         * @throws NullPointerException if the command line is not set.
+         */
+        @Override
+        public ArgumentBatcher get() {
+            return new ArgumentBatcher(this);
+        }
+
+        /**
+         * Sets the command preceding the arguments of each invocation.
+         *
+         * @param commandLine The command line.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the processes, which counts against the maximum command length.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard error of the processes.
+         *
+         * @param errorStream The error stream, null resets to {@code System.err}.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorStream(final OutputStream errorStream) {
+            this.errorStream = errorStream != null ? errorStream : System.err;
+            return this;
+        }
+
+        /**
+         * Sets whether the first failing invocation stops the remaining ones.
+         *
+         * @param failFast {@code true} to destroy the running processes and skip the remaining invocations on the first failure, {@code false} (the
+         *                 default) to run all invocations.
+         * @return {@code this} instance.
+         */
+        public Builder setFailFast(final boolean failFast) {
+            this.failFast = failFast;
+            return this;
+        }
+
+        /**
+         * Sets whether the arguments are quoted, as by {@link CommandLine#addArgument(String, boolean)}. Arguments are never trimmed, so that file names
+         * with leading or trailing spaces are passed as they are.
+         *
+         * @param handleQuoting {@code true} to quote arguments containing spaces or quotes, {@code false} (the default) to pass them as they are.
+         * @return {@code this} instance.
+         */
+        public Builder setHandleQuoting(final boolean handleQuoting) {
+            this.handleQuoting = handleQuoting;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of arguments of an invocation, like {@code xargs -n}.
+         *
+         * @param maxArguments The maximum number of arguments, less than 1 resets to no limit.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxArguments(final int maxArguments) {
+            this.maxArguments = maxArguments > 0 ? maxArguments : Integer.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size in bytes of the arguments and environment of a process, {@code ARG_MAX} on POSIX systems.
+         *
+         * @param maxCommandLength The maximum size, less than 1 resets to querying the platform.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxCommandLength(final long maxCommandLength) {
+            this.maxCommandLength = Math.max(0, maxCommandLength);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of processes running at the same time.
+         *
+         * @param maxParallelism The maximum number of processes, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxParallelism(final int maxParallelism) {
+            this.maxParallelism = maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard output of the processes, in the order of the arguments.
+         *
+         * @param outputStream The output stream, null resets to {@code System.out}.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream != null ? outputStream : System.out;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the timeout of each invocation.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+    }
+
+    /**
+     * Packs arguments into command lines, lazily.
+     */
+    private final class Invocations implements Iterator<CommandLine> {
+
+        /** The arguments. */
+        private final Iterator<String> arguments;
+
+        /** The available size for arguments. */
+        private final long available;
+
+        /** The next argument, null if not taken yet. */
+        private String next;
+
+        /** The size of the next argument. */
+        private long nextSize;
+
+        Invocations(final Iterator<String> arguments, final long available) {
+            this.arguments = arguments;
+            this.available = available;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return takeNext();
+        }
+
+        @Override
+        public CommandLine next() {
+            if (!takeNext()) {
+                throw new NoSuchElementException();
+            }
+            final CommandLine invocation = new CommandLine(commandLine);
+            long size = 0;
+            int count = 0;
+            while (takeNext() && count < maxArguments && (count == 0 || size + nextSize <= available)) {
+                invocation.addUntrimmedArgument(next, handleQuoting);
+                size += nextSize;
+                count++;
+                next = null;
+            }
+            return invocation;
+        }
+
+        /**
+         * Takes the next argument, tests whether there is one.
+         */
+        private boolean takeNext() {
+            while (next == null && arguments.hasNext()) {
+                final String argument = arguments.next();
+                if (argument == null) {
+                    continue;
+                }
+                next = argument;
+                nextSize = sizeOf(handleQuoting ? StringUtils.quoteArgument(argument) : argument);
+                if (nextSize > available) {
+                    throw new IllegalArgumentException("Argument too long for the maximum command length " + maxCommandLength + ": " + argument);
+                }
+            }
+            return next != null;
+        }
+    }
+
+    /**
+     * The outcome of all invocations.
+     */
+    public static final class Result {
+
+        /** The outcomes of the invocations. */
+        private final List<BatchExecutor.Result> invocations;
+
+        Result(final List<BatchExecutor.Result> invocations) {
+            this.invocations = Collections.unmodifiableList(invocations);
+        }
+
+        /**
+         * Gets the exit value of the first failed invocation.
+         *
+         * @return The exit value of the first failed invocation, 0 if all succeeded.
+         */
+        public int getExitValue() {
+            for (final BatchExecutor.Result invocation : invocations) {
+                if (invocation.isFailure()) {
+                    return invocation.getExitValue();
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Gets the outcomes of the invocations, in the order of the arguments.
+         *
+         * @return The outcomes, unmodifiable.
+         */
+        public List<BatchExecutor.Result> getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Tests whether an invocation failed.
+         *
+         * @return {@code true} if an invocation failed.
+         */
+        public boolean isFailure() {
+            return invocations.stream().anyMatch(BatchExecutor.Result::isFailure);
+        }
+
+        @Override
+        public String toString() {
+            return "Result [invocations=" + invocations.size() + ", exitValue=" + getExitValue() + "]";
+        }
+    }
+
+    /** The maximum command length if it cannot be queried. */
+    private static final long DEFAULT_MAX_COMMAND_LENGTH = 128 * 1024;
+
+    /** The room left for the environment changes of the process, as by POSIX xargs. */
+    private static final long HEADROOM = 2048;
+
+    /** The size of a pointer of the argument and environment arrays of a process. */
+    private static final int POINTER_SIZE = 8;
+
+    /** The maximum command line length of Windows in characters. */
+    private static final long WINDOWS_MAX_COMMAND_LENGTH = 32767;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Queries {@code ARG_MAX}.
+     */
+    private static long queryMaxCommandLength() {
+        if (OS.isFamilyWindows()) {
+            return WINDOWS_MAX_COMMAND_LENGTH;
+        }
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final DefaultExecutor executor = DefaultExecutor.builder().get();
+            executor.setStreamHandler(new PumpStreamHandler(output, new ByteArrayOutputStream()));
+            executor.execute(new CommandLine("getconf").addArgument("ARG_MAX"));
+            return Long.parseLong(output.toString(Charset.defaultCharset().name()).trim());
+        } catch (final IOException | NumberFormatException e) {
+            DebugUtils.handleException("Querying ARG_MAX failed", e);
+            return DEFAULT_MAX_COMMAND_LENGTH;
+        }
+    }
+
+    /**
+     * Gets the size of an argument or environment variable in the memory of a new process.
+     */
+    private static long sizeOf(final String string) {
+        return string.getBytes(Charset.defaultCharset()).length + 1 + POINTER_SIZE;
+    }
+
+    /** The command preceding the arguments. */
+    private final CommandLine commandLine;
+
+    /** The environment of the processes. */
+    private final Map<String, String> environment;
+
+    /** Receives the standard error of the processes. */
+    private final OutputStream errorStream;
+
+    /** Whether the first failure stops the remaining invocations. */
+    private final boolean failFast;
+
+    /** Whether to quote the arguments. */
+    private final boolean handleQuoting;
+
+    /** The maximum number of arguments of an invocation. */
+    private final int maxArguments;
+
+    /** The maximum size of the arguments and environment of a process in bytes. */
+    private final long maxCommandLength;
+
+    /** The maximum number of processes running at the same time. */
+    private final int maxParallelism;
+
+    /** Receives the standard output of the processes. */
+    private final OutputStream outputStream;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each invocation. */
+    private final Duration timeout;
+
+    private ArgumentBatcher(final Builder builder) {
+        this.commandLine = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.environment = builder.environment;
+        this.errorStream = builder.errorStream;
+        this.failFast = builder.failFast;
+        this.handleQuoting = builder.handleQuoting;
+        this.maxArguments = builder.maxArguments;
+        this.maxCommandLength = builder.maxCommandLength > 0 ? builder.maxCommandLength : queryMaxCommandLength();
+        this.maxParallelism = builder.maxParallelism;
+        this.outputStream = builder.outputStream;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * Runs the command on all arguments, in as few invocations as the maximum command length allows.
+     *
+     * @param arguments The arguments, consumed lazily; null elements are skipped.
+     * @return The outcome of the invocations.
+     * @throws IllegalArgumentException if a single argument does not fit in the maximum command length.
+     * @throws ExecuteException         if the batcher fails fast and an invocation failed.
+     * @throws InterruptedIOException   if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException              if the batcher fails fast and an invocation could not be executed, or the output could not be written.
+     */
+    public Result execute(final Iterable<String> arguments) throws IOException {
+        Objects.requireNonNull(arguments, "arguments");
+        long available = maxCommandLength - HEADROOM;
+        for (final String part : commandLine.toStrings()) {
+            available -= sizeOf(part);
+        }
+        for (final Map.Entry<String, String> entry : (environment != null ? environment : System.getenv()).entrySet()) {
+            available -= sizeOf(entry.getKey() + "=" + entry.getValue());
+        }
+        final Map<CommandLine, ByteArrayOutputStream> outputs = Collections.synchronizedMap(new IdentityHashMap<>());
+        final BatchExecutor batchExecutor = BatchExecutor.builder().setEnvironment(environment).setFailFast(failFast).setMaxParallelism(maxParallelism)
+                .setThreadFactory(threadFactory).setTimeout(timeout).setExecutorFactory(invocation -> {
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    outputs.put(invocation, output);
+                    final DefaultExecutor executor = DefaultExecutor.builder().setThreadFactory(threadFactory).get();
+                    executor.setStreamHandler(new PumpStreamHandler(output, errorStream));
+                    return executor;
+                }).get();
+        final List<BatchExecutor.Result> results = new ArrayList<>();
+        final IOException[] writeFailure = new IOException[1];
+        batchExecutor.executeAll(new Invocations(arguments.iterator(), available), result -> {
+            results.add(result);
+            final ByteArrayOutputStream output = outputs.remove(result.getCommandLine());
+            if (output != null && writeFailure[0] == null) {
+                try {
+                    output.writeTo(outputStream);
+                } catch (final IOException e) {
+                    writeFailure[0] = e;
+                }
+            }
+        });
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        return new Result(results);
+    }
+}
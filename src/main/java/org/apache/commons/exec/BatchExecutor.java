@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs many commands with a bounded number of processes running at the same time. For example:
+ *
+ * <pre>
+ * BatchExecutor batch = BatchExecutor.builder().setMaxParallelism(8).setTimeout(Duration.ofMinutes(1)).get();
+ * for (BatchExecutor.Result result : batch.executeAll(commandLines)) {
+ *     if (result.isFailure()) {
+ *         // handle the failed command
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Each command runs on its own {@link Executor}, created by the executor factory, since an {@link Executor} is not meant to run several processes at once.
+ * Results are delivered either in the order of the commands or as soon as they complete. With the fail-fast policy the first failure destroys the running
+ * processes, skips the remaining commands and is thrown to the caller; otherwise failures are reported in the results.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class BatchExecutor {
+
+    /**
+     * Builds BatchExecutor instances.
+     */
+    public static final class Builder implements Supplier<BatchExecutor> {
+
+        /** Creates the executor for each command. */
+        private Function<CommandLine, ? extends Executor> executorFactory = DEFAULT_EXECUTOR_FACTORY;
+
+        /** The environment of the processes, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** Whether the first failure stops the batch. */
+        private boolean failFast;
+
+        /** The maximum number of processes running at the same time. */
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /** Whether the results are delivered in the order of the commands. */
+        private boolean ordered = true;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each command. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured BatchExecutor.
+         *
+         * @return A new configured BatchExecutor.
+         */
+        @Override
+        public BatchExecutor get() {
+            return new BatchExecutor(this);
+        }
+
+        /**
+         * Sets the environment of the processes.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the factory creating a new executor for each command, for example to give each command its own stream handler. If the created executor has a
+         * watchdog, it is used instead of the timeout of this builder.
+         *
+         * @param executorFactory The factory, null resets to a factory creating a {@link DefaultExecutor} pumping to {@code System.out} and
+         *                        {@code System.err}.
+         * @return {@code this} instance.
+         */
+        public Builder setExecutorFactory(final Function<CommandLine, ? extends Executor> executorFactory) {
+            this.executorFactory = executorFactory != null ? executorFactory : DEFAULT_EXECUTOR_FACTORY;
+            return this;
+        }
+
+        /**
+         * Sets whether the first failing command stops the batch.
+         *
+         * @param failFast {@code true} to destroy the running processes and skip the remaining commands on the first failure, {@code false} (the default)
+         *                 to run all commands and report failures in the results.
+         * @return {@code this} instance.
+         */
+        public Builder setFailFast(final boolean failFast) {
+            this.failFast = failFast;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of processes running at the same time.
+         *
+         * @param maxParallelism The maximum number of processes, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxParallelism(final int maxParallelism) {
+            this.maxParallelism = maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets whether the results are delivered in the order of the commands.
+         *
+         * @param ordered {@code true} (the default) to deliver results in the order of the commands, {@code false} to deliver them as soon as they complete.
+         * @return {@code this} instance.
+         */
+        public Builder setOrdered(final boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the timeout of each command.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+    }
+
+    /**
+     * The outcome of one command of a batch.
+     */
+    public static final class Result {
+
+        /** The command. */
+        private final CommandLine commandLine;
+
+        /** How long the command ran. */
+        private final Duration duration;
+
+        /** Why the command failed, null if it succeeded. */
+        private final IOException exception;
+
+        /** The exit value. */
+        private final int exitValue;
+
+        /** The position of the command in the batch. */
+        private final long index;
+
+        Result(final long index, final CommandLine commandLine, final int exitValue, final IOException exception, final Duration duration) {
+            this.index = index;
+            this.commandLine = commandLine;
+            this.exitValue = exitValue;
+            this.exception = exception;
+            this.duration = duration;
+        }
+
+        /**
+         * Gets the command.
+         *
+         * @return The command.
+         */
+        public CommandLine getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Gets how long the command ran, including starting the process.
+         *
+         * @return The duration.
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets why the command failed.
+         *
+         * @return The exception, an {@link ExecuteException} if the process exited with a failure exit value, null if the command succeeded.
+         */
+        public IOException getException() {
+            return exception;
+        }
+
+        /**
+         * Gets the exit value of the process.
+         *
+         * @return The exit value, {@link Executor#INVALID_EXITVALUE} if the process could not be started or waited for.
+         */
+        public int getExitValue() {
+            return exitValue;
+        }
+
+        /**
+         * Gets the position of the command in the batch, starting at 0.
+         *
+         * @return The index.
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * Tests whether the command failed.
+         *
+         * @return {@code true} if the command failed.
+         */
+        public boolean isFailure() {
+            return exception != null;
+        }
+
+        @Override
+        public String toString() {
+            return "Result [index=" + index + ", commandLine=" + commandLine + ", exitValue=" + exitValue + ", exception=" + exception + "]";
+        }
+    }
+
+    /** Creates a default executor for each command. */
+    private static final Function<CommandLine, Executor> DEFAULT_EXECUTOR_FACTORY = commandLine -> DefaultExecutor.builder().get();
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Creates the executor for each command. */
+    private final Function<CommandLine, ? extends Executor> executorFactory;
+
+    /** The environment of the processes. */
+    private final Map<String, String> environment;
+
+    /** Whether the first failure stops the batch. */
+    private final boolean failFast;
+
+    /** The maximum number of processes running at the same time. */
+    private final int maxParallelism;
+
+    /** Whether the results are delivered in the order of the commands. */
+    private final boolean ordered;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each command. */
+    private final Duration timeout;
+
+    private BatchExecutor(final Builder builder) {
+        this.executorFactory = builder.executorFactory;
+        this.environment = builder.environment;
+        this.failFast = builder.failFast;
+        this.maxParallelism = builder.maxParallelism;
+        this.ordered = builder.ordered;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * Executes all commands and waits for them to complete.
+     *
+     * @param commands The commands.
+     * @return The results, in the order of the commands or of their completion.
+     * @throws ExecuteException     if the batch fails fast and a command failed.
+     * @throws InterruptedIOException if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException          if the batch fails fast and a command could not be executed.
+     */
+    public List<Result> executeAll(final Collection<CommandLine> commands) throws IOException {
+        final List<Result> results = new ArrayList<>(commands.size());
+        executeAll(commands.iterator(), results::add);
+        return results;
+    }
+
+    /**
+     * Executes commands as they are taken from an iterator and delivers each result as soon as it is available. The iterator is consumed lazily, only when
+     * a process may be started, so it can produce an unbounded sequence of commands.
+     *
+     * @param commands The commands.
+     * @param consumer Receives the results, in the order of the commands or of their completion, on the calling thread.
+     * @throws ExecuteException     if the batch fails fast and a command failed.
+     * @throws InterruptedIOException if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException          if the batch fails fast and a command could not be executed.
+     */
+    public void executeAll(final Iterator<CommandLine> commands, final Consumer<Result> consumer) throws IOException {
+        Objects.requireNonNull(commands, "commands");
+        Objects.requireNonNull(consumer, "consumer");
+        final ExecutorService pool = new ThreadPoolExecutor(maxParallelism, maxParallelism, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> ThreadUtil.newThread(threadFactory, r, "CommonsExecBatchExecutor-", true));
+        final CompletionService<Result> completionService = new ExecutorCompletionService<>(pool);
+        final Map<Long, ExecuteWatchdog> watchdogs = new ConcurrentHashMap<>();
+        // results completed ahead of an earlier command when delivering in order
+        final TreeMap<Long, Result> pending = new TreeMap<>();
+        long submitted = 0;
+        long nextToDeliver = 0;
+        int running = 0;
+        Result failure = null;
+        try {
+            while (true) {
+                while (failure == null && running < maxParallelism && pending.size() < maxParallelism && commands.hasNext()) {
+                    final long index = submitted++;
+                    final CommandLine command = commands.next();
+                    completionService.submit(() -> execute(index, command, watchdogs));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                final Result result = completionService.take().get();
+                running--;
+                if (failure != null) {
+                    // draining the processes destroyed after a failure
+                    continue;
+                }
+                if (failFast && result.isFailure()) {
+                    failure = result;
+                    watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+                    continue;
+                }
+                if (!ordered) {
+                    consumer.accept(result);
+                    continue;
+                }
+                pending.put(result.getIndex(), result);
+                while (!pending.isEmpty() && pending.firstKey() == nextToDeliver) {
+                    consumer.accept(pending.pollFirstEntry().getValue());
+                    nextToDeliver++;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+            throw new InterruptedIOException("Interrupted while waiting for the batch to complete");
+        } catch (final ExecutionException e) {
+            watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+        if (failure != null) {
+            throw new ExecuteException("Command " + failure.getCommandLine() + " failed", failure.getExitValue(), failure.getException());
+        }
+    }
+
+    /**
+     * Executes one command on a new executor.
+     *
+     * @param index     The position of the command in the batch.
+     * @param command   The command.
+     * @param watchdogs The watchdogs of the running commands.
+     * @return The result.
+     */
+    private Result execute(final long index, final CommandLine command, final Map<Long, ExecuteWatchdog> watchdogs) {
+        final Executor executor = executorFactory.apply(command);
+        final long startNanos = System.nanoTime();
+        try {
+            final int exitValue = execute(executor, command, environment, index, watchdogs, threadFactory, timeout);
+            return new Result(index, command, exitValue, null, Duration.ofNanos(System.nanoTime() - startNanos));
+        } catch (final ExecuteException e) {
+            return new Result(index, command, e.getExitValue(), e, Duration.ofNanos(System.nanoTime() - startNanos));
+        } catch (final IOException e) {
+            return new Result(index, command, Executor.INVALID_EXITVALUE, e, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Executes a command with its watchdog registered while it runs, so that other threads can destroy it.
+     *
+     * @param <K>           The type of the keys of the watchdogs.
+     * @param executor      The executor, given a new watchdog if it has none.
+     * @param command       The command.
+     * @param environment   The environment, null for the inherited one.
+     * @param key           The key of the command in the watchdogs.
+     * @param watchdogs     The watchdogs of the running commands.
+     * @param threadFactory The thread factory of a new watchdog.
+     * @param timeout       The timeout of a new watchdog.
+     * @return The exit value.
+     * @throws ExecuteException if the command failed.
+     * @throws IOException      if the command could not be started.
+     */
+    static <K> int execute(final Executor executor, final CommandLine command, final Map<String, String> environment, final K key,
+            final Map<K, ExecuteWatchdog> watchdogs, final ThreadFactory threadFactory, final Duration timeout) throws IOException {
+        ExecuteWatchdog watchdog = executor.getWatchdog();
+        if (watchdog == null) {
+            watchdog = ExecuteWatchdog.builder().setThreadFactory(threadFactory).setTimeout(timeout).get();
+            executor.setWatchdog(watchdog);
+        }
+        watchdogs.put(key, watchdog);
+        try {
+            return executor.execute(command, environment);
+        } finally {
+            watchdogs.remove(key);
+            watchdog.executionEnded();
+        }
+    }
+}
@@ -0,0 +1,745 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs commands that depend on each other, such as the steps of a build, as soon as their dependencies succeeded. For example:
+ *
+ * <pre>
+ * CommandGraph graph = CommandGraph.builder().setMaxParallelism(8).setResourceLimit("db", 2).get();
+ * CommandGraph.Node compile = graph.add("compile", CommandLine.parse("make all")).setOutputs(Paths.get("build/app.jar"));
+ * for (int shard = 0; shard &lt; 4; shard++) {
+ *     graph.add("test-" + shard, CommandLine.parse("run-tests --shard " + shard)).dependsOn(compile).setResources("db");
+ * }
+ * graph.add("package", CommandLine.parse("make dist")).setInputs(Paths.get("build/app.jar"));
+ * CommandGraph.Report report = graph.execute();
+ * </pre>
+ * <p>
+ * A node depends on the nodes it was declared to depend on and on the nodes declaring one of its input files as output. A node whose dependencies
+ * succeeded is started as soon as fewer than the maximum parallelism nodes are running and each of its resource tags is used by fewer running nodes than
+ * the limit of the tag. Ready nodes are started in the order they were added, skipping nodes waiting for a resource.
+ * </p>
+ * <p>
+ * A node fails if its process fails or if it succeeds without creating its output files. The nodes depending on a failed node, directly or not, are
+ * cancelled without being run; the other nodes still run. The {@link Report} gives the outcome and timing of each node and the critical path, the chain of
+ * nodes that determined the duration of the whole run.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class CommandGraph {
+
+    /**
+     * Builds CommandGraph instances.
+     */
+    public static final class Builder implements Supplier<CommandGraph> {
+
+        /** The environment of the processes, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** Creates the executor for each command. */
+        private Function<CommandLine, ? extends Executor> executorFactory = DEFAULT_EXECUTOR_FACTORY;
+
+        /** The maximum number of processes running at the same time. */
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /** The maximum number of running nodes using a resource, by resource tag. */
+        private final Map<String, Integer> resourceLimits = new HashMap<>();
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each command. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new empty CommandGraph.
+         *
+         * @return A new configured CommandGraph.
+         */
+        @Override
+        public CommandGraph get() {
+            return new CommandGraph(this);
+        }
+
+        /**
+         * Sets the environment of the processes.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the factory creating a new executor for each command, for example to set its working directory or stream handler. If the created executor
+         * has a watchdog, it is used instead of the timeout of this builder.
+         *
+         * @param executorFactory The factory, null resets to a factory creating a {@link DefaultExecutor} pumping to {@code System.out} and
+         *                        {@code System.err}.
+         * @return {@code this} instance.
+         */
+        public Builder setExecutorFactory(final Function<CommandLine, ? extends Executor> executorFactory) {
+            this.executorFactory = executorFactory != null ? executorFactory : DEFAULT_EXECUTOR_FACTORY;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of processes running at the same time.
+         *
+         * @param maxParallelism The maximum number of processes, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxParallelism(final int maxParallelism) {
+            this.maxParallelism = maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of running nodes using a resource. A resource without limit can be used by any number of nodes.
+         *
+         * @param resource The resource tag.
+         * @param limit    The maximum number of running nodes using the resource, less than 1 removes the limit.
+         * @return {@code this} instance.
+         */
+        public Builder setResourceLimit(final String resource, final int limit) {
+            Objects.requireNonNull(resource, "resource");
+            if (limit > 0) {
+                resourceLimits.put(resource, limit);
+            } else {
+                resourceLimits.remove(resource);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the timeout of each command.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+    }
+
+    /**
+     * A command of the graph.
+     */
+    public final class Node {
+
+        /** The command. */
+        private final CommandLine commandLine;
+
+        /** The nodes this node was declared to depend on. */
+        private final Set<Node> dependencies = new LinkedHashSet<>();
+
+        /** The files read by the command. */
+        private List<Path> inputs = Collections.emptyList();
+
+        /** The unique name of the node. */
+        private final String name;
+
+        /** The files written by the command. */
+        private List<Path> outputs = Collections.emptyList();
+
+        /** The resource tags. */
+        private Set<String> resources = Collections.emptySet();
+
+        Node(final String name, final CommandLine commandLine) {
+            this.name = name;
+            this.commandLine = commandLine;
+        }
+
+        /**
+         * Adds dependencies: this node only runs after they succeeded.
+         *
+         * @param dependencies Nodes of the same graph.
+         * @return {@code this} instance.
+         * @throws IllegalArgumentException if a node belongs to another graph.
+         */
+        public Node dependsOn(final Node... dependencies) {
+            for (final Node node : dependencies) {
+                if (nodes.get(node.name) != node) {
+                    throw new IllegalArgumentException("Node " + node.name + " does not belong to this graph");
+                }
+                this.dependencies.add(node);
+            }
+            return this;
+        }
+
+        /**
+         * Gets the command.
+         *
+         * @return The command.
+         */
+        public CommandLine getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Gets the name.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Sets the files read by the command. The nodes writing them become dependencies.
+         *
+         * @param inputs The input files.
+         * @return {@code this} instance.
+         */
+        public Node setInputs(final Path... inputs) {
+            this.inputs = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(inputs)));
+            return this;
+        }
+
+        /**
+         * Sets the files written by the command. The node fails if they do not exist after its process succeeded.
+         *
+         * @param outputs The output files.
+         * @return {@code this} instance.
+         */
+        public Node setOutputs(final Path... outputs) {
+            this.outputs = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(outputs)));
+            return this;
+        }
+
+        /**
+         * Sets the resource tags of the node, limiting how many nodes using a resource run at the same time.
+         *
+         * @param resources The resource tags.
+         * @return {@code this} instance.
+         */
+        public Node setResources(final String... resources) {
+            this.resources = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(resources)));
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The outcome of a node.
+     */
+    public static final class NodeResult {
+
+        /** How long the node ran. */
+        private final Duration duration;
+
+        /** Why the node failed, null if it did not fail. */
+        private final IOException exception;
+
+        /** The exit value. */
+        private final int exitValue;
+
+        /** The node. */
+        private final Node node;
+
+        /** The time from the start of the run to the start of the node. */
+        private final Duration startOffset;
+
+        /** The outcome. */
+        private final Status status;
+
+        NodeResult(final Node node, final Status status, final int exitValue, final IOException exception, final Duration startOffset,
+                final Duration duration) {
+            this.node = node;
+            this.status = status;
+            this.exitValue = exitValue;
+            this.exception = exception;
+            this.startOffset = startOffset;
+            this.duration = duration;
+        }
+
+        /**
+         * Gets how long the node ran.
+         *
+         * @return The duration, zero if the node was cancelled.
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets why the node failed.
+         *
+         * @return The exception, null if the node did not fail.
+         */
+        public IOException getException() {
+            return exception;
+        }
+
+        /**
+         * Gets the exit value of the process.
+         *
+         * @return The exit value, {@link Executor#INVALID_EXITVALUE} if the process did not run or could not be waited for.
+         */
+        public int getExitValue() {
+            return exitValue;
+        }
+
+        /**
+         * Gets the node.
+         *
+         * @return The node.
+         */
+        public Node getNode() {
+            return node;
+        }
+
+        /**
+         * Gets the time from the start of the run to the start of the node.
+         *
+         * @return The start offset, zero if the node was cancelled.
+         */
+        public Duration getStartOffset() {
+            return startOffset;
+        }
+
+        /**
+         * Gets the outcome.
+         *
+         * @return The status.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        @Override
+        public String toString() {
+            return "NodeResult [node=" + node + ", status=" + status + ", exitValue=" + exitValue + ", startOffset=" + startOffset + ", duration=" + duration
+                    + "]";
+        }
+    }
+
+    /**
+     * The outcome of a run of the graph.
+     */
+    public static final class Report {
+
+        /** The critical path. */
+        private final List<NodeResult> criticalPath;
+
+        /** The duration of the run. */
+        private final Duration duration;
+
+        /** The outcomes by node name, in the order the nodes were added. */
+        private final Map<String, NodeResult> results;
+
+        Report(final Map<String, NodeResult> results, final List<NodeResult> criticalPath, final Duration duration) {
+            this.results = Collections.unmodifiableMap(results);
+            this.criticalPath = Collections.unmodifiableList(criticalPath);
+            this.duration = duration;
+        }
+
+        /**
+         * Gets the critical path: the node that finished last, preceded by the dependency that finished last before it started, and so on. Shortening
+         * another node does not shorten the run.
+         *
+         * @return The nodes of the critical path, first to last, unmodifiable.
+         */
+        public List<NodeResult> getCriticalPath() {
+            return criticalPath;
+        }
+
+        /**
+         * Gets the duration of the run.
+         *
+         * @return The duration.
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets the outcome of a node.
+         *
+         * @param name The name of the node.
+         * @return The outcome, null if there is no node with that name.
+         */
+        public NodeResult getResult(final String name) {
+            return results.get(name);
+        }
+
+        /**
+         * Gets the outcomes of all nodes.
+         *
+         * @return The outcomes in the order the nodes were added, unmodifiable.
+         */
+        public List<NodeResult> getResults() {
+            return Collections.unmodifiableList(new ArrayList<>(results.values()));
+        }
+
+        /**
+         * Tests whether all nodes succeeded.
+         *
+         * @return {@code true} if all nodes succeeded.
+         */
+        public boolean isSuccess() {
+            return results.values().stream().allMatch(result -> result.getStatus() == Status.SUCCEEDED);
+        }
+
+        @Override
+        public String toString() {
+            return "Report [duration=" + duration + ", success=" + isSuccess() + ", criticalPath=" + criticalPath + "]";
+        }
+    }
+
+    /**
+     * The outcome of a node.
+     */
+    public enum Status {
+
+        /** The node ran and succeeded. */
+        SUCCEEDED,
+
+        /** The node ran and failed. */
+        FAILED,
+
+        /** The node did not run because a dependency failed or was cancelled. */
+        CANCELLED
+    }
+
+    /** Creates a default executor for each command. */
+    private static final Function<CommandLine, Executor> DEFAULT_EXECUTOR_FACTORY = commandLine -> DefaultExecutor.builder().get();
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The environment of the processes. */
+    private final Map<String, String> environment;
+
+    /** Creates the executor for each command. */
+    private final Function<CommandLine, ? extends Executor> executorFactory;
+
+    /** The maximum number of processes running at the same time. */
+    private final int maxParallelism;
+
+    /** The nodes by name, in the order they were added. */
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    /** The maximum number of running nodes using a resource. */
+    private final Map<String, Integer> resourceLimits;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each command. */
+    private final Duration timeout;
+
+    private CommandGraph(final Builder builder) {
+        this.environment = builder.environment;
+        this.executorFactory = builder.executorFactory;
+        this.maxParallelism = builder.maxParallelism;
+        this.resourceLimits = new HashMap<>(builder.resourceLimits);
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * Adds a node.
+     *
+     * @param name        The unique name of the node.
+     * @param commandLine The command.
+     * @return The new node.
+     * @throws IllegalArgumentException if a node with that name exists.
+     */
+    public Node add(final String name, final CommandLine commandLine) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(commandLine, "commandLine");
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate node " + name);
+        }
+        final Node node = new Node(name, commandLine);
+        nodes.put(name, node);
+        return node;
+    }
+
+    /**
+     * Gets the dependencies of each node, declared and derived from the input and output files.
+     *
+     * @throws IllegalArgumentException if the graph has a cycle.
+     */
+    private Map<Node, Set<Node>> dependencies() {
+        final Map<Path, Node> producers = new HashMap<>();
+        for (final Node node : nodes.values()) {
+            for (final Path output : node.outputs) {
+                final Node previous = producers.put(output.toAbsolutePath().normalize(), node);
+                if (previous != null) {
+                    throw new IllegalArgumentException("Nodes " + previous + " and " + node + " both write " + output);
+                }
+            }
+        }
+        final Map<Node, Set<Node>> dependencies = new LinkedHashMap<>();
+        for (final Node node : nodes.values()) {
+            final Set<Node> set = new LinkedHashSet<>(node.dependencies);
+            for (final Path input : node.inputs) {
+                final Node producer = producers.get(input.toAbsolutePath().normalize());
+                if (producer != null && producer != node) {
+                    set.add(producer);
+                }
+            }
+            dependencies.put(node, set);
+        }
+        // Kahn's algorithm: a cycle leaves nodes that never become free of dependencies
+        final Map<Node, Integer> remaining = new HashMap<>();
+        dependencies.forEach((node, set) -> remaining.put(node, set.size()));
+        final List<Node> free = new ArrayList<>();
+        remaining.forEach((node, count) -> {
+            if (count == 0) {
+                free.add(node);
+            }
+        });
+        int visited = 0;
+        while (!free.isEmpty()) {
+            final Node done = free.remove(free.size() - 1);
+            visited++;
+            dependencies.forEach((node, set) -> {
+                if (set.contains(done) && remaining.merge(node, -1, Integer::sum) == 0) {
+                    free.add(node);
+                }
+            });
+        }
+        if (visited < dependencies.size()) {
+            throw new IllegalArgumentException("The graph has a cycle");
+        }
+        return dependencies;
+    }
+
+    /**
+     * Runs all nodes and waits for them to complete.
+     *
+     * @return The report of the run.
+     * @throws IllegalArgumentException if the graph has a cycle or two nodes write the same file.
+     * @throws InterruptedIOException   if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException              if the scheduler failed.
+     */
+    public Report execute() throws IOException {
+        final Map<Node, Set<Node>> dependencies = dependencies();
+        final Map<Node, NodeResult> results = new HashMap<>();
+        final Map<String, Integer> resourceUsage = new HashMap<>();
+        final List<Node> waiting = new ArrayList<>(nodes.values());
+        final ExecutorService pool = new ThreadPoolExecutor(maxParallelism, maxParallelism, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> ThreadUtil.newThread(threadFactory, r, "CommonsExecCommandGraph-", true));
+        final CompletionService<NodeResult> completionService = new ExecutorCompletionService<>(pool);
+        final Map<Node, ExecuteWatchdog> watchdogs = new ConcurrentHashMap<>();
+        final long startNanos = System.nanoTime();
+        int running = 0;
+        try {
+            while (true) {
+                cancelDownstream(waiting, dependencies, results);
+                for (final Iterator<Node> iterator = waiting.iterator(); iterator.hasNext() && running < maxParallelism;) {
+                    final Node node = iterator.next();
+                    if (results.keySet().containsAll(dependencies.get(node)) && acquire(node, resourceUsage)) {
+                        iterator.remove();
+                        completionService.submit(() -> run(node, startNanos, watchdogs));
+                        running++;
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+                final NodeResult result = completionService.take().get();
+                running--;
+                results.put(result.getNode(), result);
+                for (final String resource : result.getNode().resources) {
+                    resourceUsage.merge(resource, -1, Integer::sum);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+            throw new InterruptedIOException("Interrupted while waiting for the graph to complete");
+        } catch (final ExecutionException e) {
+            watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+        final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        final Map<String, NodeResult> ordered = new LinkedHashMap<>();
+        nodes.values().forEach(node -> ordered.put(node.name, results.get(node)));
+        return new Report(ordered, criticalPath(dependencies, results), duration);
+    }
+
+    /**
+     * Takes the resources of a node if none is at its limit.
+     */
+    private boolean acquire(final Node node, final Map<String, Integer> resourceUsage) {
+        for (final String resource : node.resources) {
+            final Integer limit = resourceLimits.get(resource);
+            if (limit != null && resourceUsage.getOrDefault(resource, 0) >= limit) {
+                return false;
+            }
+        }
+        for (final String resource : node.resources) {
+            resourceUsage.merge(resource, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the waiting nodes with a failed or cancelled dependency, which can be a node cancelled in the same pass.
+     */
+    private void cancelDownstream(final List<Node> waiting, final Map<Node, Set<Node>> dependencies, final Map<Node, NodeResult> results) {
+        boolean cancelled;
+        do {
+            cancelled = false;
+            for (final Iterator<Node> iterator = waiting.iterator(); iterator.hasNext();) {
+                final Node node = iterator.next();
+                for (final Node dependency : dependencies.get(node)) {
+                    final NodeResult result = results.get(dependency);
+                    if (result != null && result.getStatus() != Status.SUCCEEDED) {
+                        results.put(node, new NodeResult(node, Status.CANCELLED, Executor.INVALID_EXITVALUE, null, Duration.ZERO, Duration.ZERO));
+                        iterator.remove();
+                        cancelled = true;
+                        break;
+                    }
+                }
+            }
+        } while (cancelled);
+    }
+
+    /**
+     * Follows the dependencies that finished last back from the node that finished last.
+     */
+    private List<NodeResult> criticalPath(final Map<Node, Set<Node>> dependencies, final Map<Node, NodeResult> results) {
+        NodeResult last = null;
+        for (final NodeResult result : results.values()) {
+            if (result.getStatus() != Status.CANCELLED && (last == null || end(result).compareTo(end(last)) > 0)) {
+                last = result;
+            }
+        }
+        final List<NodeResult> path = new ArrayList<>();
+        while (last != null) {
+            path.add(0, last);
+            NodeResult gating = null;
+            for (final Node dependency : dependencies.get(last.getNode())) {
+                final NodeResult result = results.get(dependency);
+                if (gating == null || end(result).compareTo(end(gating)) > 0) {
+                    gating = result;
+                }
+            }
+            last = gating;
+        }
+        return path;
+    }
+
+    private static Duration end(final NodeResult result) {
+        return result.getStartOffset().plus(result.getDuration());
+    }
+
+    /**
+     * Runs the command of a node on a new executor.
+     */
+    private NodeResult run(final Node node, final long runStartNanos, final Map<Node, ExecuteWatchdog> watchdogs) {
+        final Executor executor = executorFactory.apply(node.commandLine);
+        final long startNanos = System.nanoTime();
+        final Duration startOffset = Duration.ofNanos(startNanos - runStartNanos);
+        int exitValue = Executor.INVALID_EXITVALUE;
+        IOException exception = null;
+        try {
+            exitValue = BatchExecutor.execute(executor, node.commandLine, environment, node, watchdogs, threadFactory, timeout);
+            for (final Path output : node.outputs) {
+                if (!Files.exists(output)) {
+                    exception = new IOException("Node " + node + " did not create its output " + output);
+                    break;
+                }
+            }
+        } catch (final ExecuteException e) {
+            exitValue = e.getExitValue();
+            exception = e;
+        } catch (final IOException e) {
+            exception = e;
+        }
+        return new NodeResult(node, exception == null ? Status.SUCCEEDED : Status.FAILED, exitValue, exception, startOffset,
+                Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+}
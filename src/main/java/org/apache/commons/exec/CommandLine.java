@@ -22,11 +22,13 @@ package org.apache.commons.exec;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.StringTokenizer;
+import java.util.function.Predicate;
 
 import org.apache.commons.exec.util.StringUtils;
 
@@ -51,15 +53,15 @@ public class CommandLine {
         private final boolean handleQuoting;
 
         private Argument(final String value, final boolean handleQuoting) {
-            this.value = value.trim();
+            this.value = value;
             this.handleQuoting = handleQuoting;
         }
 
-        private String getValue() {
+        String getValue() {
             return value;
         }
 
-        private boolean isHandleQuoting() {
+        boolean isHandleQuoting() {
             return handleQuoting;
         }
     }
@@ -264,10 +266,36 @@ public class CommandLine {
         if (handleQuoting) {
             StringUtils.quoteArgument(argument);
         }
+        arguments.add(new Argument(argument.trim(), handleQuoting));
+        return this;
+    }
+
+    /**
+     * Adds an argument as it is, without trimming it.
+     *
+     * @param argument      The argument.
+     * @param handleQuoting Whether the argument is quoted when the command line is rendered.
+     * @return The command line itself.
+     */
+    CommandLine addUntrimmedArgument(final String argument, final boolean handleQuoting) {
         arguments.add(new Argument(argument, handleQuoting));
         return this;
     }
 
+    /**
+     * Adds arguments as they are, without trimming, quoting or expanding variables later on.
+     *
+     * @param renderedArguments The final arguments.
+     * @param fromIndex         The index of the first argument to add.
+     * @return The command line itself.
+     */
+    CommandLine addRenderedArguments(final String[] renderedArguments, final int fromIndex) {
+        for (int i = fromIndex; i < renderedArguments.length; i++) {
+            arguments.add(new Argument(renderedArguments[i], false));
+        }
+        return this;
+    }
+
     /**
      * Add multiple arguments. Handles parsing of quotes and whitespace. Please note that the parsing can have undesired side-effects therefore it is
      * recommended to build the command line incrementally.
@@ -328,6 +356,9 @@ public class CommandLine {
      * @return The expanded string.
      */
     private String expandArgument(final String argument) {
+        if (substitutionMap == null || substitutionMap.isEmpty()) {
+            return argument;
+        }
         final StringBuffer stringBuffer = StringUtils.stringSubstitution(argument, getSubstitutionMap(), true);
         return stringBuffer.toString();
     }
@@ -338,29 +369,84 @@ public class CommandLine {
      * @return The quoted arguments.
      */
     public String[] getArguments() {
-        Argument currArgument;
-        String expandedArgument;
         final String[] result = new String[arguments.size()];
         for (int i = 0; i < result.length; i++) {
-            currArgument = arguments.get(i);
-            expandedArgument = expandArgument(currArgument.getValue());
-            result[i] = currArgument.isHandleQuoting() ? StringUtils.quoteArgument(expandedArgument) : expandedArgument;
+            result[i] = getArgument(i);
         }
         return result;
     }
 
+    /**
+     * Gets an expanded and quoted command line argument.
+     *
+     * @param index The index of the argument.
+     * @return The quoted argument.
+     */
+    private String getArgument(final int index) {
+        final Argument argument = arguments.get(index);
+        final String expandedArgument = expandArgument(argument.getValue());
+        return argument.isHandleQuoting() ? StringUtils.quoteArgument(expandedArgument) : expandedArgument;
+    }
+
+    /**
+     * Gets the arguments as added.
+     *
+     * @return The arguments, unmodifiable.
+     */
+    List<Argument> getArgumentList() {
+        return Collections.unmodifiableList(arguments);
+    }
+
+    /**
+     * Gets the arguments as added, without expanding variables or quoting.
+     *
+     * @return The unexpanded arguments.
+     */
+    String[] getArgumentValues() {
+        final String[] result = new String[arguments.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = arguments.get(i).getValue();
+        }
+        return result;
+    }
+
+    /**
+     * Copies this command line keeping only some of its arguments.
+     *
+     * @param predicate Tests the unexpanded value of an argument to keep.
+     * @return The copy.
+     */
+    CommandLine filterArguments(final Predicate<String> predicate) {
+        final CommandLine copy = new CommandLine(this);
+        copy.arguments.removeIf(argument -> !predicate.test(argument.getValue()));
+        return copy;
+    }
+
     /**
      * Gets the executable.
      *
      * @return The executable.
      */
     public String getExecutable() {
+        if (substitutionMap == null || substitutionMap.isEmpty()) {
+            // the constructor already fixed the separators
+            return executable;
+        }
         // Expand the executable and replace '/' and '\\' with the platform
         // specific file separator char. This is safe here since we know
         // that this is a platform specific command.
         return StringUtils.fixFileSeparatorChar(expandArgument(executable));
     }
 
+    /**
+     * Gets the executable as set, without expanding variables.
+     *
+     * @return The unexpanded executable.
+     */
+    String getExecutableValue() {
+        return executable;
+    }
+
     /**
      * Gets the substitution map.
      *
@@ -424,7 +510,9 @@ public class CommandLine {
     public String[] toStrings() {
         final String[] result = new String[arguments.size() + 1];
         result[0] = getExecutable();
-        System.arraycopy(getArguments(), 0, result, 1, result.length - 1);
+        for (int i = 1; i < result.length; i++) {
+            result[i] = getArgument(i - 1);
+        }
         return result;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * An immutable command line whose variables are parsed once, rendering the command for given variable values with little work. For example:
+ *
+ * <pre>
+ * CommandTemplate template = CommandTemplate.compile(CommandLine.parse("convert ${input} -resize 50% ${output}"));
+ * // for each request, from any thread
+ * String[] command = template.render(values);
+ * executor.execute(template.toCommandLine(values));
+ * </pre>
+ * <p>
+ * Rendering gives the same result as {@link CommandLine#toStrings()} on the command line with the values as its substitution map: a variable without a
+ * value is left as is, a {@link File} value is replaced by its absolute path and arguments added with quoting handling are quoted. Arguments and an
+ * executable without variables are expanded and quoted once when the template is compiled.
+ * </p>
+ * <p>
+ * Instances are thread-safe and can be shared.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public final class CommandTemplate {
+
+    /**
+     * A compiled executable or argument.
+     */
+    private static final class Part {
+
+        /** The rendered value if the part has no variables, null otherwise. */
+        private final String constant;
+
+        /** Whether to fix the file separators of the expanded value. */
+        private final boolean fixSeparators;
+
+        /** Whether to quote the expanded value. */
+        private final boolean quote;
+
+        /** Alternating literal text and variable names, starting and ending with literal text. */
+        private final String[] segments;
+
+        Part(final String value, final boolean quote, final boolean fixSeparators) {
+            this.segments = parse(value);
+            this.quote = quote;
+            this.fixSeparators = fixSeparators;
+            this.constant = segments.length == 1 ? finish(value) : null;
+        }
+
+        private String finish(final String expanded) {
+            final String fixed = fixSeparators ? StringUtils.fixFileSeparatorChar(expanded) : expanded;
+            return quote ? StringUtils.quoteArgument(fixed) : fixed;
+        }
+
+        String render(final Map<String, ?> substitutionMap) {
+            if (constant != null) {
+                return constant;
+            }
+            final StringBuilder builder = new StringBuilder(segments[0]);
+            for (int i = 1; i < segments.length; i += 2) {
+                final String name = segments[i];
+                final Object value = substitutionMap != null ? substitutionMap.get(name) : null;
+                if (value instanceof File) {
+                    builder.append(StringUtils.fixFileSeparatorChar(((File) value).getAbsolutePath()));
+                } else if (value != null) {
+                    builder.append(value.toString());
+                } else {
+                    // like a lenient substitution
+                    builder.append("${").append(name).append('}');
+                }
+                builder.append(segments[i + 1]);
+            }
+            return finish(builder.toString());
+        }
+    }
+
+    /**
+     * Compiles a command line. The substitution map of the command line is not used.
+     *
+     * @param commandLine The command line with variables such as {@code ${file}}.
+     * @return The compiled template.
+     * @throws IllegalArgumentException if a variable is not closed by a {@code '}'}.
+     */
+    public static CommandTemplate compile(final CommandLine commandLine) {
+        return new CommandTemplate(Objects.requireNonNull(commandLine, "commandLine"));
+    }
+
+    /**
+     * Tests whether a character can be part of a variable name, as in {@link StringUtils#stringSubstitution(String, Map, boolean)}.
+     */
+    private static boolean isNameChar(final char ch) {
+        return ch == '_' || ch == '.' || ch == '-' || ch == '+' || Character.isLetterOrDigit(ch);
+    }
+
+    /**
+     * Splits a value into alternating literal text and variable names.
+     */
+    private static String[] parse(final String value) {
+        final List<String> segments = new ArrayList<>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < value.length() - 1) {
+            if (value.charAt(i) == '$' && value.charAt(i + 1) == '{') {
+                int nameEnd = i + 2;
+                while (nameEnd < value.length() && isNameChar(value.charAt(nameEnd))) {
+                    nameEnd++;
+                }
+                final String name = value.substring(i + 2, nameEnd);
+                if (nameEnd == value.length() || value.charAt(nameEnd) != '}') {
+                    throw new IllegalArgumentException("Delimiter not found for : " + name);
+                }
+                segments.add(value.substring(literalStart, i));
+                segments.add(name);
+                i = nameEnd + 1;
+                literalStart = i;
+            } else {
+                i++;
+            }
+        }
+        segments.add(value.substring(literalStart));
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /** The executable followed by the arguments. */
+    private final Part[] parts;
+
+    /** The names of the variables, in order of appearance. */
+    private final Set<String> variableNames;
+
+    private CommandTemplate(final CommandLine commandLine) {
+        final List<CommandLine.Argument> arguments = commandLine.getArgumentList();
+        this.parts = new Part[arguments.size() + 1];
+        parts[0] = new Part(commandLine.getExecutableValue(), false, true);
+        for (int i = 0; i < arguments.size(); i++) {
+            final CommandLine.Argument argument = arguments.get(i);
+            parts[i + 1] = new Part(argument.getValue(), argument.isHandleQuoting(), false);
+        }
+        final Set<String> names = new LinkedHashSet<>();
+        for (final Part part : parts) {
+            for (int i = 1; i < part.segments.length; i += 2) {
+                names.add(part.segments[i]);
+            }
+        }
+        this.variableNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Gets the names of the variables of the template.
+     *
+     * @return The variable names in order of appearance, unmodifiable.
+     */
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Renders the executable followed by the arguments, as {@link CommandLine#toStrings()} does.
+     *
+     * @param substitutionMap The values of the variables, may be null.
+     * @return The executable followed by the expanded and quoted arguments.
+     * @throws IllegalArgumentException if a quoted argument contains both single and double quotes.
+     */
+    public String[] render(final Map<String, ?> substitutionMap) {
+        final String[] result = new String[parts.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = parts[i].render(substitutionMap);
+        }
+        return result;
+    }
+
+    /**
+     * Renders a new command line to pass to an {@link Executor}. Its arguments are final: they are neither quoted nor expanded again.
+     *
+     * @param substitutionMap The values of the variables, may be null.
+     * @return A new command line.
+     * @throws IllegalArgumentException if a quoted argument contains both single and double quotes.
+     */
+    public CommandLine toCommandLine(final Map<String, ?> substitutionMap) {
+        final String[] rendered = render(substitutionMap);
+        return new CommandLine(rendered[0]).addRenderedArguments(rendered, 1);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + String.join(", ", render(null)) + "]";
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the bytes written to it in the GZIP format on a thread of its own, typically to archive the output of a process:
+ *
+ * <pre>
+ * try (CompressingOutputStream archive = CompressingOutputStream.builder().setOutputStream(Files.newOutputStream(path)).setLevel(6).get()) {
+ *     executor.setStreamHandler(new PumpStreamHandler(archive));
+ *     executor.execute(commandLine);
+ * }
+ * </pre>
+ * <p>
+ * Writes only copy the bytes into a block; full blocks are handed to the compressing thread through a bounded queue, and emptied blocks are recycled. The
+ * pump thread, and so the process, only waits when the compressing thread falls behind by more than the queued blocks. Errors of the compressing thread
+ * fail the following write or close.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class CompressingOutputStream extends OutputStream {
+
+    /**
+     * Builds CompressingOutputStream instances.
+     */
+    public static final class Builder implements Supplier<CompressingOutputStream> {
+
+        /** The size of a block. */
+        private int blockSize = DEFAULT_BLOCK_SIZE;
+
+        /** The compression level. */
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        /** The number of full blocks waiting for the compressing thread. */
+        private int maxQueuedBlocks = DEFAULT_MAX_QUEUED_BLOCKS;
+
+        /** The stream receiving the compressed bytes. */
+        private OutputStream outputStream;
+
+        /** The thread factory of the compressing thread. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured CompressingOutputStream, starting its compressing thread.
+         *
+         * @return a new configured CompressingOutputStream.
+         * @throws NullPointerException if no output stream is set.
+         */
+        @Override
+        public CompressingOutputStream get() {
+            return new CompressingOutputStream(this);
+        }
+
+        /**
+         * Sets the size of a block, the unit of work of the compressing thread.
+         *
+         * @param blockSize The size, values below 1 reset to 64 KiB.
+         * @return {@code this} instance.
+         */
+        public Builder setBlockSize(final int blockSize) {
+            this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+            return this;
+        }
+
+        /**
+         * Sets the compression level.
+         *
+         * @param level The level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+         * @return {@code this} instance.
+         * @throws IllegalArgumentException if the level is invalid.
+         */
+        public Builder setLevel(final int level) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid compression level: " + level);
+            }
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Sets the number of full blocks that can wait for the compressing thread before writes wait.
+         *
+         * @param maxQueuedBlocks The number, values below 1 reset to 16.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxQueuedBlocks(final int maxQueuedBlocks) {
+            this.maxQueuedBlocks = maxQueuedBlocks > 0 ? maxQueuedBlocks : DEFAULT_MAX_QUEUED_BLOCKS;
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the compressed bytes, closed on close.
+         *
+         * @param outputStream The stream.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory of the compressing thread.
+         *
+         * @param threadFactory The thread factory, null resets to {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * A block of raw bytes.
+     */
+    private static final class Block {
+
+        final byte[] bytes;
+
+        int length;
+
+        Block(final int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_MAX_QUEUED_BLOCKS = 16;
+
+    /** Marks the end of the blocks. */
+    private static final Block END = new Block(0);
+
+    /** The time between checks that the compressing thread is still running while the queue is full. */
+    private static final long ENQUEUE_POLL_MILLIS = 100;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The size of a block. */
+    private final int blockSize;
+
+    /** Whether the stream is closed. */
+    private boolean closed;
+
+    /** The number of compressed bytes written. */
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /** The compressing thread. */
+    private final Thread compressor;
+
+    /** Whether the compressing thread ended. */
+    private volatile boolean compressorDone;
+
+    /** The block being filled. */
+    private Block current;
+
+    /** The failure of the compressing thread. */
+    private volatile IOException failure;
+
+    /** The emptied blocks. */
+    private final BlockingQueue<Block> free;
+
+    /** The full blocks. */
+    private final BlockingQueue<Block> full;
+
+    /** The compression level. */
+    private final int level;
+
+    /** The stream receiving the compressed bytes. */
+    private final OutputStream outputStream;
+
+    /** The number of raw bytes written. */
+    private long rawBytes;
+
+    private CompressingOutputStream(final Builder builder) {
+        this.blockSize = builder.blockSize;
+        this.level = builder.level;
+        this.outputStream = Objects.requireNonNull(builder.outputStream, "outputStream");
+        // one more for the end marker
+        this.full = new ArrayBlockingQueue<>(builder.maxQueuedBlocks + 1);
+        this.free = new ArrayBlockingQueue<>(builder.maxQueuedBlocks + 2);
+        this.compressor = ThreadUtil.newThread(builder.threadFactory, this::compress, "CommonsExecCompressingOutputStream-", true);
+        compressor.start();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed compressing", failure);
+        }
+    }
+
+    /**
+     * Compresses the remaining blocks, waits for the compressing thread and closes the target stream.
+     *
+     * @throws IOException if compressing or writing the target stream failed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!compressorDone) {
+                handOff();
+                enqueue(END);
+            }
+            compressor.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            compressor.interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compression to end");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Compresses the full blocks until the end marker, then closes the target stream. Runs on the compressing thread, which keeps taking blocks after a
+     * failure, including one writing the GZIP header, so that writers never wait for it forever.
+     */
+    private void compress() {
+        final OutputStream counting = new FilterOutputStream(outputStream) {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                compressedBytes.addAndGet(len);
+            }
+        };
+        GZIPOutputStream gzip = null;
+        try {
+            gzip = new GZIPOutputStream(counting, blockSize) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        } catch (final IOException e) {
+            failure = e;
+        }
+        try {
+            Block block;
+            while ((block = full.take()) != END) {
+                if (failure == null) {
+                    try {
+                        gzip.write(block.bytes, 0, block.length);
+                    } catch (final IOException e) {
+                        failure = e;
+                    }
+                }
+                block.length = 0;
+                free.offer(block);
+            }
+        } catch (final InterruptedException e) {
+            if (failure == null) {
+                failure = new InterruptedIOException("Interrupted while compressing");
+            }
+        } finally {
+            try {
+                if (gzip != null) {
+                    gzip.close();
+                } else {
+                    outputStream.close();
+                }
+            } catch (final IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                compressorDone = true;
+            }
+        }
+    }
+
+    /**
+     * Queues a block for the compressing thread, waiting while the queue is full unless the thread ended.
+     */
+    private void enqueue(final Block block) throws IOException, InterruptedException {
+        while (!full.offer(block, ENQUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (compressorDone) {
+                checkFailure();
+                throw new IOException("The compressing thread ended");
+            }
+        }
+    }
+
+    /**
+     * Hands the current block to the compressing thread without waiting for it to be compressed.
+     *
+     * @throws IOException if compressing failed.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkFailure();
+        try {
+            handOff();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compressing thread");
+        }
+    }
+
+    /**
+     * Gets the number of compressed bytes written to the target stream so far.
+     *
+     * @return The number of compressed bytes.
+     */
+    public long getCompressedByteCount() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Gets the number of raw bytes written to this stream.
+     *
+     * @return The number of raw bytes.
+     */
+    public synchronized long getRawByteCount() {
+        return rawBytes;
+    }
+
+    private void handOff() throws IOException, InterruptedException {
+        if (current != null && current.length > 0) {
+            enqueue(current);
+            current = null;
+        }
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        checkFailure();
+        try {
+            int start = off;
+            final int end = off + len;
+            while (start < end) {
+                if (current == null) {
+                    final Block recycled = free.poll();
+                    current = recycled != null ? recycled : new Block(blockSize);
+                }
+                final int n = Math.min(end - start, blockSize - current.length);
+                System.arraycopy(b, start, current.bytes, current.length, n);
+                current.length += n;
+                start += n;
+                if (current.length == blockSize) {
+                    handOff();
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compressing thread");
+        }
+        rawBytes += len;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+}
@@ -21,7 +21,9 @@ package org.apache.commons.exec;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -62,6 +64,11 @@ public class DefaultExecutor implements Executor {
      */
     public static class Builder<T extends Builder<T>> implements Supplier<DefaultExecutor> {
 
+        /**
+         * Command launcher.
+         */
+        private CommandLauncher commandLauncher;
+
         /**
          * Error stream handler.
          */
@@ -122,6 +129,18 @@ public class DefaultExecutor implements Executor {
             return workingDirectory;
         }
 
+        /**
+         * Sets the CommandLauncher, for example to share an {@link org.apache.commons.exec.launcher.AdmissionControlCommandLauncher} among executors.
+         *
+         * @param commandLauncher The CommandLauncher, null resets to the default.
+         * @return {@code this} instance.
+         * @since 1.7.0
+         */
+        public T setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return asThis();
+        }
+
         /**
          * Sets the PumpStreamHandler.
          *
@@ -169,6 +188,38 @@ public class DefaultExecutor implements Executor {
 
     }
 
+    /**
+     * Restarts the idle timeout of a watchdog whenever the process writes to a stream, whatever the stream handler reading it.
+     */
+    private static final class ActivityInputStream extends FilterInputStream {
+
+        /** The watchdog with an idle timeout. */
+        private final ExecuteWatchdog watchdog;
+
+        ActivityInputStream(final InputStream inputStream, final ExecuteWatchdog watchdog) {
+            super(inputStream);
+            this.watchdog = watchdog;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                watchdog.touch();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                watchdog.touch();
+            }
+            return n;
+        }
+    }
+
     /**
      * Creates a new builder.
      *
@@ -225,7 +276,7 @@ public class DefaultExecutor implements Executor {
         this.threadFactory = builder.threadFactory != null ? builder.threadFactory : Executors.defaultThreadFactory();
         this.executeStreamHandler = builder.executeStreamHandler != null ? builder.executeStreamHandler : new PumpStreamHandler();
         this.workingDirectory = builder.workingDirectory != null ? builder.workingDirectory : Paths.get(".");
-        this.launcher = CommandLauncherFactory.createVMLauncher();
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
         this.exitValues = new int[0];
     }
 
@@ -573,8 +624,13 @@ public class DefaultExecutor implements Executor {
     @SuppressWarnings("resource")
     private void setStreams(final ExecuteStreamHandler streams, final Process process) throws IOException {
         streams.setProcessInputStream(process.getOutputStream());
-        streams.setProcessOutputStream(process.getInputStream());
-        streams.setProcessErrorStream(process.getErrorStream());
+        if (watchdog != null && watchdog.hasIdleTimeout()) {
+            streams.setProcessOutputStream(new ActivityInputStream(process.getInputStream(), watchdog));
+            streams.setProcessErrorStream(new ActivityInputStream(process.getErrorStream(), watchdog));
+        } else {
+            streams.setProcessOutputStream(process.getInputStream());
+            streams.setProcessErrorStream(process.getErrorStream());
+        }
     }
 
     /**
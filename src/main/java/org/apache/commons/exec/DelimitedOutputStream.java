@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Splits the bytes written to it into records separated by a delimiter of one or more bytes, for example the NUL printed by {@code find -print0} or
+ * {@code git -z}, so that file names containing line feeds are kept whole:
+ *
+ * <pre>
+ * List&lt;String&gt; files = new ArrayList&lt;&gt;();
+ * DelimitedOutputStream out = DelimitedOutputStream.builder().setDelimiter((byte) 0).setStringConsumer(files::add).get();
+ * executor.setStreamHandler(new PumpStreamHandler(out));
+ * executor.execute(CommandLine.parse("find . -print0"));
+ * </pre>
+ * <p>
+ * A single-byte delimiter is found by a plain scan, a longer one by a {@link LiteralAutomaton}, whose state is kept across writes so that a delimiter
+ * split between two writes is found too. A record lying within one write is passed to the consumer as a slice of the written array without copying;
+ * otherwise its bytes are buffered. Records longer than the maximum length are passed in pieces of that length. Empty records are passed as well, and the
+ * last record is passed on close even without a final delimiter. The stream is thread-safe.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class DelimitedOutputStream extends OutputStream {
+
+    /**
+     * Builds DelimitedOutputStream instances.
+     */
+    public static final class Builder implements Supplier<DelimitedOutputStream> {
+
+        /** The charset decoding records for the string consumer. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** The delimiter. */
+        private byte[] delimiter = DEFAULT_DELIMITER;
+
+        /** The maximum length of a record. */
+        private int maxRecordLength = DEFAULT_MAX_RECORD_LENGTH;
+
+        /** The consumer of the records. */
+        private RecordConsumer recordConsumer;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured DelimitedOutputStream.
+         *
+         * @return a new configured DelimitedOutputStream.
+         * @throws NullPointerException if no consumer is set.
+         */
+        @Override
+        public DelimitedOutputStream get() {
+            return new DelimitedOutputStream(this);
+        }
+
+        /**
+         * Sets the charset decoding records for the consumer set by {@link #setStringConsumer(Consumer)}.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the delimiter.
+         *
+         * @param delimiter The delimiter, null or empty resets to a line feed.
+         * @return {@code this} instance.
+         */
+        public Builder setDelimiter(final byte... delimiter) {
+            this.delimiter = delimiter != null && delimiter.length > 0 ? delimiter.clone() : DEFAULT_DELIMITER;
+            return this;
+        }
+
+        /**
+         * Sets the maximum length of a record, longer records being passed in pieces.
+         *
+         * @param maxRecordLength The maximum, values below 1 reset to 1 MiB.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxRecordLength(final int maxRecordLength) {
+            this.maxRecordLength = maxRecordLength > 0 ? maxRecordLength : DEFAULT_MAX_RECORD_LENGTH;
+            return this;
+        }
+
+        /**
+         * Sets the consumer of the records as byte slices.
+         *
+         * @param recordConsumer The consumer.
+         * @return {@code this} instance.
+         */
+        public Builder setRecordConsumer(final RecordConsumer recordConsumer) {
+            this.recordConsumer = recordConsumer;
+            return this;
+        }
+
+        /**
+         * Sets the consumer of the records as strings, decoded with the charset set by {@link #setCharset(Charset)}.
+         *
+         * @param stringConsumer The consumer.
+         * @return {@code this} instance.
+         */
+        public Builder setStringConsumer(final Consumer<String> stringConsumer) {
+            this.recordConsumer = stringConsumer == null ? null : (bytes, offset, length) -> stringConsumer.accept(new String(bytes, offset, length, charset));
+            return this;
+        }
+    }
+
+    /**
+     * Receives the records.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        /**
+         * Receives a record, without its delimiter.
+         *
+         * @param bytes  The array holding the record, not to be modified nor kept.
+         * @param offset The offset of the record in the array.
+         * @param length The length of the record.
+         * @throws IOException if the record cannot be processed, failing the write.
+         */
+        void accept(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private static final byte[] DEFAULT_DELIMITER = { '\n' };
+
+    private static final int DEFAULT_MAX_RECORD_LENGTH = 1024 * 1024;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The bytes of the current record not within the current write, including a partial delimiter. */
+    private byte[] buffer = new byte[256];
+
+    /** The number of bytes in the buffer. */
+    private int buffered;
+
+    /** The consumer of the records. */
+    private final RecordConsumer consumer;
+
+    /** The delimiter. */
+    private final byte[] delimiter;
+
+    /** Matches the delimiter. */
+    private final LiteralAutomaton automaton;
+
+    /** The maximum length of a record. */
+    private final int maxRecordLength;
+
+    /** The number of bytes of the delimiter matched at the end of the bytes written. */
+    private int matched;
+
+    private DelimitedOutputStream(final Builder builder) {
+        this.consumer = Objects.requireNonNull(builder.recordConsumer, "recordConsumer");
+        this.delimiter = builder.delimiter;
+        this.maxRecordLength = builder.maxRecordLength;
+        this.automaton = new LiteralAutomaton(new byte[][] { delimiter });
+    }
+
+    private void append(final byte[] b, final int off, final int len) {
+        if (buffer.length - buffered < len) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + len));
+        }
+        System.arraycopy(b, off, buffer, buffered, len);
+        buffered += len;
+    }
+
+    /**
+     * Passes the last record if it has no delimiter.
+     *
+     * @throws IOException if the consumer fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffered > 0) {
+            final int length = buffered;
+            buffered = 0;
+            matched = 0;
+            emit(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Passes a record, in pieces if it is too long.
+     */
+    private void emit(final byte[] b, final int off, final int len) throws IOException {
+        int start = off;
+        final int end = off + len;
+        do {
+            final int n = Math.min(maxRecordLength, end - start);
+            consumer.accept(b, start, n);
+            start += n;
+        } while (start < end);
+    }
+
+    /**
+     * Finds the end of the next delimiter.
+     *
+     * @return The index following the delimiter, or -1 if none ends in the range, {@link #matched} then holding the partial match at its end.
+     */
+    private int find(final byte[] b, final int start, final int end) {
+        if (delimiter.length == 1) {
+            final byte d = delimiter[0];
+            for (int i = start; i < end; i++) {
+                if (b[i] == d) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        int state = matched;
+        for (int i = start; i < end; i++) {
+            state = automaton.next(state, b[i]);
+            if (state == delimiter.length) {
+                matched = 0;
+                return i + 1;
+            }
+        }
+        matched = state;
+        return -1;
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int end = off + len;
+        int start = off;
+        int next;
+        while ((next = find(b, start, end)) >= 0) {
+            if (buffered == 0 && next - start >= delimiter.length) {
+                emit(b, start, next - start - delimiter.length);
+            } else {
+                // the record, or its delimiter, started in a previous write
+                append(b, start, next - start);
+                final int length = buffered - delimiter.length;
+                buffered = 0;
+                emit(buffer, 0, length);
+            }
+            start = next;
+        }
+        while (start < end) {
+            final int n = Math.min(end - start, maxRecordLength + delimiter.length - buffered);
+            append(b, start, n);
+            start += n;
+            // keep a partial delimiter, which may still be completed
+            if (buffered - matched > maxRecordLength) {
+                consumer.accept(buffer, 0, maxRecordLength);
+                buffered -= maxRecordLength;
+                System.arraycopy(buffer, maxRecordLength, buffer, 0, buffered);
+            }
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+/**
+ * Computes message digests and checksums of the bytes written to it as they pass through to another stream, so that the output of a process is verified
+ * without reading it a second time:
+ *
+ * <pre>
+ * DigestingOutputStream out = DigestingOutputStream.builder().setOutputStream(Files.newOutputStream(archive)).setAlgorithms("SHA-256").get();
+ * executor.setStreamHandler(new PumpStreamHandler(out, System.err));
+ * executor.execute(commandLine);
+ * out.close();
+ * String sha256 = out.getDigestHex("SHA-256");
+ * </pre>
+ * <p>
+ * Each write updates every digest and checksum from the written array before passing it on, in one pass and without copying. The digests are completed
+ * on close; checksums, for example a {@link java.util.zip.CRC32} or, on Java 9 and later, a {@code CRC32C}, are given by the caller, who reads their values.
+ * The stream is thread-safe.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class DigestingOutputStream extends FilterOutputStream {
+
+    /**
+     * Builds DigestingOutputStream instances.
+     */
+    public static final class Builder implements Supplier<DigestingOutputStream> {
+
+        /** The message digest algorithms. */
+        private String[] algorithms = {};
+
+        /** The checksums. */
+        private Checksum[] checksums = {};
+
+        /** The stream receiving the bytes, null to discard them. */
+        private OutputStream outputStream;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured DigestingOutputStream.
+         *
+         * @return a new configured DigestingOutputStream.
+         * @throws IllegalArgumentException if an algorithm is not available.
+         */
+        @Override
+        public DigestingOutputStream get() {
+            return new DigestingOutputStream(this);
+        }
+
+        /**
+         * Sets the message digest algorithms, for example {@code "SHA-256"}.
+         *
+         * @param algorithms The algorithms, null resets to none.
+         * @return {@code this} instance.
+         */
+        public Builder setAlgorithms(final String... algorithms) {
+            this.algorithms = algorithms != null ? algorithms.clone() : new String[0];
+            return this;
+        }
+
+        /**
+         * Sets the checksums, which are updated and not reset.
+         *
+         * @param checksums The checksums, null resets to none.
+         * @return {@code this} instance.
+         */
+        public Builder setChecksums(final Checksum... checksums) {
+            this.checksums = checksums != null ? checksums.clone() : new Checksum[0];
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the bytes, closed on close.
+         *
+         * @param outputStream The stream, null resets to discarding the bytes.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The number of bytes written. */
+    private long byteCount;
+
+    /** The checksums. */
+    private final Checksum[] checksums;
+
+    /** The completed digests by algorithm, null until closed. */
+    private Map<String, byte[]> completed;
+
+    /** The digests by algorithm. */
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    private DigestingOutputStream(final Builder builder) {
+        super(builder.outputStream);
+        this.checksums = builder.checksums;
+        for (final String algorithm : builder.algorithms) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Completes the digests and closes the target stream.
+     *
+     * @throws IOException if the target stream cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (completed != null) {
+            return;
+        }
+        completed = new LinkedHashMap<>();
+        digests.forEach((algorithm, digest) -> completed.put(algorithm, digest.digest()));
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Gets the number of bytes written.
+     *
+     * @return The number of bytes written.
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Gets a digest of the bytes written.
+     *
+     * @param algorithm The algorithm, as given to the builder.
+     * @return The digest.
+     * @throws IllegalArgumentException if the algorithm was not given to the builder.
+     * @throws IllegalStateException    if the stream is not closed.
+     */
+    public synchronized byte[] getDigest(final String algorithm) {
+        if (!digests.containsKey(algorithm)) {
+            throw new IllegalArgumentException("No digest " + algorithm);
+        }
+        if (completed == null) {
+            throw new IllegalStateException("The digests are completed on close");
+        }
+        return completed.get(algorithm).clone();
+    }
+
+    /**
+     * Gets a digest of the bytes written as lowercase hexadecimal digits.
+     *
+     * @param algorithm The algorithm, as given to the builder.
+     * @return The digest in hexadecimal.
+     * @throws IllegalArgumentException if the algorithm was not given to the builder.
+     * @throws IllegalStateException    if the stream is not closed.
+     */
+    public String getDigestHex(final String algorithm) {
+        final byte[] digest = getDigest(algorithm);
+        final char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[digest[i] >> 4 & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (completed != null) {
+            throw new IOException("Stream closed");
+        }
+        for (final MessageDigest digest : digests.values()) {
+            digest.update(b, off, len);
+        }
+        for (final Checksum checksum : checksums) {
+            checksum.update(b, off, len);
+        }
+        byteCount += len;
+        if (out != null) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+}
@@ -19,16 +19,19 @@
 
 package org.apache.commons.exec;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
 
 import org.apache.commons.exec.util.DebugUtils;
 
 /**
- * Destroys a process running for too long. For example:
+ * Destroys a process running for too long or, when an idle timeout is set, a process that stopped producing output. For example:
  *
  * <pre>
  * ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setTimeout(Duration.ofSeconds(30)).get();
@@ -40,6 +43,23 @@ import org.apache.commons.exec.util.DebugUtils;
  * }
  * </pre>
  * <p>
+ * A process that may legitimately run for a long time but should never be silent for long can be guarded with an idle timeout instead:
+ * </p>
+ *
+ * <pre>
+ * ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMinutes(5)).get();
+ * </pre>
+ * <p>
+ * On Linux, the watchdog can also enforce a budget of CPU time and resident memory for the process and its descendants by sampling {@code /proc}:
+ * </p>
+ *
+ * <pre>
+ * ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setCpuTimeLimit(Duration.ofMinutes(10)).setResidentSetSizeLimit(2L &lt;&lt; 30).get();
+ * </pre>
+ * <p>
+ * A process exceeding its budget is destroyed together with its descendants.
+ * </p>
+ * <p>
  * When starting an asynchronous process than 'ExecuteWatchdog' is the keeper of the process handle. In some cases it is useful not to define a timeout (and
  * pass {@link #INFINITE_TIMEOUT_DURATION}) and to kill the process explicitly using {@link #destroyProcess()}.
  * </p>
@@ -66,6 +86,18 @@ public class ExecuteWatchdog implements TimeoutObserver {
         /** Timeout duration. */
         private Duration timeout = INFINITE_TIMEOUT_DURATION;
 
+        /** Idle timeout duration. */
+        private Duration idleTimeout = INFINITE_TIMEOUT_DURATION;
+
+        /** CPU time limit, null for none. */
+        private Duration cpuTimeLimit;
+
+        /** Resident set size limit in bytes, 0 for none. */
+        private long residentSetSizeLimit;
+
+        /** Resource sampling interval, null for the default. */
+        private Duration sampleInterval;
+
         /**
          * Constructs a new instance.
          */
@@ -83,6 +115,66 @@ public class ExecuteWatchdog implements TimeoutObserver {
             return new ExecuteWatchdog(this);
         }
 
+        /**
+         * Sets the maximum CPU time the process and its descendants may consume.
+         * <p>
+         * Resource limits are enforced by sampling {@code /proc} and are therefore only available on Linux, elsewhere they are ignored.
+         * </p>
+         *
+         * @param cpuTimeLimit The CPU time limit, null resets to no limit.
+         * @return {@code this} instance.
+         * @since 1.7.0
+         */
+        public Builder setCpuTimeLimit(final Duration cpuTimeLimit) {
+            this.cpuTimeLimit = cpuTimeLimit;
+            return this;
+        }
+
+        /**
+         * Sets the idle timeout duration, the maximum time the process may run without writing to its output or error stream.
+         * <p>
+         * A {@link DefaultExecutor} restarts the idle timeout whenever its stream handler, whichever it is, reads output of the process, so that a handler
+         * reading on demand, such as a {@link FlowStreamHandler} without demand, lets the idle timeout elapse. Elsewhere, call {@link ExecuteWatchdog#touch()}
+         * on activity.
+         * </p>
+         *
+         * @param idleTimeout The idle timeout duration, null resets to default {@link #INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         * @since 1.7.0
+         */
+        public Builder setIdleTimeout(final Duration idleTimeout) {
+            this.idleTimeout = idleTimeout != null ? idleTimeout : INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the maximum resident set size, the physical memory the process and its descendants may occupy.
+         * <p>
+         * Resource limits are enforced by sampling {@code /proc} and are therefore only available on Linux, elsewhere they are ignored.
+         * </p>
+         *
+         * @param residentSetSizeLimit The resident set size limit in bytes, 0 or less resets to no limit.
+         * @return {@code this} instance.
+         * @since 1.7.0
+         */
+        public Builder setResidentSetSizeLimit(final long residentSetSizeLimit) {
+            this.residentSetSizeLimit = Math.max(0, residentSetSizeLimit);
+            return this;
+        }
+
+        /**
+         * Sets the interval at which the resource usage of the process is sampled. Setting an interval enables sampling even without resource limits, which
+         * makes {@link ExecuteWatchdog#getPeakResidentSetSize()} and {@link ExecuteWatchdog#getCpuTime()} available.
+         *
+         * @param sampleInterval The sampling interval, null resets to one second if a resource limit is set and no sampling otherwise.
+         * @return {@code this} instance.
+         * @since 1.7.0
+         */
+        public Builder setSampleInterval(final Duration sampleInterval) {
+            this.sampleInterval = sampleInterval;
+            return this;
+        }
+
         /**
          * Sets the thread factory.
          *
@@ -113,6 +205,9 @@ public class ExecuteWatchdog implements TimeoutObserver {
     /** The marker for an infinite timeout. */
     public static final Duration INFINITE_TIMEOUT_DURATION = Duration.ofMillis(INFINITE_TIMEOUT);
 
+    /** The default resource sampling interval. */
+    private static final Duration DEFAULT_SAMPLE_INTERVAL = Duration.ofSeconds(1);
+
     /**
      * Creates a new builder.
      *
@@ -129,6 +224,27 @@ public class ExecuteWatchdog implements TimeoutObserver {
     /** Is a user-supplied timeout in use. */
     private final boolean hasWatchdog;
 
+    /** Will tell us whether the process has been silent for too long, null if there is no idle timeout. */
+    private final Watchdog idleWatchdog;
+
+    /** CPU time limit in milliseconds, 0 for none. */
+    private final long cpuTimeLimitMillis;
+
+    /** Resident set size limit in bytes, 0 for none. */
+    private final long residentSetSizeLimit;
+
+    /** Resource sampling interval, null if the resource usage is not sampled. */
+    private final Duration sampleInterval;
+
+    /** The pending resource sampling task of the current process. */
+    private Future<?> sampling;
+
+    /** The CPU time of the current or last process in milliseconds. */
+    private volatile long cpuTimeMillis;
+
+    /** The peak resident set size of the current or last process in bytes. */
+    private volatile long peakResidentSetSize;
+
     /** Say whether the process was killed due to running overtime. */
     private boolean killedProcess;
 
@@ -167,6 +283,19 @@ public class ExecuteWatchdog implements TimeoutObserver {
         } else {
             this.watchdog = null;
         }
+        if (!INFINITE_TIMEOUT_DURATION.equals(builder.idleTimeout)) {
+            this.idleWatchdog = Watchdog.builder().setThreadFactory(threadFactory).setTimeout(builder.idleTimeout).get();
+            this.idleWatchdog.addTimeoutObserver(this);
+        } else {
+            this.idleWatchdog = null;
+        }
+        this.cpuTimeLimitMillis = builder.cpuTimeLimit != null ? Math.max(1, builder.cpuTimeLimit.toMillis()) : 0;
+        this.residentSetSizeLimit = builder.residentSetSizeLimit;
+        if (builder.sampleInterval != null) {
+            this.sampleInterval = builder.sampleInterval;
+        } else {
+            this.sampleInterval = cpuTimeLimitMillis > 0 || residentSetSizeLimit > 0 ? DEFAULT_SAMPLE_INTERVAL : null;
+        }
     }
 
     /**
@@ -192,10 +321,21 @@ public class ExecuteWatchdog implements TimeoutObserver {
         }
     }
 
+    /**
+     * Stops sampling the resource usage of the process. The caller of this method must be holding the lock on this.
+     */
+    private void cancelSampling() {
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
     /**
      * Resets the monitor flag and the process.
      */
     protected synchronized void cleanUp() {
+        cancelSampling();
         watch = false;
         process = null;
     }
@@ -223,6 +363,15 @@ public class ExecuteWatchdog implements TimeoutObserver {
         }
     }
 
+    /**
+     * Notification that an execution with this watchdog ended, whether or not its process was started, releasing a concurrent {@link #destroyProcess()}
+     * waiting for the start.
+     */
+    synchronized void executionEnded() {
+        processStarted = true;
+        notifyAll();
+    }
+
     /**
      * Notification that starting the process failed.
      *
@@ -234,6 +383,35 @@ public class ExecuteWatchdog implements TimeoutObserver {
         notifyAll();
     }
 
+    /**
+     * Gets the CPU time consumed by the current or last process and its descendants as last sampled.
+     *
+     * @return The CPU time, {@link Duration#ZERO} if the resource usage is not sampled.
+     * @since 1.7.0
+     */
+    public Duration getCpuTime() {
+        return Duration.ofMillis(cpuTimeMillis);
+    }
+
+    /**
+     * Gets the idle watchdog.
+     *
+     * @return The idle watchdog, null if there is no idle timeout.
+     */
+    Watchdog getIdleWatchdog() {
+        return idleWatchdog;
+    }
+
+    /**
+     * Gets the highest resident set size of the current or last process and its descendants observed while sampling.
+     *
+     * @return The peak resident set size in bytes, 0 if the resource usage is not sampled.
+     * @since 1.7.0
+     */
+    public long getPeakResidentSetSize() {
+        return peakResidentSetSize;
+    }
+
     /**
      * Gets the watchdog.
      *
@@ -243,6 +421,15 @@ public class ExecuteWatchdog implements TimeoutObserver {
         return watchdog;
     }
 
+    /**
+     * Tests whether an idle timeout is in use.
+     *
+     * @return {@code true} if an idle timeout is in use.
+     */
+    boolean hasIdleTimeout() {
+        return idleWatchdog != null;
+    }
+
     /**
      * Tests whether the watchdog is still monitoring the process.
      *
@@ -262,6 +449,44 @@ public class ExecuteWatchdog implements TimeoutObserver {
         return killedProcess;
     }
 
+    /**
+     * Records activity on the output or error stream of the watched process, restarting the idle timeout. Does nothing if there is no idle timeout.
+     *
+     * @since 1.7.0
+     */
+    public void touch() {
+        if (idleWatchdog != null) {
+            idleWatchdog.touch();
+        }
+    }
+
+    /**
+     * Samples the resource usage of the watched process and destroys it if it exceeds a limit. Called on the shared sampler thread.
+     *
+     * @param pid The process ID.
+     */
+    private void sample(final long pid) {
+        final ProcessResourceSampler.Usage usage;
+        try {
+            usage = ProcessResourceSampler.sample(pid);
+        } catch (final IOException e) {
+            // the process terminated, stop() will cancel the sampling
+            return;
+        }
+        cpuTimeMillis = usage.getCpuTimeMillis();
+        if (usage.getResidentSetSize() > peakResidentSetSize) {
+            peakResidentSetSize = usage.getResidentSetSize();
+        }
+        if (cpuTimeLimitMillis > 0 && cpuTimeMillis > cpuTimeLimitMillis || residentSetSizeLimit > 0 && usage.getResidentSetSize() > residentSetSizeLimit) {
+            // the descendants are listed while the root still lives, they are reparented once it is destroyed
+            final List<Long> descendants = ProcessResourceSampler.descendants(pid);
+            timeoutOccured(null);
+            if (killedProcess()) {
+                ProcessResourceSampler.kill(descendants);
+            }
+        }
+    }
+
     void setProcessNotStarted() {
         processStarted = false;
     }
@@ -286,6 +511,17 @@ public class ExecuteWatchdog implements TimeoutObserver {
         if (hasWatchdog) {
             watchdog.start();
         }
+        if (idleWatchdog != null) {
+            idleWatchdog.start();
+        }
+        cpuTimeMillis = 0;
+        peakResidentSetSize = 0;
+        if (sampleInterval != null && ProcessResourceSampler.isSupported()) {
+            final long pid = ProcessResourceSampler.getPid(processToMonitor);
+            if (pid > 0) {
+                sampling = ProcessResourceSampler.schedule(() -> sample(pid), sampleInterval);
+            }
+        }
     }
 
     /**
@@ -295,6 +531,10 @@ public class ExecuteWatchdog implements TimeoutObserver {
         if (hasWatchdog) {
             watchdog.stop();
         }
+        if (idleWatchdog != null) {
+            idleWatchdog.stop();
+        }
+        cancelSampling();
         watch = false;
         process = null;
     }
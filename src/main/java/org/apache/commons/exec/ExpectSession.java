@@ -0,0 +1,627 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.launcher.CommandLauncher;
+import org.apache.commons.exec.launcher.CommandLauncherFactory;
+
+/**
+ * Drives an interactive process like {@code expect}: waits for the process to print one of a few literals, then sends it input. For example:
+ *
+ * <pre>
+ * try (ExpectSession session = ExpectSession.builder().setCommandLine(new CommandLine("python3").addArgument("-i")).setTimeout(Duration.ofSeconds(10))
+ *         .get()) {
+ *     session.expect("&gt;&gt;&gt; ");
+ *     session.sendLine("print(6 * 7)");
+ *     ExpectSession.Match match = session.expect("&gt;&gt;&gt; ", "Error");
+ *     String output = match.getBefore();
+ * }
+ * </pre>
+ * <p>
+ * The standard output and error of the process are read as they arrive into a window of bounded size and scanned incrementally by an Aho-Corasick automaton
+ * of the expected literals, so each byte is examined once whatever the number of literals, and the output is never re-scanned. Output not consumed by a
+ * match is kept for the next {@link #expect(Duration, String...)}, dropping the oldest bytes when the window is full. Input is written directly to the
+ * process and flushed.
+ * </p>
+ * <p>
+ * The process is started by the first call to send or expect. Processes reading a terminal rather than their standard input, for example to read a
+ * password, cannot be driven without a pseudo-terminal.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ExpectSession implements AutoCloseable {
+
+    /**
+     * Builds ExpectSession instances.
+     */
+    public static final class Builder implements Supplier<ExpectSession> {
+
+        /** The charset of the literals, input lines and output. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** The launcher starting the process. */
+        private CommandLauncher commandLauncher;
+
+        /** The command. */
+        private CommandLine commandLine;
+
+        /** The environment of the process, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** The maximum number of output bytes kept. */
+        private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** The default time to wait for a literal. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /** The working directory of the process. */
+        private Path workingDirectory = Paths.get(".");
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ExpectSession.
+         *
+         * @return A new configured ExpectSession.
+         * @throws NullPointerException if the command line is not set.
+         */
+        @Override
+        public ExpectSession get() {
+            return new ExpectSession(this);
+        }
+
+        /**
+         * Sets the charset used to encode the literals and input strings and to decode the output.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the launcher starting the process.
+         *
+         * @param commandLauncher The launcher, null resets to the launcher of the current platform.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the command.
+         *
+         * @param commandLine The command.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the process.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of output bytes kept while they are not consumed by a match.
+         *
+         * @param maxBufferSize The maximum size in bytes, less than 1 resets to 64 KiB.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxBufferSize(final int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize > 0 ? maxBufferSize : DEFAULT_MAX_BUFFER_SIZE;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the default time to wait for a literal.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the process.
+         *
+         * @param workingDirectory The working directory, null resets to the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory != null ? workingDirectory : Paths.get(".");
+            return this;
+        }
+    }
+
+    /**
+     * A literal found in the output.
+     */
+    public static final class Match {
+
+        /** The output preceding the literal since the previous match. */
+        private final String before;
+
+        /** The index of the literal. */
+        private final int index;
+
+        /** The literal. */
+        private final String literal;
+
+        Match(final int index, final String literal, final String before) {
+            this.index = index;
+            this.literal = literal;
+            this.before = before;
+        }
+
+        /**
+         * Gets the output between the previous match and this one, less the bytes dropped from a full window.
+         *
+         * @return The output preceding the literal.
+         */
+        public String getBefore() {
+            return before;
+        }
+
+        /**
+         * Gets the index of the literal in the arguments of {@link ExpectSession#expect(Duration, String...)}.
+         *
+         * @return The index of the literal.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the literal.
+         *
+         * @return The literal.
+         */
+        public String getLiteral() {
+            return literal;
+        }
+
+        @Override
+        public String toString() {
+            return "Match [index=" + index + ", literal=" + literal + "]";
+        }
+    }
+
+    /** The default maximum number of output bytes kept. */
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    /** The size of a read from the process. */
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The automaton of the current expectation, null if none. */
+    private LiteralAutomaton automaton;
+
+    /** The charset of the literals, input strings and output. */
+    private final Charset charset;
+
+    /** Whether the session is closed. */
+    private volatile boolean closed;
+
+    /** The command. */
+    private final CommandLine commandLine;
+
+    /** The index after the last byte of output in the window. */
+    private int end;
+
+    /** The environment of the process. */
+    private final Map<String, String> environment;
+
+    /** The literals of the current expectation. */
+    private String[] expected;
+
+    /** The launcher starting the process. */
+    private final CommandLauncher launcher;
+
+    /** Guards the window and the expectation. */
+    private final Object lock = new Object();
+
+    /** The match of the current expectation, null if none yet. */
+    private Match match;
+
+    /** The number of output streams not exhausted. */
+    private int openStreams;
+
+    /** The process, null until started. */
+    private volatile Process process;
+
+    /** The failure reading the output, null if none. */
+    private IOException readFailure;
+
+    /** The index of the next byte of output to scan in the window. */
+    private int scanned;
+
+    /** The index of the first byte of output not consumed in the window. */
+    private int start;
+
+    /** The state of the automaton after the scanned output. */
+    private int state;
+
+    /** The standard input of the process. */
+    private OutputStream stdin;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** The default time to wait for a literal. */
+    private final Duration timeout;
+
+    /** The output of the process. */
+    private final byte[] window;
+
+    /** The working directory of the process. */
+    private final Path workingDirectory;
+
+    private ExpectSession(final Builder builder) {
+        this.charset = builder.charset;
+        this.commandLine = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.environment = builder.environment;
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+        this.window = new byte[builder.maxBufferSize];
+        this.workingDirectory = builder.workingDirectory;
+    }
+
+    /**
+     * Appends output to the window and scans it. The caller must hold the lock.
+     */
+    private void accept(final byte[] b, final int len) {
+        if (window.length - end < len) {
+            // drop the oldest bytes that do not fit, then move the rest to the front
+            final int drop = Math.max(0, len - (window.length - (end - start)));
+            start += drop;
+            scanned = Math.max(scanned, start);
+            System.arraycopy(window, start, window, 0, end - start);
+            scanned -= start;
+            end -= start;
+            start = 0;
+        }
+        System.arraycopy(b, 0, window, end, len);
+        end += len;
+        scan();
+    }
+
+    /**
+     * Stops the process.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Process current = process;
+        if (current != null) {
+            try {
+                current.getOutputStream().close();
+            } catch (final IOException e) {
+                // the process is destroyed anyway
+            }
+            current.destroy();
+        }
+    }
+
+    /**
+     * Waits, using the timeout of the builder, for one of the literals in the output not consumed by a previous match.
+     *
+     * @param literals The literals.
+     * @return The first literal to end in the output, the first given if several end at the same byte.
+     * @throws IllegalArgumentException if no literal is given or a literal is empty.
+     * @throws ExecuteException         if the output ended first.
+     * @throws InterruptedIOException   if the timeout elapsed first, or the current thread was interrupted.
+     * @throws IOException              if the process could not be started or its output could not be read.
+     */
+    public Match expect(final String... literals) throws IOException {
+        return expect(timeout, literals);
+    }
+
+    /**
+     * Waits for one of the literals in the output not consumed by a previous match, and consumes the output up to and including it.
+     *
+     * @param expectTimeout The time to wait, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @param literals      The literals.
+     * @return The first literal to end in the output, the first given if several end at the same byte.
+     * @throws IllegalArgumentException if no literal is given or a literal is empty.
+     * @throws ExecuteException         if the output ended first.
+     * @throws InterruptedIOException   if the timeout elapsed first, or the current thread was interrupted.
+     * @throws IOException              if the process could not be started or its output could not be read.
+     */
+    public synchronized Match expect(final Duration expectTimeout, final String... literals) throws IOException {
+        if (literals.length == 0) {
+            throw new IllegalArgumentException("No literal");
+        }
+        final byte[][] encoded = new byte[literals.length][];
+        for (int i = 0; i < literals.length; i++) {
+            encoded[i] = Objects.requireNonNull(literals[i], "literal").getBytes(charset);
+        }
+        final LiteralAutomaton expectedAutomaton = new LiteralAutomaton(encoded);
+        start();
+        synchronized (lock) {
+            automaton = expectedAutomaton;
+            expected = literals.clone();
+            state = 0;
+            scanned = start;
+            match = null;
+            scan();
+            try {
+                await(() -> match != null, expectTimeout, "one of " + Arrays.toString(literals));
+                return match;
+            } finally {
+                automaton = null;
+                match = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for the end of the output, typically when the process exits, and consumes the rest of the output.
+     *
+     * @param expectTimeout The time to wait, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The output not consumed by a previous match, less the bytes dropped from a full window.
+     * @throws InterruptedIOException if the timeout elapsed first, or the current thread was interrupted.
+     * @throws IOException            if the process could not be started or its output could not be read.
+     */
+    public synchronized String expectEnd(final Duration expectTimeout) throws IOException {
+        start();
+        synchronized (lock) {
+            await(() -> openStreams == 0, expectTimeout, "the end of the output");
+            final String rest = new String(window, start, end - start, charset);
+            start = end;
+            return rest;
+        }
+    }
+
+    /**
+     * Waits for a condition on the window. The caller must hold the lock.
+     */
+    private void await(final BooleanSupplier condition, final Duration awaitTimeout, final String description) throws IOException {
+        final boolean forever = awaitTimeout == null || ExecuteWatchdog.INFINITE_TIMEOUT_DURATION.equals(awaitTimeout);
+        final long deadline = forever ? 0 : System.nanoTime() + awaitTimeout.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (readFailure != null) {
+                throw new IOException("Failed reading the output of " + commandLine, readFailure);
+            }
+            if (openStreams == 0) {
+                throw new ExecuteException("The output of " + commandLine + " ended before " + description, exitValue());
+            }
+            final long remaining = forever ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (!forever && remaining <= 0) {
+                throw new InterruptedIOException("Timed out after " + awaitTimeout + " waiting for " + description);
+            }
+            try {
+                lock.wait(remaining);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + description);
+            }
+        }
+    }
+
+    /**
+     * Gets the exit value of the process if it exits shortly.
+     */
+    private int exitValue() {
+        try {
+            if (process.waitFor(1, TimeUnit.SECONDS)) {
+                return process.exitValue();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Executor.INVALID_EXITVALUE;
+    }
+
+    /**
+     * Tests whether the process is running or not started yet.
+     *
+     * @return {@code true} if the process is running or not started yet.
+     */
+    public boolean isAlive() {
+        final Process current = process;
+        return !closed && (current == null || current.isAlive());
+    }
+
+    /**
+     * Reads an output stream of the process into the window until it is exhausted.
+     */
+    private void read(final InputStream inputStream) {
+        final byte[] buffer = new byte[Math.min(READ_SIZE, window.length)];
+        try {
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                synchronized (lock) {
+                    accept(buffer, n);
+                }
+            }
+        } catch (final IOException e) {
+            synchronized (lock) {
+                if (!closed && readFailure == null) {
+                    readFailure = e;
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                openStreams--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Scans the output for the current expectation, if any. The caller must hold the lock.
+     */
+    private void scan() {
+        if (automaton == null || match != null) {
+            return;
+        }
+        while (scanned < end) {
+            state = automaton.next(state, window[scanned++]);
+            final int index = automaton.output(state);
+            if (index >= 0) {
+                final int literalStart = Math.max(start, scanned - automaton.length(index));
+                match = new Match(index, expected[index], new String(window, start, literalStart - start, charset));
+                start = scanned;
+                lock.notifyAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends bytes to the standard input of the process.
+     *
+     * @param bytes The bytes.
+     * @throws IOException if the process could not be started or its standard input is closed.
+     */
+    public void send(final byte[] bytes) throws IOException {
+        Objects.requireNonNull(bytes, "bytes");
+        start();
+        synchronized (stdin) {
+            stdin.write(bytes);
+            stdin.flush();
+        }
+    }
+
+    /**
+     * Sends a string to the standard input of the process.
+     *
+     * @param string The string.
+     * @throws IOException if the process could not be started or its standard input is closed.
+     */
+    public void send(final String string) throws IOException {
+        send(string.getBytes(charset));
+    }
+
+    /**
+     * Sends a string followed by a line feed to the standard input of the process.
+     *
+     * @param line The line.
+     * @throws IOException if the process could not be started or its standard input is closed.
+     */
+    public void sendLine(final String line) throws IOException {
+        send(line + "\n");
+    }
+
+    /**
+     * Starts the process if not started yet.
+     */
+    private void start() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("Expect session closed");
+            }
+            if (process != null) {
+                return;
+            }
+            final Process started = launcher.exec(commandLine, environment, workingDirectory);
+            stdin = started.getOutputStream();
+            openStreams = 2;
+            process = started;
+        }
+        ThreadUtil.newThread(threadFactory, () -> read(process.getInputStream()), "CommonsExecExpectSession-", true).start();
+        ThreadUtil.newThread(threadFactory, () -> read(process.getErrorStream()), "CommonsExecExpectSession-", true).start();
+    }
+
+    /**
+     * Waits for the process to exit.
+     *
+     * @param waitTimeout The time to wait, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The exit value of the process.
+     * @throws InterruptedIOException if the timeout elapsed first, or the current thread was interrupted.
+     * @throws IOException            if the process could not be started.
+     */
+    public int waitFor(final Duration waitTimeout) throws IOException {
+        start();
+        try {
+            if (waitTimeout == null || ExecuteWatchdog.INFINITE_TIMEOUT_DURATION.equals(waitTimeout)) {
+                return process.waitFor();
+            }
+            if (process.waitFor(waitTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                return process.exitValue();
+            }
+            throw new InterruptedIOException("Timed out after " + waitTimeout + " waiting for " + commandLine + " to exit");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + commandLine + " to exit");
+        }
+    }
+}
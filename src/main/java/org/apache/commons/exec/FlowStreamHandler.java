@@ -0,0 +1,591 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.util.DebugUtils;
+
+/**
+ * Exposes the standard output and error of a process as publishers of {@link ByteBuffer} chunks with backpressure, and feeds its standard input from a
+ * publisher. For example:
+ *
+ * <pre>
+ * FlowStreamHandler handler = FlowStreamHandler.builder().setInputPublisher(requestBody).get();
+ * handler.getOutputPublisher().subscribe(responseSubscriber);
+ * executor.setStreamHandler(handler);
+ * executor.execute(commandLine, resultHandler);
+ * </pre>
+ * <p>
+ * The interfaces {@link Publisher}, {@link Subscriber} and {@link Subscription} have the methods and rules of their counterparts in
+ * {@code java.util.concurrent.Flow} and the Reactive Streams specification, so that a one-line adapter bridges them on Java 9 and later.
+ * </p>
+ * <p>
+ * Each output stream is read by its own thread only while its subscriber has outstanding demand, and each chunk is delivered on that thread as soon as it is
+ * read, without a queue. Without demand the stream is not read and the process blocks when the pipe is full, so memory stays bounded by the demand. A
+ * cancelled stream is closed. A stream without subscriber when the handler is started is read and discarded.
+ * </p>
+ * <p>
+ * The input publisher is subscribed to when the handler is started. Its chunks are requested one at a time and written to the process, blocking the thread
+ * of the publisher while the pipe is full; its completion closes the standard input of the process.
+ * </p>
+ * <p>
+ * {@link #stop()}, called once the process exited, waits until the output streams are exhausted, so subscribers should keep requesting until the end of
+ * the streams or cancel. Streams not exhausted within the stop timeout, for example because their subscriber has no demand after the process was killed,
+ * are cancelled and closed, their subscribers receive an {@link ExecuteException} and {@link #stop()} fails with it.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class FlowStreamHandler implements ExecuteStreamHandler {
+
+    /**
+     * Builds FlowStreamHandler instances.
+     */
+    public static final class Builder implements Supplier<FlowStreamHandler> {
+
+        /** The size of the chunks. */
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        /** The standard input of the process, null for none. */
+        private Publisher<ByteBuffer> inputPublisher;
+
+        /** The maximum time to wait for the output streams to be exhausted once the process exited. */
+        private Duration stopTimeout = DEFAULT_STOP_TIMEOUT;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured FlowStreamHandler.
+         *
+         * @return A new configured FlowStreamHandler.
+         */
+        @Override
+        public FlowStreamHandler get() {
+            return new FlowStreamHandler(this);
+        }
+
+        /**
+         * Sets the maximum size of the chunks read from the output streams.
+         *
+         * @param chunkSize The size in bytes, less than 1 resets to 8192.
+         * @return {@code this} instance.
+         */
+        public Builder setChunkSize(final int chunkSize) {
+            this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+            return this;
+        }
+
+        /**
+         * Sets the publisher of the standard input of the process.
+         *
+         * @param inputPublisher The publisher, null to close the standard input at once.
+         * @return {@code this} instance.
+         */
+        public Builder setInputPublisher(final Publisher<ByteBuffer> inputPublisher) {
+            this.inputPublisher = inputPublisher;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time {@link FlowStreamHandler#stop()} waits for the output streams to be exhausted once the process exited, after which they are
+         * cancelled.
+         *
+         * @param stopTimeout The stop timeout, {@link Duration#ZERO} to wait forever, null resets to one minute.
+         * @return {@code this} instance.
+         */
+        public Builder setStopTimeout(final Duration stopTimeout) {
+            this.stopTimeout = stopTimeout != null ? stopTimeout : DEFAULT_STOP_TIMEOUT;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory of the threads reading the output streams.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * Writes the chunks of the input publisher to the standard input of the process.
+     */
+    private static final class InputSubscriber implements Subscriber<ByteBuffer> {
+
+        /** Whether the standard input is closed. */
+        private boolean closed;
+
+        /** The standard input of the process. */
+        private final OutputStream outputStream;
+
+        /** The subscription, null until subscribed. */
+        private Subscription subscription;
+
+        InputSubscriber(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                outputStream.close();
+            } catch (final IOException e) {
+                DebugUtils.handleException("Got exception while closing the standard input", e);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            DebugUtils.handleException("The input publisher failed", throwable instanceof Exception ? (Exception) throwable : new IOException(throwable));
+            close();
+        }
+
+        @Override
+        public void onNext(final ByteBuffer item) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (item.hasArray()) {
+                    outputStream.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+                    item.position(item.limit());
+                } else {
+                    final byte[] bytes = new byte[item.remaining()];
+                    item.get(bytes);
+                    outputStream.write(bytes);
+                }
+                outputStream.flush();
+            } catch (final IOException e) {
+                // the process exited or closed its standard input
+                subscription.cancel();
+                close();
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+    }
+
+    /**
+     * Publishes an output stream of the process, reading it on demand.
+     */
+    private final class OutputPublisher implements Publisher<ByteBuffer>, Subscription, Runnable {
+
+        /** Whether the subscriber cancelled. */
+        private boolean cancelled;
+
+        /** The outstanding demand. */
+        private long demand;
+
+        /** The failure to signal once cancelled, null if none. */
+        private Throwable failure;
+
+        /** The output stream of the process, null until set. */
+        private InputStream inputStream;
+
+        /** The subscriber, null until subscribed. */
+        private Subscriber<? super ByteBuffer> subscriber;
+
+        /** Reads the stream, null if not started. */
+        private Thread thread;
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private void closeInputStream() {
+            try {
+                inputStream.close();
+            } catch (final IOException e) {
+                DebugUtils.handleException("Got exception while closing an output stream of the process", e);
+            }
+        }
+
+        /**
+         * Waits for demand.
+         *
+         * @return {@code false} if cancelled.
+         */
+        private synchronized boolean awaitDemand() throws InterruptedException {
+            while (demand == 0 && !cancelled) {
+                wait();
+            }
+            if (cancelled) {
+                return false;
+            }
+            demand--;
+            return true;
+        }
+
+        @Override
+        public synchronized void request(final long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                // signaled by the reading thread, so that signals stay serialized
+                failure = new IllegalArgumentException("Non-positive request " + n);
+                cancel();
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            final Subscriber<? super ByteBuffer> target;
+            synchronized (this) {
+                target = subscriber;
+            }
+            final byte[] discard = target == null ? new byte[chunkSize] : null;
+            try {
+                while (true) {
+                    if (target == null) {
+                        if (inputStream.read(discard) < 0) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (!awaitDemand()) {
+                        closeInputStream();
+                        synchronized (this) {
+                            if (failure != null) {
+                                target.onError(failure);
+                            }
+                        }
+                        return;
+                    }
+                    final byte[] bytes = new byte[chunkSize];
+                    final int n = inputStream.read(bytes);
+                    if (n < 0) {
+                        target.onComplete();
+                        return;
+                    }
+                    target.onNext(ByteBuffer.wrap(bytes, 0, n));
+                }
+            } catch (final IOException e) {
+                if (target != null) {
+                    target.onError(e);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closeInputStream();
+            }
+        }
+
+        synchronized void setInputStream(final InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        synchronized void start() {
+            if (inputStream != null) {
+                thread = ThreadUtil.newThread(threadFactory, this, "CommonsExecFlowStreamHandler-", true);
+                thread.start();
+            }
+        }
+
+        /**
+         * Waits for the stream to be exhausted, cancelling and closing it if that takes too long.
+         *
+         * @param deadlineNanos When to cancel the stream, in {@link System#nanoTime()} terms, ignored if {@code forever}.
+         * @param forever       Whether to wait forever.
+         * @param timeout       The stop timeout, reported to the subscriber.
+         * @return The failure signaled to the subscriber, null if the stream ended in time.
+         */
+        ExecuteException stop(final long deadlineNanos, final boolean forever, final Duration timeout) {
+            final Thread current;
+            synchronized (this) {
+                current = thread;
+            }
+            if (current == null) {
+                return null;
+            }
+            try {
+                if (forever) {
+                    current.join();
+                } else {
+                    final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                    if (remainingMillis > 0) {
+                        current.join(remainingMillis);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                current.interrupt();
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (!current.isAlive()) {
+                return null;
+            }
+            final ExecuteException exception = new ExecuteException("The stream was not exhausted within the stop timeout of " + timeout,
+                    Executor.INVALID_EXITVALUE);
+            synchronized (this) {
+                if (!cancelled) {
+                    // signaled by the reading thread once it sees the cancellation
+                    failure = exception;
+                    cancel();
+                }
+            }
+            // also ends a read blocked on a pipe kept open by descendants of the process
+            closeInputStream();
+            return exception;
+        }
+
+        /**
+         * Subscribes the subscriber, the only one allowed.
+         */
+        @Override
+        public void subscribe(final Subscriber<? super ByteBuffer> newSubscriber) {
+            Objects.requireNonNull(newSubscriber, "subscriber");
+            synchronized (this) {
+                if (subscriber == null && thread == null) {
+                    subscriber = newSubscriber;
+                    newSubscriber.onSubscribe(this);
+                    return;
+                }
+            }
+            newSubscriber.onSubscribe(new Subscription() {
+                @Override
+                public void cancel() {
+                    // empty
+                }
+
+                @Override
+                public void request(final long n) {
+                    // empty
+                }
+            });
+            newSubscriber.onError(new IllegalStateException("A process stream supports a single subscriber, subscribed before the process starts"));
+        }
+    }
+
+    /**
+     * Produces items for subscribers, with the methods and rules of {@code java.util.concurrent.Flow.Publisher}.
+     *
+     * @param <T> The type of the items.
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, calling its {@link Subscriber#onSubscribe(Subscription)} method.
+         *
+         * @param subscriber The subscriber.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives items, with the methods and rules of {@code java.util.concurrent.Flow.Subscriber}.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Receives the completion of the subscription, after which no other method is called.
+         */
+        void onComplete();
+
+        /**
+         * Receives the failure of the subscription, after which no other method is called.
+         *
+         * @param throwable The failure.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Receives the next item.
+         *
+         * @param item The item.
+         */
+        void onNext(T item);
+
+        /**
+         * Receives the subscription, before any other method is called.
+         *
+         * @param subscription The subscription.
+         */
+        void onSubscribe(Subscription subscription);
+    }
+
+    /**
+     * Links a publisher and a subscriber, with the methods and rules of {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+
+        /**
+         * Stops the delivery of items, eventually.
+         */
+        void cancel();
+
+        /**
+         * Adds demand for items.
+         *
+         * @param n The number of items, a non-positive number fails the subscription.
+         */
+        void request(long n);
+    }
+
+    /** The default size of the chunks. */
+    private static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /** The default stop timeout. */
+    private static final Duration DEFAULT_STOP_TIMEOUT = Duration.ofMinutes(1);
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The size of the chunks. */
+    private final int chunkSize;
+
+    /** Publishes the standard error. */
+    private final OutputPublisher errorPublisher = new OutputPublisher();
+
+    /** The standard input of the process, null for none. */
+    private final Publisher<ByteBuffer> inputPublisher;
+
+    /** The standard input of the process. */
+    private OutputStream inputStream;
+
+    /** Publishes the standard output. */
+    private final OutputPublisher outputPublisher = new OutputPublisher();
+
+    /** The maximum time to wait for the output streams to be exhausted once the process exited. */
+    private final Duration stopTimeout;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    private FlowStreamHandler(final Builder builder) {
+        this.chunkSize = builder.chunkSize;
+        this.inputPublisher = builder.inputPublisher;
+        this.stopTimeout = builder.stopTimeout;
+        this.threadFactory = builder.threadFactory;
+    }
+
+    /**
+     * Gets the publisher of the standard error of the process, accepting a single subscriber.
+     *
+     * @return The publisher.
+     */
+    public Publisher<ByteBuffer> getErrorPublisher() {
+        return errorPublisher;
+    }
+
+    /**
+     * Gets the publisher of the standard output of the process, accepting a single subscriber.
+     *
+     * @return The publisher.
+     */
+    public Publisher<ByteBuffer> getOutputPublisher() {
+        return outputPublisher;
+    }
+
+    @Override
+    public void setProcessErrorStream(final InputStream inputStream) {
+        errorPublisher.setInputStream(inputStream);
+    }
+
+    @Override
+    public void setProcessInputStream(final OutputStream outputStream) throws IOException {
+        if (inputPublisher == null) {
+            outputStream.close();
+        } else {
+            this.inputStream = outputStream;
+        }
+    }
+
+    @Override
+    public void setProcessOutputStream(final InputStream inputStream) {
+        outputPublisher.setInputStream(inputStream);
+    }
+
+    /**
+     * Starts reading the output streams and subscribes to the input publisher.
+     */
+    @Override
+    public void start() {
+        outputPublisher.start();
+        errorPublisher.start();
+        if (inputPublisher != null && inputStream != null) {
+            inputPublisher.subscribe(new InputSubscriber(inputStream));
+        }
+    }
+
+    /**
+     * Waits until the output streams are exhausted or cancelled, cancelling those not exhausted within the stop timeout.
+     *
+     * @throws ExecuteException if a stream was not exhausted within the stop timeout.
+     */
+    @Override
+    public void stop() throws ExecuteException {
+        final boolean forever = stopTimeout.isZero();
+        final long deadlineNanos = System.nanoTime() + (forever ? 0 : stopTimeout.toNanos());
+        final ExecuteException outputFailure = outputPublisher.stop(deadlineNanos, forever, stopTimeout);
+        final ExecuteException errorFailure = errorPublisher.stop(deadlineNanos, forever, stopTimeout);
+        if (outputFailure != null) {
+            throw outputFailure;
+        }
+        if (errorFailure != null) {
+            throw errorFailure;
+        }
+    }
+}
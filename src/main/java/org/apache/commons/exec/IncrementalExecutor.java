@@ -0,0 +1,626 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.environment.EnvironmentUtils;
+
+/**
+ * Runs commands like {@code make}: a command whose inputs, command line and environment did not change since its last successful run, and whose outputs
+ * still exist, is skipped without starting a process. For example:
+ *
+ * <pre>
+ * IncrementalExecutor incremental = IncrementalExecutor.builder().setStateFile(Paths.get("target/exec-state")).get();
+ * IncrementalExecutor.Task task = new IncrementalExecutor.Task(new CommandLine("protoc").addArgument("--java_out=target/gen").addArgument("api.proto"))
+ *         .addInputs(Paths.get("api.proto")).addOutputs(Paths.get("target/gen/Api.java"));
+ * if (!incremental.execute(task)) {
+ *     // up to date
+ * }
+ * </pre>
+ * <p>
+ * The inputs are fingerprinted by size and modification time, or by content with {@link Builder#setContentHash(boolean)}, in which case a file is only
+ * read again when its size or modification time changed. Input directories are walked and the files are fingerprinted in parallel. The fingerprints are
+ * kept in a small local state file, rewritten after each successful run with the fingerprints of the inputs of the known tasks only; the previous
+ * state of a task is forgotten, in the state file too, before its command runs again, so that outputs broken by a failed run are never up to date. A
+ * task with an inherited environment depends on the whole environment of the current process.
+ * </p>
+ * <p>
+ * A task is identified by its outputs, or by its command line if it has none.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class IncrementalExecutor {
+
+    /**
+     * Builds IncrementalExecutor instances.
+     */
+    public static final class Builder implements Supplier<IncrementalExecutor> {
+
+        /** Whether the inputs are fingerprinted by content. */
+        private boolean contentHash;
+
+        /** Runs the commands. */
+        private Supplier<? extends Executor> executorFactory = () -> DefaultExecutor.builder().get();
+
+        /** The maximum number of threads fingerprinting at the same time. */
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /** The state file. */
+        private Path stateFile;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured IncrementalExecutor.
+         *
+         * @return A new configured IncrementalExecutor.
+         * @throws NullPointerException if the state file is not set.
+         */
+        @Override
+        public IncrementalExecutor get() {
+            return new IncrementalExecutor(this);
+        }
+
+        /**
+         * Sets whether the inputs are fingerprinted by content, so that touching a file without changing it does not run the command again.
+         *
+         * @param contentHash {@code true} to hash the content of changed files, {@code false} (the default) to compare sizes and modification times only.
+         * @return {@code this} instance.
+         */
+        public Builder setContentHash(final boolean contentHash) {
+            this.contentHash = contentHash;
+            return this;
+        }
+
+        /**
+         * Sets the factory of the executors running the commands, called for each command that is not up to date.
+         *
+         * @param executorFactory The executor factory, null resets to a default {@link DefaultExecutor}.
+         * @return {@code this} instance.
+         */
+        public Builder setExecutorFactory(final Supplier<? extends Executor> executorFactory) {
+            this.executorFactory = executorFactory != null ? executorFactory : () -> DefaultExecutor.builder().get();
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of threads fingerprinting the inputs at the same time.
+         *
+         * @param maxParallelism The maximum number of threads, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxParallelism(final int maxParallelism) {
+            this.maxParallelism = maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets the file keeping the fingerprints between runs, created as needed.
+         *
+         * @param stateFile The state file.
+         * @return {@code this} instance.
+         */
+        public Builder setStateFile(final Path stateFile) {
+            this.stateFile = stateFile;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * The fingerprint of an input file.
+     */
+    private static final class Fingerprint {
+
+        /** The content hash, null if not computed. */
+        private final String hash;
+
+        /** The modification time in microseconds. */
+        private final long modified;
+
+        /** The size, -1 if the file does not exist. */
+        private final long size;
+
+        Fingerprint(final long size, final long modified, final String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        boolean sameFile(final Fingerprint other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+    }
+
+    /**
+     * A command with its inputs and outputs.
+     */
+    public static final class Task {
+
+        /** The command. */
+        private final CommandLine commandLine;
+
+        /** The environment of the process, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** The input files and directories. */
+        private final List<Path> inputs = new ArrayList<>();
+
+        /** The glob patterns of the input directories, in the order of the inputs; null for files and whole directories. */
+        private final List<String> globs = new ArrayList<>();
+
+        /** The output files. */
+        private final List<Path> outputs = new ArrayList<>();
+
+        /**
+         * Constructs a new instance.
+         *
+         * @param commandLine The command.
+         */
+        public Task(final CommandLine commandLine) {
+            this.commandLine = Objects.requireNonNull(commandLine, "commandLine");
+        }
+
+        /**
+         * Adds input files; a directory stands for all the files below it.
+         *
+         * @param inputs The input files or directories.
+         * @return {@code this} instance.
+         */
+        public Task addInputs(final Path... inputs) {
+            for (final Path input : inputs) {
+                this.inputs.add(Objects.requireNonNull(input, "input"));
+                globs.add(null);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the files below a directory matching a glob pattern, as by {@link java.nio.file.FileSystem#getPathMatcher(String)}, relative to the
+         * directory. For example {@code "**}{@code /*.proto"}.
+         *
+         * @param directory The directory.
+         * @param glob      The glob pattern.
+         * @return {@code this} instance.
+         */
+        public Task addInputs(final Path directory, final String glob) {
+            Objects.requireNonNull(glob, "glob");
+            // fail early on a malformed pattern
+            directory.getFileSystem().getPathMatcher("glob:" + glob);
+            inputs.add(directory);
+            globs.add(glob);
+            return this;
+        }
+
+        /**
+         * Adds output files. The command runs again when one of them is missing.
+         *
+         * @param outputs The output files.
+         * @return {@code this} instance.
+         */
+        public Task addOutputs(final Path... outputs) {
+            for (final Path output : outputs) {
+                this.outputs.add(Objects.requireNonNull(output, "output"));
+            }
+            return this;
+        }
+
+        /**
+         * Gets the command.
+         *
+         * @return The command.
+         */
+        public CommandLine getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Sets the environment of the process, part of the state of the task.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Task setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "Task [commandLine=" + commandLine + ", inputs=" + inputs + ", outputs=" + outputs + "]";
+        }
+    }
+
+    /** The first line of the state file. */
+    private static final String HEADER = "# commons-exec incremental state 2";
+
+    /** The minimum number of files fingerprinted by a thread. */
+    private static final int SLICE = 256;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /** Whether the inputs are fingerprinted by content. */
+    private final boolean contentHash;
+
+    /** Runs the commands. */
+    private final Supplier<? extends Executor> executorFactory;
+
+    /** The fingerprints of the input files, by absolute path. */
+    private final Map<Path, Fingerprint> files = new ConcurrentHashMap<>();
+
+    /** Whether the state file was loaded. */
+    private boolean loaded;
+
+    /** The maximum number of threads fingerprinting at the same time. */
+    private final int maxParallelism;
+
+    /** The state file. */
+    private final Path stateFile;
+
+    /** The input files of the tasks, by digest of their identity. */
+    private final Map<String, Set<Path>> taskInputs = new ConcurrentHashMap<>();
+
+    /** The digests of the tasks that last ran successfully, by digest of their identity. */
+    private final Map<String, String> tasks = new ConcurrentHashMap<>();
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    private IncrementalExecutor(final Builder builder) {
+        this.contentHash = builder.contentHash;
+        this.executorFactory = builder.executorFactory;
+        this.maxParallelism = builder.maxParallelism;
+        this.stateFile = Objects.requireNonNull(builder.stateFile, "stateFile").toAbsolutePath();
+        this.threadFactory = builder.threadFactory;
+    }
+
+    /**
+     * Computes the state of a task, from its command line, environment, working directory and the fingerprints of its inputs.
+     */
+    private String digest(final Task task, final Executor executor, final Map<Path, BasicFileAttributes> inputs) throws IOException {
+        final MessageDigest digest = newDigest();
+        for (final String part : task.commandLine.toStrings()) {
+            update(digest, part);
+        }
+        update(digest, "");
+        final Map<String, String> environment = task.environment != null ? task.environment : EnvironmentUtils.getProcEnvironment();
+        for (final Map.Entry<String, String> entry : new TreeMap<>(environment).entrySet()) {
+            update(digest, entry.getKey() + "=" + entry.getValue());
+        }
+        update(digest, "");
+        update(digest, String.valueOf(executor.getWorkingDirectory()));
+        for (final Map.Entry<Path, Fingerprint> entry : fingerprint(inputs).entrySet()) {
+            final Fingerprint fingerprint = entry.getValue();
+            update(digest, entry.getKey().toString());
+            update(digest, contentHash || fingerprint.size < 0 ? String.valueOf(fingerprint.hash) : fingerprint.size + ":" + fingerprint.modified);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Runs the command of a task unless it is up to date.
+     *
+     * @param task The task.
+     * @return {@code true} if the command ran, {@code false} if it was up to date.
+     * @throws ExecuteException       if the command failed, as by {@link Executor#execute(CommandLine, Map)}.
+     * @throws InterruptedIOException if the current thread was interrupted while fingerprinting.
+     * @throws IOException            if the inputs could not be read, the command could not be executed, or the state file could not be written.
+     */
+    public boolean execute(final Task task) throws IOException {
+        Objects.requireNonNull(task, "task");
+        load();
+        final Executor executor = executorFactory.get();
+        final String key = key(task);
+        final Map<Path, BasicFileAttributes> inputs = listInputs(task);
+        final String digest = digest(task, executor, inputs);
+        if (digest.equals(tasks.get(key)) && task.outputs.stream().allMatch(Files::exists)) {
+            taskInputs.put(key, inputs.keySet());
+            return false;
+        }
+        if (tasks.remove(key) != null) {
+            // a failed run may leave broken outputs, which must not look up to date to the next JVM either
+            taskInputs.remove(key);
+            save();
+        }
+        executor.execute(task.commandLine, task.environment);
+        // an input changed while the command ran is seen by the next run
+        tasks.put(key, digest);
+        taskInputs.put(key, inputs.keySet());
+        save();
+        return true;
+    }
+
+    /**
+     * Fingerprints files, in parallel if there are many.
+     */
+    private Map<Path, Fingerprint> fingerprint(final Map<Path, BasicFileAttributes> inputs) throws IOException {
+        final List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>(inputs.entrySet());
+        final int threads = Math.min(maxParallelism, (entries.size() + SLICE - 1) / SLICE);
+        if (threads <= 1) {
+            for (final Map.Entry<Path, BasicFileAttributes> entry : entries) {
+                fingerprint(entry.getKey(), entry.getValue());
+            }
+        } else {
+            final ExecutorService pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    r -> ThreadUtil.newThread(threadFactory, r, "CommonsExecIncrementalExecutor-", true));
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    final List<Map.Entry<Path, BasicFileAttributes>> slice = entries.subList(entries.size() * i / threads, entries.size() * (i + 1) / threads);
+                    futures.add(pool.submit(() -> {
+                        for (final Map.Entry<Path, BasicFileAttributes> entry : slice) {
+                            fingerprint(entry.getKey(), entry.getValue());
+                        }
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while fingerprinting");
+            } catch (final ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        final Map<Path, Fingerprint> fingerprints = new TreeMap<>();
+        for (final Path path : inputs.keySet()) {
+            fingerprints.put(path, files.get(path));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Fingerprints a file, hashing its content only if it changed since it was last hashed.
+     */
+    private void fingerprint(final Path path, final BasicFileAttributes attributes) throws IOException {
+        if (attributes == null) {
+            files.put(path, new Fingerprint(-1, 0, "missing"));
+            return;
+        }
+        final Fingerprint fingerprint = new Fingerprint(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS), null);
+        final Fingerprint previous = files.get(path);
+        if (!contentHash) {
+            files.put(path, fingerprint.sameFile(previous) ? previous : fingerprint);
+        } else if (!fingerprint.sameFile(previous) || previous.hash == null) {
+            final MessageDigest digest = newDigest();
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                final byte[] buffer = new byte[8192];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            files.put(path, new Fingerprint(fingerprint.size, fingerprint.modified, toHex(digest.digest())));
+        }
+    }
+
+    /**
+     * Identifies a task by its outputs, or its command line.
+     */
+    private String key(final Task task) {
+        final MessageDigest digest = newDigest();
+        if (task.outputs.isEmpty()) {
+            for (final String part : task.commandLine.toStrings()) {
+                update(digest, part);
+            }
+        } else {
+            for (final Path output : task.outputs) {
+                update(digest, output.toAbsolutePath().normalize().toString());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Lists the input files of a task with their attributes, walking the directories.
+     */
+    private Map<Path, BasicFileAttributes> listInputs(final Task task) throws IOException {
+        final Map<Path, BasicFileAttributes> inputs = new TreeMap<>();
+        for (int i = 0; i < task.inputs.size(); i++) {
+            final Path input = task.inputs.get(i).toAbsolutePath().normalize();
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(input, BasicFileAttributes.class);
+            } catch (final NoSuchFileException e) {
+                inputs.put(input, null);
+                continue;
+            }
+            if (!attributes.isDirectory()) {
+                inputs.put(input, attributes);
+                continue;
+            }
+            final PathMatcher matcher = task.globs.get(i) != null ? input.getFileSystem().getPathMatcher("glob:" + task.globs.get(i)) : null;
+            Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes fileAttributes) {
+                    if (fileAttributes.isRegularFile() && (matcher == null || matcher.matches(input.relativize(file)))) {
+                        inputs.put(file, fileAttributes);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return inputs;
+    }
+
+    /**
+     * Loads the state file once.
+     */
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                // unknown format, start over
+                return;
+            }
+            String line;
+            String task = null;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(" ", 5);
+                try {
+                    if (fields.length == 3 && fields[0].equals("T")) {
+                        task = fields[1];
+                        tasks.put(task, fields[2]);
+                    } else if (fields.length == 5 && fields[0].equals("F") && task != null) {
+                        final Path path = stateFile.getFileSystem().getPath(fields[4]);
+                        files.put(path, new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3].equals("-") ? null : fields[3]));
+                        taskInputs.computeIfAbsent(task, k -> new TreeSet<>()).add(path);
+                    }
+                } catch (final NumberFormatException e) {
+                    // skip the corrupt line
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the state file atomically, each task followed by the fingerprints of its inputs, so that files no longer input of a task are dropped.
+     */
+    private synchronized void save() throws IOException {
+        final Path directory = stateFile.getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        final Path temp = Files.createTempFile(directory, stateFile.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (final Map.Entry<String, String> entry : new TreeMap<>(tasks).entrySet()) {
+                    writer.write("T " + entry.getKey() + " " + entry.getValue());
+                    writer.newLine();
+                    for (final Path input : new TreeSet<>(taskInputs.getOrDefault(entry.getKey(), Collections.emptySet()))) {
+                        final Fingerprint fingerprint = files.get(input);
+                        final String path = input.toString();
+                        if (fingerprint != null && fingerprint.size >= 0 && path.indexOf('\n') < 0 && path.indexOf('\r') < 0) {
+                            final String hash = fingerprint.hash != null ? fingerprint.hash : "-";
+                            writer.write("F " + fingerprint.size + " " + fingerprint.modified + " " + hash + " " + path);
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IncrementalExecutor [stateFile=" + stateFile + ", contentHash=" + contentHash + ", tasks=" + tasks.size() + "]";
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Captures the standard output and error of a process into one log, keeping the order in which the writes arrived, for example to print an accurate
+ * post-mortem of a failed command:
+ *
+ * <pre>
+ * InterleavedCapture capture = InterleavedCapture.builder().get();
+ * executor.setStreamHandler(new PumpStreamHandler(capture.getOutputStream(), capture.getErrorStream()));
+ * ...
+ * capture.replay((source, nanos, bytes, offset, length) -&gt; ...);
+ * </pre>
+ * <p>
+ * Each write is appended as a record of its source, its time since the capture was created and its byte range in an append-only arena of fixed-size
+ * chunks. Writers reserve their record and byte range with atomic operations and copy without any lock, so the two pumps never wait for each other, and a
+ * write is never split by another. The arena is allocated as it fills, up to a maximum; writes that do not fit are dropped and counted.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class InterleavedCapture {
+
+    /**
+     * Builds InterleavedCapture instances.
+     */
+    public static final class Builder implements Supplier<InterleavedCapture> {
+
+        /** The maximum number of bytes captured. */
+        private long maxBytes = DEFAULT_MAX_BYTES;
+
+        /** The maximum number of records, one per write. */
+        private int maxRecords = DEFAULT_MAX_RECORDS;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured InterleavedCapture.
+         *
+         * @return a new configured InterleavedCapture.
+         */
+        @Override
+        public InterleavedCapture get() {
+            return new InterleavedCapture(this);
+        }
+
+        /**
+         * Sets the maximum number of bytes captured.
+         *
+         * @param maxBytes The maximum, values below 1 reset to 64 MiB.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxBytes(final long maxBytes) {
+            this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of records, one per write.
+         *
+         * @param maxRecords The maximum, values below 1 reset to 1048576.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxRecords(final int maxRecords) {
+            this.maxRecords = maxRecords > 0 ? maxRecords : DEFAULT_MAX_RECORDS;
+            return this;
+        }
+    }
+
+    /**
+     * Receives the records of a capture.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        /**
+         * Receives a record.
+         *
+         * @param source The stream written.
+         * @param nanos  The time of the write in nanoseconds since the capture was created.
+         * @param bytes  The array holding the bytes written, not to be modified nor kept.
+         * @param offset The offset of the bytes in the array.
+         * @param length The number of bytes.
+         * @throws IOException if the record cannot be processed.
+         */
+        void accept(Source source, long nanos, byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    /**
+     * The stream of a process a record was written to.
+     */
+    public enum Source {
+
+        /** The standard error. */
+        ERROR,
+
+        /** The standard output. */
+        OUTPUT
+    }
+
+    /**
+     * Appends the writes of one source.
+     */
+    private final class SourceOutputStream extends OutputStream {
+
+        private final Source source;
+
+        SourceOutputStream(final Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len > 0) {
+                append(source, b, off, len);
+            }
+        }
+
+        @Override
+        public void write(final int b) {
+            append(source, new byte[] { (byte) b }, 0, 1);
+        }
+    }
+
+    private static final int CHUNK_SHIFT = 16;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int DEFAULT_MAX_RECORDS = 1 << 20;
+
+    /** The number of longs of a record: time, offset and committed length with source. */
+    private static final int RECORD_LONGS = 3;
+
+    private static final int RECORD_SHIFT = 10;
+
+    private static final int RECORDS_PER_CHUNK = 1 << RECORD_SHIFT;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Encodes the length and source of a record, never 0 so that 0 means not committed.
+     */
+    private static long commitWord(final Source source, final int len) {
+        return (long) len << 2 | source.ordinal() << 1 | 1;
+    }
+
+    /** The chunks of the byte arena, allocated as needed. */
+    private final AtomicReferenceArray<byte[]> byteChunks;
+
+    /** The number of bytes reserved. */
+    private final AtomicLong bytesReserved = new AtomicLong();
+
+    /** The number of bytes dropped for lack of room. */
+    private final AtomicLong droppedBytes = new AtomicLong();
+
+    /** The stream capturing the standard error. */
+    private final OutputStream errorStream = new SourceOutputStream(Source.ERROR);
+
+    private final long maxBytes;
+
+    private final int maxRecords;
+
+    /** The stream capturing the standard output. */
+    private final OutputStream outputStream = new SourceOutputStream(Source.OUTPUT);
+
+    /** The chunks of the records, allocated as needed. */
+    private final AtomicReferenceArray<AtomicLongArray> recordChunks;
+
+    /** The number of records reserved. */
+    private final AtomicLong recordsReserved = new AtomicLong();
+
+    /** The time the capture was created. */
+    private final long startNanos = System.nanoTime();
+
+    private InterleavedCapture(final Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.maxRecords = builder.maxRecords;
+        this.byteChunks = new AtomicReferenceArray<>((int) ((maxBytes + CHUNK_SIZE - 1) >>> CHUNK_SHIFT));
+        this.recordChunks = new AtomicReferenceArray<>((maxRecords + RECORDS_PER_CHUNK - 1) >>> RECORD_SHIFT);
+    }
+
+    /**
+     * Appends a write, without locking.
+     */
+    private void append(final Source source, final byte[] b, final int off, final int len) {
+        final long nanos = System.nanoTime() - startNanos;
+        final long record = recordsReserved.getAndIncrement();
+        if (record >= maxRecords) {
+            droppedBytes.addAndGet(len);
+            return;
+        }
+        final long offset = reserveBytes(len);
+        final AtomicLongArray records = recordChunk((int) (record >>> RECORD_SHIFT));
+        final int slot = (int) (record & RECORDS_PER_CHUNK - 1) * RECORD_LONGS;
+        if (offset < 0) {
+            droppedBytes.addAndGet(len);
+            // an empty record, so that replay does not wait for it
+            records.lazySet(slot, nanos);
+            records.set(slot + 2, commitWord(source, 0));
+            return;
+        }
+        long position = offset;
+        int copied = 0;
+        while (copied < len) {
+            final byte[] chunk = byteChunk((int) (position >>> CHUNK_SHIFT));
+            final int inChunk = (int) (position & CHUNK_SIZE - 1);
+            final int n = Math.min(len - copied, CHUNK_SIZE - inChunk);
+            System.arraycopy(b, off + copied, chunk, inChunk, n);
+            copied += n;
+            position += n;
+        }
+        records.lazySet(slot, nanos);
+        records.lazySet(slot + 1, offset);
+        // the volatile write publishes the record and its bytes
+        records.set(slot + 2, commitWord(source, len));
+    }
+
+    private byte[] byteChunk(final int index) {
+        byte[] chunk = byteChunks.get(index);
+        if (chunk == null) {
+            final long size = Math.min(CHUNK_SIZE, maxBytes - ((long) index << CHUNK_SHIFT));
+            byteChunks.compareAndSet(index, null, new byte[(int) size]);
+            chunk = byteChunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Gets the number of bytes dropped because the maximum number of bytes or records was reached.
+     *
+     * @return The number of bytes dropped.
+     */
+    public long getDroppedByteCount() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Gets the stream capturing the standard error, to give to a {@link PumpStreamHandler}.
+     *
+     * @return The stream capturing the standard error.
+     */
+    public OutputStream getErrorStream() {
+        return errorStream;
+    }
+
+    /**
+     * Gets the stream capturing the standard output, to give to a {@link PumpStreamHandler}.
+     *
+     * @return The stream capturing the standard output.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Gets the number of records, one per write.
+     *
+     * @return The number of records.
+     */
+    public int getRecordCount() {
+        return (int) Math.min(recordsReserved.get(), maxRecords);
+    }
+
+    private AtomicLongArray recordChunk(final int index) {
+        AtomicLongArray chunk = recordChunks.get(index);
+        if (chunk == null) {
+            recordChunks.compareAndSet(index, null, new AtomicLongArray(RECORDS_PER_CHUNK * RECORD_LONGS));
+            chunk = recordChunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Reserves a byte range if it fits, without locking.
+     *
+     * @return The offset of the range, -1 if it does not fit.
+     */
+    private long reserveBytes(final int len) {
+        while (true) {
+            final long offset = bytesReserved.get();
+            if (offset + len > maxBytes) {
+                return -1;
+            }
+            if (bytesReserved.compareAndSet(offset, offset + len)) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Replays the records in the order the writes arrived. Records still being written, which only happens while the process is running, are skipped, as
+     * are writes that were dropped.
+     *
+     * @param consumer The consumer of the records.
+     * @throws IOException if the consumer fails.
+     */
+    public void replay(final RecordConsumer consumer) throws IOException {
+        final int count = getRecordCount();
+        final Source[] sources = Source.values();
+        byte[] scratch = new byte[0];
+        for (int record = 0; record < count; record++) {
+            final AtomicLongArray records = recordChunks.get(record >>> RECORD_SHIFT);
+            final int slot = (record & RECORDS_PER_CHUNK - 1) * RECORD_LONGS;
+            final long word = records == null ? 0 : records.get(slot + 2);
+            final int len = (int) (word >>> 2);
+            if (len == 0) {
+                continue;
+            }
+            final long nanos = records.get(slot);
+            final long offset = records.get(slot + 1);
+            final int inChunk = (int) (offset & CHUNK_SIZE - 1);
+            final byte[] first = byteChunks.get((int) (offset >>> CHUNK_SHIFT));
+            if (inChunk + len <= first.length) {
+                consumer.accept(sources[(int) (word >>> 1 & 1)], nanos, first, inChunk, len);
+                continue;
+            }
+            // the record spans chunks
+            if (scratch.length < len) {
+                scratch = new byte[len];
+            }
+            long position = offset;
+            int copied = 0;
+            while (copied < len) {
+                final int start = (int) (position & CHUNK_SIZE - 1);
+                final int n = Math.min(len - copied, CHUNK_SIZE - start);
+                System.arraycopy(byteChunks.get((int) (position >>> CHUNK_SHIFT)), start, scratch, copied, n);
+                copied += n;
+                position += n;
+            }
+            consumer.accept(sources[(int) (word >>> 1 & 1)], nanos, scratch, 0, len);
+        }
+    }
+
+    /**
+     * Writes the captured bytes of both streams to a stream, in the order they arrived.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        replay((source, nanos, bytes, offset, length) -> out.write(bytes, offset, length));
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decodes the JSON lines, or NDJSON, written by a process and passes each record to a consumer as soon as its line is complete. For example:
+ *
+ * <pre>
+ * JsonLinesOutputStream json = JsonLinesOutputStream.builder().setConsumer(record -&gt; index((Map&lt;?, ?&gt;) record))
+ *         .setErrorHandler((line, e) -&gt; log.warn(e.getMessage())).get();
+ * executor.setStreamHandler(new PumpStreamHandler(json, System.err));
+ * </pre>
+ * <p>
+ * Records are framed on line feeds at the byte level and parsed from the UTF-8 bytes by a small built-in parser, without decoding the line to a string
+ * first. A record lying within one write is parsed in place; otherwise its bytes are buffered up to a maximum size, beyond which the record is skipped
+ * without buffering the rest of it. JSON objects are decoded to {@link LinkedHashMap}s, arrays to {@link ArrayList}s, integers to {@link Long}s or
+ * {@link BigInteger}s, other numbers to {@link Double}s, and strings, booleans and {@code null} to themselves. Blank lines are ignored.
+ * </p>
+ * <p>
+ * A malformed or oversized record, or a record the consumer fails on, is reported to the error handler and skipped, and the following records are decoded
+ * as usual. The last record is decoded on close even without a final line feed. The stream is thread-safe.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class JsonLinesOutputStream extends OutputStream {
+
+    /**
+     * Builds JsonLinesOutputStream instances.
+     */
+    public static final class Builder implements Supplier<JsonLinesOutputStream> {
+
+        /** The consumer of the records. */
+        private Consumer<Object> consumer;
+
+        /** The handler of the skipped records, null to ignore them. */
+        private ErrorHandler errorHandler;
+
+        /** The maximum size of a record in bytes. */
+        private int maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured JsonLinesOutputStream.
+         *
+         * @return a new configured JsonLinesOutputStream.
+         * @throws NullPointerException if no consumer is set.
+         */
+        @Override
+        public JsonLinesOutputStream get() {
+            return new JsonLinesOutputStream(this);
+        }
+
+        /**
+         * Sets the consumer of the records, called by the thread writing the stream.
+         *
+         * @param consumer The consumer.
+         * @return {@code this} instance.
+         */
+        public Builder setConsumer(final Consumer<Object> consumer) {
+            this.consumer = consumer;
+            return this;
+        }
+
+        /**
+         * Sets the handler of the skipped records.
+         *
+         * @param errorHandler The handler, null to ignore skipped records.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorHandler(final ErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a record in bytes.
+         *
+         * @param maxRecordSize The maximum, values below 1 reset to 1 MiB.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxRecordSize(final int maxRecordSize) {
+            this.maxRecordSize = maxRecordSize > 0 ? maxRecordSize : DEFAULT_MAX_RECORD_SIZE;
+            return this;
+        }
+    }
+
+    /**
+     * Handles a skipped record.
+     */
+    @FunctionalInterface
+    public interface ErrorHandler {
+
+        /**
+         * Handles a skipped record.
+         *
+         * @param line      The line number of the record, starting at 1.
+         * @param exception Why the record was skipped.
+         */
+        void onError(long line, IOException exception);
+    }
+
+    /**
+     * Parses one JSON value from a byte range.
+     */
+    private static final class Parser {
+
+        private final byte[] b;
+
+        private int depth;
+
+        private final int end;
+
+        private int pos;
+
+        private final int start;
+
+        Parser(final byte[] b, final int start, final int end) {
+            this.b = b;
+            this.start = start;
+            this.end = end;
+            this.pos = start;
+        }
+
+        private List<Object> array() throws IOException {
+            enter();
+            final List<Object> list = new ArrayList<>();
+            skipWhitespace();
+            if (pos < end && b[pos] == ']') {
+                pos++;
+            } else {
+                do {
+                    list.add(value());
+                } while (next(']'));
+            }
+            depth--;
+            return list;
+        }
+
+        private void enter() throws IOException {
+            if (++depth > MAX_DEPTH) {
+                throw error("Nesting deeper than " + MAX_DEPTH);
+            }
+            pos++;
+        }
+
+        private IOException error(final String message) {
+            return new IOException(message + " at byte " + (pos - start));
+        }
+
+        private void expect(final char c) throws IOException {
+            skipWhitespace();
+            if (pos >= end || b[pos] != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private Object literal(final String text, final Object value) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                if (pos >= end || b[pos] != text.charAt(i)) {
+                    throw error("Unexpected character");
+                }
+                pos++;
+            }
+            return value;
+        }
+
+        private boolean next(final char close) throws IOException {
+            skipWhitespace();
+            if (pos < end && b[pos] == ',') {
+                pos++;
+                return true;
+            }
+            expect(close);
+            return false;
+        }
+
+        private Object number() throws IOException {
+            final int first = pos;
+            if (b[pos] == '-') {
+                pos++;
+            }
+            if (pos < end && b[pos] == '0') {
+                pos++;
+            } else if (skipDigits() == 0) {
+                throw error("Invalid number");
+            }
+            boolean integral = true;
+            if (pos < end && b[pos] == '.') {
+                pos++;
+                integral = false;
+                if (skipDigits() == 0) {
+                    throw error("Invalid number");
+                }
+            }
+            if (pos < end && (b[pos] == 'e' || b[pos] == 'E')) {
+                pos++;
+                integral = false;
+                if (pos < end && (b[pos] == '+' || b[pos] == '-')) {
+                    pos++;
+                }
+                if (skipDigits() == 0) {
+                    throw error("Invalid number");
+                }
+            }
+            final String text = new String(b, first, pos - first, StandardCharsets.ISO_8859_1);
+            if (!integral) {
+                return Double.valueOf(text);
+            }
+            if (pos - first <= 18) {
+                return Long.valueOf(text);
+            }
+            final BigInteger value = new BigInteger(text);
+            return value.bitLength() < Long.SIZE ? (Object) value.longValue() : value;
+        }
+
+        private Map<String, Object> object() throws IOException {
+            enter();
+            final Map<String, Object> map = new LinkedHashMap<>();
+            skipWhitespace();
+            if (pos < end && b[pos] == '}') {
+                pos++;
+            } else {
+                do {
+                    final String key = string();
+                    expect(':');
+                    map.put(key, value());
+                } while (next('}'));
+            }
+            depth--;
+            return map;
+        }
+
+        private Object parse() throws IOException {
+            final Object value = value();
+            skipWhitespace();
+            if (pos < end) {
+                throw error("Unexpected data after the value");
+            }
+            return value;
+        }
+
+        private int skipDigits() {
+            final int first = pos;
+            while (pos < end && b[pos] >= '0' && b[pos] <= '9') {
+                pos++;
+            }
+            return pos - first;
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && (b[pos] == ' ' || b[pos] == '\t' || b[pos] == '\r' || b[pos] == '\n')) {
+                pos++;
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            int run = pos;
+            StringBuilder builder = null;
+            while (true) {
+                if (pos >= end) {
+                    throw error("Unterminated string");
+                }
+                final byte c = b[pos];
+                if (c == '"') {
+                    final String tail = new String(b, run, pos - run, StandardCharsets.UTF_8);
+                    pos++;
+                    return builder == null ? tail : builder.append(tail).toString();
+                }
+                if (c >= 0 && c < 0x20) {
+                    throw error("Control character in string");
+                }
+                if (c != '\\') {
+                    pos++;
+                    continue;
+                }
+                if (builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(new String(b, run, pos - run, StandardCharsets.UTF_8));
+                if (++pos >= end) {
+                    throw error("Unterminated string");
+                }
+                switch (b[pos++]) {
+                case '"':
+                    builder.append('"');
+                    break;
+                case '\\':
+                    builder.append('\\');
+                    break;
+                case '/':
+                    builder.append('/');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    builder.append(unicodeEscape());
+                    break;
+                default:
+                    throw error("Invalid escape");
+                }
+                run = pos;
+            }
+        }
+
+        private char unicodeEscape() throws IOException {
+            if (end - pos < 4) {
+                throw error("Invalid escape");
+            }
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                final int digit = Character.digit(b[pos++], 16);
+                if (digit < 0) {
+                    throw error("Invalid escape");
+                }
+                value = value << 4 | digit;
+            }
+            return (char) value;
+        }
+
+        private Object value() throws IOException {
+            skipWhitespace();
+            if (pos >= end) {
+                throw error("Unexpected end of record");
+            }
+            switch (b[pos]) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (b[pos] == '-' || b[pos] >= '0' && b[pos] <= '9') {
+                    return number();
+                }
+                throw error("Unexpected character");
+            }
+        }
+
+    }
+
+    private static final int DEFAULT_MAX_RECORD_SIZE = 1024 * 1024;
+
+    private static final int MAX_DEPTH = 512;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The bytes of the current record not within the current write. */
+    private byte[] buffer = new byte[256];
+
+    /** The number of bytes in the buffer. */
+    private int buffered;
+
+    /** The consumer of the records. */
+    private final Consumer<Object> consumer;
+
+    /** The number of records skipped. */
+    private long errorCount;
+
+    /** The handler of the skipped records, null to ignore them. */
+    private final ErrorHandler errorHandler;
+
+    /** The number of the current line, starting at 1. */
+    private long line = 1;
+
+    /** The maximum size of a record in bytes. */
+    private final int maxRecordSize;
+
+    /** The number of records decoded. */
+    private long recordCount;
+
+    /** Whether the current record is oversized and skipped up to its line feed. */
+    private boolean skipping;
+
+    private JsonLinesOutputStream(final Builder builder) {
+        this.consumer = Objects.requireNonNull(builder.consumer, "consumer");
+        this.errorHandler = builder.errorHandler;
+        this.maxRecordSize = builder.maxRecordSize;
+    }
+
+    /**
+     * Decodes the last record if it has no line feed.
+     */
+    @Override
+    public synchronized void close() {
+        if (buffered > 0) {
+            record(buffer, 0, buffered);
+            buffered = 0;
+        }
+        skipping = false;
+    }
+
+    private byte[] ensureBuffer(final int more) {
+        if (buffer.length - buffered < more) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + more));
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the number of records skipped because they were malformed, oversized or the consumer failed on them.
+     *
+     * @return The number of records skipped.
+     */
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Gets the number of records passed to the consumer.
+     *
+     * @return The number of records decoded.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    private void onError(final IOException exception) {
+        errorCount++;
+        if (errorHandler != null) {
+            errorHandler.onError(line, exception);
+        }
+    }
+
+    private void oversized() {
+        onError(new IOException("Record longer than " + maxRecordSize + " bytes"));
+    }
+
+    /**
+     * Decodes a record, without its line feed.
+     */
+    private void record(final byte[] b, final int start, final int end) {
+        int last = end;
+        while (last > start && (b[last - 1] == ' ' || b[last - 1] == '\t' || b[last - 1] == '\r')) {
+            last--;
+        }
+        int first = start;
+        while (first < last && (b[first] == ' ' || b[first] == '\t')) {
+            first++;
+        }
+        if (first == last) {
+            return;
+        }
+        final Object value;
+        try {
+            value = new Parser(b, first, last).parse();
+        } catch (final IOException | RuntimeException e) {
+            onError(e instanceof IOException ? (IOException) e : new IOException("Malformed record", e));
+            return;
+        }
+        try {
+            consumer.accept(value);
+            recordCount++;
+        } catch (final RuntimeException e) {
+            onError(new IOException("Consumer failed", e));
+        }
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] != '\n') {
+                continue;
+            }
+            if (skipping) {
+                skipping = false;
+            } else if (buffered == 0) {
+                if (i - start > maxRecordSize) {
+                    oversized();
+                } else {
+                    record(b, start, i);
+                }
+            } else if (buffered + i - start > maxRecordSize) {
+                oversized();
+            } else {
+                System.arraycopy(b, start, ensureBuffer(i - start), buffered, i - start);
+                record(buffer, 0, buffered + i - start);
+            }
+            buffered = 0;
+            line++;
+            start = i + 1;
+        }
+        if (!skipping && start < end) {
+            if (buffered + end - start > maxRecordSize) {
+                oversized();
+                skipping = true;
+                buffered = 0;
+            } else {
+                System.arraycopy(b, start, ensureBuffer(end - start), buffered, end - start);
+                buffered += end - start;
+            }
+        }
+    }
+
+    @Override
+    public void write(final int b) {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Filters the lines written to an output stream without decoding them, typically in front of a {@link LogOutputStream} given to a
+ * {@link PumpStreamHandler}. For example, to drop debug lines and keep at most 100 of the others per second on each stream:
+ *
+ * <pre>
+ * LineFilterOutputStream filterOut = LineFilterOutputStream.builder().setOutputStream(logOut).setDropPrefixes("DEBUG", "TRACE")
+ *         .setMaxLinesPerSecond(100).get();
+ * LineFilterOutputStream filterErr = LineFilterOutputStream.builder().setOutputStream(logErr).setDropPrefixes("DEBUG", "TRACE")
+ *         .setMaxLinesPerSecond(100).get();
+ * executor.setStreamHandler(new PumpStreamHandler(filterOut, filterErr));
+ * </pre>
+ * <p>
+ * A line is written if it starts with one of the keep prefixes or contains one of the keep literals, or if there are none, and it neither starts with a drop
+ * prefix nor contains a drop literal. The prefixes and literals are matched on bytes, the literals by an Aho-Corasick automaton; a line is only buffered
+ * while its fate is unknown, and a dropped line is skipped without copying it. The lines passing the filter are then sampled, keeping the first of every
+ * {@code n}, and limited to a number of lines per second. Lines end with a line feed, which is kept.
+ * </p>
+ * <p>
+ * An instance holds the partial line of a single stream: use one instance per stream, as the lines of two streams written to the same instance would be
+ * mixed up.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class LineFilterOutputStream extends FilterOutputStream {
+
+    /**
+     * Builds LineFilterOutputStream instances.
+     */
+    public static final class Builder implements Supplier<LineFilterOutputStream> {
+
+        /** The charset of the prefixes and literals. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** Lines containing one of these are dropped. */
+        private String[] dropLiterals = {};
+
+        /** Lines starting with one of these are dropped. */
+        private String[] dropPrefixes = {};
+
+        /** Lines containing one of these are kept. */
+        private String[] keepLiterals = {};
+
+        /** Lines starting with one of these are kept. */
+        private String[] keepPrefixes = {};
+
+        /** The maximum number of lines written per second, 0 for no limit. */
+        private int maxLinesPerSecond;
+
+        /** The filtered stream. */
+        private OutputStream outputStream;
+
+        /** One of every this many lines is written. */
+        private int sampleRate = 1;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured LineFilterOutputStream.
+         *
+         * @return A new configured LineFilterOutputStream.
+         * @throws NullPointerException if the output stream is not set.
+         */
+        @Override
+        public LineFilterOutputStream get() {
+            return new LineFilterOutputStream(this);
+        }
+
+        /**
+         * Sets the charset used to encode the prefixes and literals.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the literals dropping the lines containing them.
+         *
+         * @param dropLiterals The literals, none by default.
+         * @return {@code this} instance.
+         */
+        public Builder setDropLiterals(final String... dropLiterals) {
+            this.dropLiterals = dropLiterals.clone();
+            return this;
+        }
+
+        /**
+         * Sets the prefixes dropping the lines starting with them.
+         *
+         * @param dropPrefixes The prefixes, none by default.
+         * @return {@code this} instance.
+         */
+        public Builder setDropPrefixes(final String... dropPrefixes) {
+            this.dropPrefixes = dropPrefixes.clone();
+            return this;
+        }
+
+        /**
+         * Sets the literals keeping the lines containing them, all other lines are dropped unless they start with a keep prefix.
+         *
+         * @param keepLiterals The literals, none by default.
+         * @return {@code this} instance.
+         */
+        public Builder setKeepLiterals(final String... keepLiterals) {
+            this.keepLiterals = keepLiterals.clone();
+            return this;
+        }
+
+        /**
+         * Sets the prefixes keeping the lines starting with them, all other lines are dropped unless they contain a keep literal.
+         *
+         * @param keepPrefixes The prefixes, none by default.
+         * @return {@code this} instance.
+         */
+        public Builder setKeepPrefixes(final String... keepPrefixes) {
+            this.keepPrefixes = keepPrefixes.clone();
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of lines written per second; the excess lines are dropped.
+         *
+         * @param maxLinesPerSecond The maximum number of lines, less than 1 resets to no limit.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxLinesPerSecond(final int maxLinesPerSecond) {
+            this.maxLinesPerSecond = Math.max(0, maxLinesPerSecond);
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the lines written.
+         *
+         * @param outputStream The output stream.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        /**
+         * Sets the sampling of the lines passing the filter: the first of every {@code sampleRate} lines is written.
+         *
+         * @param sampleRate The sample rate, less than 1 resets to 1, writing every line.
+         * @return {@code this} instance.
+         */
+        public Builder setSampleRate(final int sampleRate) {
+            this.sampleRate = Math.max(1, sampleRate);
+            return this;
+        }
+    }
+
+    /** The fate of the current line is unknown. */
+    private static final int UNDECIDED = 0;
+
+    /** The current line is written. */
+    private static final int KEEP = 1;
+
+    /** The current line is dropped. */
+    private static final int DROP = 2;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static byte[][] encode(final String[] strings, final Charset charset) {
+        final byte[][] bytes = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = Objects.requireNonNull(strings[i], "literal").getBytes(charset);
+        }
+        return bytes;
+    }
+
+    /** Matches the drop literals followed by the keep literals, null if there are none. */
+    private final LiteralAutomaton automaton;
+
+    /** The state of the automaton. */
+    private int automatonState;
+
+    /** The fate of the current line. */
+    private int decision;
+
+    /** The number of drop literals. */
+    private final int dropLiteralCount;
+
+    /** The number of dropped lines. */
+    private long droppedLineCount;
+
+    /** Whether the current line contains a drop literal. */
+    private boolean dropMatched;
+
+    /** The drop prefixes. */
+    private final byte[][] dropPrefixes;
+
+    /** Whether there are keep prefixes or literals. */
+    private final boolean hasKeepRules;
+
+    /** Whether the current line starts with a keep prefix or contains a keep literal. */
+    private boolean keepMatched;
+
+    /** The keep prefixes. */
+    private final byte[][] keepPrefixes;
+
+    /** The bytes of the current line while its fate is unknown. */
+    private byte[] line = new byte[128];
+
+    /** The number of bytes of the current line in the buffer. */
+    private int lineLength;
+
+    /** The maximum number of lines written per second, 0 for no limit. */
+    private final int maxLinesPerSecond;
+
+    /** The length of the longest prefix. */
+    private final int maxPrefixLength;
+
+    /** The number of lines that passed the filter, for sampling. */
+    private long passedLineCount;
+
+    /** Whether the prefixes were checked on the current line. */
+    private boolean prefixChecked;
+
+    /** One of every this many lines is written. */
+    private final int sampleRate;
+
+    /** The start of the current second of the rate limit. */
+    private long windowStart;
+
+    /** The number of lines written in the current second of the rate limit. */
+    private int windowCount;
+
+    /** The number of written lines. */
+    private long writtenLineCount;
+
+    private LineFilterOutputStream(final Builder builder) {
+        super(Objects.requireNonNull(builder.outputStream, "outputStream"));
+        final byte[][] dropLiterals = encode(builder.dropLiterals, builder.charset);
+        final byte[][] keepLiterals = encode(builder.keepLiterals, builder.charset);
+        final byte[][] literals = Arrays.copyOf(dropLiterals, dropLiterals.length + keepLiterals.length);
+        System.arraycopy(keepLiterals, 0, literals, dropLiterals.length, keepLiterals.length);
+        // drop literals first, so that they win when literals end at the same byte
+        this.automaton = literals.length > 0 ? new LiteralAutomaton(literals) : null;
+        this.dropLiteralCount = dropLiterals.length;
+        this.dropPrefixes = encode(builder.dropPrefixes, builder.charset);
+        this.keepPrefixes = encode(builder.keepPrefixes, builder.charset);
+        this.hasKeepRules = keepLiterals.length > 0 || keepPrefixes.length > 0;
+        int maxLength = 0;
+        for (final byte[] prefix : dropPrefixes) {
+            maxLength = Math.max(maxLength, prefix.length);
+        }
+        for (final byte[] prefix : keepPrefixes) {
+            maxLength = Math.max(maxLength, prefix.length);
+        }
+        this.maxPrefixLength = maxLength;
+        this.maxLinesPerSecond = builder.maxLinesPerSecond;
+        this.sampleRate = builder.sampleRate;
+    }
+
+    /**
+     * Tests whether a line passing the filter is sampled and within the rate limit.
+     */
+    private boolean admit() {
+        if (sampleRate > 1 && passedLineCount++ % sampleRate != 0) {
+            return false;
+        }
+        if (maxLinesPerSecond > 0) {
+            final long now = System.nanoTime();
+            if (windowCount == 0 || now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+                windowStart = now;
+                windowCount = 0;
+            }
+            if (windowCount >= maxLinesPerSecond) {
+                return false;
+            }
+            windowCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Decides the fate of the current line if enough of it is known, writing the buffered bytes if it is kept.
+     */
+    private void decide(final boolean ended) throws IOException {
+        if (!prefixChecked && (lineLength >= maxPrefixLength || ended)) {
+            prefixChecked = true;
+            if (startsWith(dropPrefixes)) {
+                dropMatched = true;
+            } else if (startsWith(keepPrefixes)) {
+                keepMatched = true;
+            }
+        }
+        if (dropMatched) {
+            setDecision(DROP);
+            return;
+        }
+        if (!ended && (!prefixChecked || dropLiteralCount > 0 || hasKeepRules && !keepMatched)) {
+            // the rest of the line may change its fate
+            return;
+        }
+        setDecision((!hasKeepRules || keepMatched) && admit() ? KEEP : DROP);
+        if (decision == KEEP) {
+            out.write(line, 0, lineLength);
+        }
+    }
+
+    /**
+     * Writes the current line if it is kept, then closes the filtered stream.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (decision == UNDECIDED && lineLength > 0) {
+                decide(true);
+            }
+        }
+        super.close();
+    }
+
+    /**
+     * Flushes the filtered stream, not the current line if its fate is unknown.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Gets the number of dropped lines, whether by the filter, the sampling or the rate limit.
+     *
+     * @return The number of dropped lines.
+     */
+    public synchronized long getDroppedLineCount() {
+        return droppedLineCount;
+    }
+
+    /**
+     * Gets the number of written lines.
+     *
+     * @return The number of written lines.
+     */
+    public synchronized long getWrittenLineCount() {
+        return writtenLineCount;
+    }
+
+    /**
+     * Handles a part of the current line, ending with a line feed if the line ends.
+     */
+    private void handleSegment(final byte[] b, final int from, final int to, final boolean ended) throws IOException {
+        if (decision == KEEP) {
+            out.write(b, from, to - from);
+        } else if (decision == UNDECIDED) {
+            if (lineLength + to - from > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + to - from));
+            }
+            System.arraycopy(b, from, line, lineLength, to - from);
+            lineLength += to - from;
+            if (automaton != null) {
+                final int contentEnd = ended ? to - 1 : to;
+                for (int i = from; i < contentEnd && !dropMatched; i++) {
+                    automatonState = automaton.next(automatonState, b[i]);
+                    final int index = automaton.output(automatonState);
+                    if (index >= 0) {
+                        if (index < dropLiteralCount) {
+                            dropMatched = true;
+                        } else {
+                            keepMatched = true;
+                        }
+                    }
+                }
+            }
+            decide(ended);
+        }
+        if (ended) {
+            automatonState = 0;
+            decision = UNDECIDED;
+            dropMatched = false;
+            keepMatched = false;
+            lineLength = 0;
+            prefixChecked = false;
+        }
+    }
+
+    private void setDecision(final int decision) {
+        this.decision = decision;
+        if (decision == KEEP) {
+            writtenLineCount++;
+        } else {
+            droppedLineCount++;
+        }
+    }
+
+    /**
+     * Tests whether the buffered line starts with one of the prefixes.
+     */
+    private boolean startsWith(final byte[][] prefixes) {
+        for (final byte[] prefix : prefixes) {
+            if (prefix.length <= lineLength) {
+                int i = 0;
+                while (i < prefix.length && prefix[i] == line[i]) {
+                    i++;
+                }
+                if (i == prefix.length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int end = off + len;
+        int from = off;
+        while (from < end) {
+            int to = from;
+            while (to < end && b[to] != '\n') {
+                to++;
+            }
+            final boolean ended = to < end;
+            if (ended) {
+                to++;
+            }
+            handleSegment(b, from, to, ended);
+            from = to;
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Matches byte literals with the Aho-Corasick automaton, as a complete transition table over bytes, so that each input byte costs one table lookup whatever
+ * the number of literals. State 0 is the initial state; with a single literal, state {@code i} is the one having matched the first {@code i} bytes of the
+ * literal, and a state following a complete match continues with the longest suffix of the literal that is also a prefix.
+ */
+final class LiteralAutomaton {
+
+    private static int[] newRow() {
+        final int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /** The length of each literal. */
+    private final int[] lengths;
+
+    /** The index of the first literal ending in each state, -1 for none. */
+    private final int[] outputs;
+
+    /** The next state by state and byte. */
+    private final int[][] transitions;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param literals The literals.
+     * @throws IllegalArgumentException if a literal is empty.
+     */
+    LiteralAutomaton(final byte[][] literals) {
+        this.lengths = new int[literals.length];
+        int maxStates = 1;
+        for (int i = 0; i < literals.length; i++) {
+            if (literals[i].length == 0) {
+                throw new IllegalArgumentException("Empty literal");
+            }
+            lengths[i] = literals[i].length;
+            maxStates += literals[i].length;
+        }
+        // the trie, -1 for a missing edge
+        int[][] next = new int[maxStates][];
+        int[] output = new int[maxStates];
+        Arrays.fill(output, -1);
+        next[0] = newRow();
+        int states = 1;
+        for (int i = 0; i < literals.length; i++) {
+            int state = 0;
+            for (final byte b : literals[i]) {
+                if (next[state][b & 0xff] < 0) {
+                    next[states] = newRow();
+                    next[state][b & 0xff] = states++;
+                }
+                state = next[state][b & 0xff];
+            }
+            if (output[state] < 0) {
+                output[state] = i;
+            }
+        }
+        next = Arrays.copyOf(next, states);
+        output = Arrays.copyOf(output, states);
+        // breadth first, turning the trie into a transition table following the failure links
+        final int[] failure = new int[states];
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int b = 0; b < 256; b++) {
+            if (next[0][b] < 0) {
+                next[0][b] = 0;
+            } else {
+                queue.add(next[0][b]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            final int fallback = output[failure[state]];
+            if (fallback >= 0 && (output[state] < 0 || fallback < output[state])) {
+                output[state] = fallback;
+            }
+            for (int b = 0; b < 256; b++) {
+                final int child = next[state][b];
+                if (child < 0) {
+                    next[state][b] = next[failure[state]][b];
+                } else {
+                    failure[child] = next[failure[state]][b];
+                    queue.add(child);
+                }
+            }
+        }
+        this.transitions = next;
+        this.outputs = output;
+    }
+
+    /**
+     * Gets the length of a literal.
+     *
+     * @param index The index of the literal.
+     * @return The length of the literal.
+     */
+    int length(final int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Gets the state following a byte.
+     *
+     * @param state The current state.
+     * @param b     The byte.
+     * @return The next state.
+     */
+    int next(final int state, final byte b) {
+        return transitions[state][b & 0xff];
+    }
+
+    /**
+     * Gets the literal ending in a state, the one with the lowest index if several do.
+     *
+     * @param state The state.
+     * @return The index of the literal, -1 if none.
+     */
+    int output(final int state) {
+        return outputs[state];
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Writes the output of many processes to one stream, each line prefixed by the process it comes from and never mixed with another. For example:
+ *
+ * <pre>
+ * try (LogAggregator aggregator = LogAggregator.builder().setOutputStream(System.out).get()) {
+ *     for (Job job : jobs) {
+ *         DefaultExecutor executor = DefaultExecutor.builder().get();
+ *         executor.setStreamHandler(aggregator.newStreamHandler("[" + job.getId() + "] "));
+ *         executor.execute(job.getCommandLine(), new DefaultExecuteResultHandler());
+ *     }
+ *     ...
+ * }
+ * </pre>
+ * <p>
+ * Each stream splits its bytes into lines and appends the complete lines with their prefix to a buffer of its own, so the pumps of different processes
+ * never contend with each other. One writer thread drains the buffers in batches and writes them to the target stream, which is only ever written by that
+ * thread. A stream whose buffer is full waits for the writer, and a line longer than the buffer is split. A closed stream is dropped once its lines are
+ * written, so the streams of the handlers created by {@link #newStreamHandler(String)}, which are closed when their process ends, cost nothing afterwards.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class LogAggregator implements AutoCloseable {
+
+    /**
+     * Builds LogAggregator instances.
+     */
+    public static final class Builder implements Supplier<LogAggregator> {
+
+        /** The charset of the prefixes. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** The time the writer waits for more lines before draining the buffers. */
+        private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+        /** The size of the buffer of each stream. */
+        private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+
+        /** The target stream. */
+        private OutputStream outputStream;
+
+        /** The thread factory of the writer thread. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured LogAggregator, starting its writer thread.
+         *
+         * @return a new configured LogAggregator.
+         * @throws NullPointerException if no output stream is set.
+         */
+        @Override
+        public LogAggregator get() {
+            return new LogAggregator(this);
+        }
+
+        /**
+         * Sets the charset of the prefixes.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the time the writer waits for more lines before draining the buffers, trading latency for larger batches.
+         *
+         * @param flushInterval The time, null resets to 10 milliseconds.
+         * @return {@code this} instance.
+         */
+        public Builder setFlushInterval(final Duration flushInterval) {
+            this.flushInterval = flushInterval != null ? flushInterval : DEFAULT_FLUSH_INTERVAL;
+            return this;
+        }
+
+        /**
+         * Sets the size of the buffer of each stream.
+         *
+         * @param maxBufferSize The size, values below 1 reset to 64 KiB.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxBufferSize(final int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize > 0 ? maxBufferSize : DEFAULT_MAX_BUFFER_SIZE;
+            return this;
+        }
+
+        /**
+         * Sets the target stream. The stream is flushed after each batch and not closed.
+         *
+         * @param outputStream The target stream.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory of the writer thread.
+         *
+         * @param threadFactory The thread factory, null resets to {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * Buffers the prefixed lines of one producer.
+     */
+    private final class ProducerOutputStream extends OutputStream {
+
+        /** The prefixed lines, complete up to {@link #complete}, followed by the current line. */
+        private byte[] buffer = new byte[INITIAL_SIZE];
+
+        /** Whether the stream is closed. */
+        private boolean closed;
+
+        /** The length of the complete lines in the buffer. */
+        private int complete;
+
+        /** The length of the buffer. */
+        private int length;
+
+        /** The prefix of the lines. */
+        private final byte[] prefix;
+
+        ProducerOutputStream(final byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        private void append(final byte[] b, final int off, final int len) {
+            if (buffer.length - length < len) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+            }
+            System.arraycopy(b, off, buffer, length, len);
+            length += len;
+        }
+
+        /**
+         * Terminates the current line, if any, and stops accepting bytes.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                terminateLine();
+                closed = true;
+                LockSupport.unpark(writer);
+            }
+        }
+
+        /**
+         * Moves the complete lines to the batch. Called by the writer thread.
+         *
+         * @param all whether to also take the current line, terminating it.
+         * @return whether the stream is closed and empty.
+         */
+        synchronized boolean drainTo(final Batch batch, final boolean all) {
+            if (all) {
+                terminateLine();
+            }
+            if (complete > 0) {
+                batch.append(buffer, 0, complete);
+                System.arraycopy(buffer, complete, buffer, 0, length - complete);
+                length -= complete;
+                complete = 0;
+                notifyAll();
+            }
+            return closed && length == 0;
+        }
+
+        private void terminateLine() {
+            if (length > complete) {
+                append(NEW_LINE, 0, 1);
+                complete = length;
+            }
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            int start = off;
+            final int end = off + len;
+            while (start < end) {
+                awaitRoom();
+                if (length == complete) {
+                    append(prefix, 0, prefix.length);
+                }
+                final int limit = Math.min(end, start + Math.max(1, maxBufferSize - (length - complete)));
+                int eol = start;
+                while (eol < limit && b[eol] != '\n') {
+                    eol++;
+                }
+                if (eol < limit) {
+                    append(b, start, eol + 1 - start);
+                    complete = length;
+                    start = eol + 1;
+                } else {
+                    append(b, start, limit - start);
+                    start = limit;
+                    if (length - complete >= maxBufferSize) {
+                        // split an overlong line
+                        terminateLine();
+                    }
+                }
+            }
+            if (complete >= maxBufferSize / 2) {
+                // wake the writer early rather than let the buffer fill
+                LockSupport.unpark(writer);
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /**
+         * Waits until the writer drained the buffer below its maximum size.
+         */
+        private void awaitRoom() throws IOException {
+            while (true) {
+                if (closed || closing) {
+                    throw new IOException(closed ? "Stream closed" : "Log aggregator closed");
+                }
+                if (failure != null) {
+                    throw new IOException("Failed writing aggregated lines", failure);
+                }
+                if (complete < maxBufferSize) {
+                    return;
+                }
+                LockSupport.unpark(writer);
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the aggregated lines to be written");
+                }
+            }
+        }
+    }
+
+    /**
+     * The bytes written to the target stream in one call.
+     */
+    private static final class Batch {
+
+        private byte[] bytes = new byte[INITIAL_SIZE];
+
+        private int length;
+
+        void append(final byte[] b, final int off, final int len) {
+            if (bytes.length - length < len) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + len));
+            }
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+    }
+
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(10);
+
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private static final byte[] NEW_LINE = { '\n' };
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The charset of the prefixes. */
+    private final Charset charset;
+
+    /** Whether the aggregator is closing. */
+    private volatile boolean closing;
+
+    /** The failure writing the target stream. */
+    private volatile IOException failure;
+
+    /** The time the writer waits for more lines. */
+    private final long flushIntervalNanos;
+
+    /** The size of the buffer of each stream. */
+    private final int maxBufferSize;
+
+    /** The target stream. */
+    private final OutputStream outputStream;
+
+    /** The streams not closed and drained yet. */
+    private final CopyOnWriteArrayList<ProducerOutputStream> producers = new CopyOnWriteArrayList<>();
+
+    /** The writer thread. */
+    private final Thread writer;
+
+    private LogAggregator(final Builder builder) {
+        this.charset = builder.charset;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.maxBufferSize = builder.maxBufferSize;
+        this.outputStream = Objects.requireNonNull(builder.outputStream, "outputStream");
+        this.writer = ThreadUtil.newThread(builder.threadFactory, this::run, "CommonsExecLogAggregator-", true);
+        writer.start();
+    }
+
+    /**
+     * Writes the lines not written yet, terminating the current line of each stream, and stops the writer thread. The target stream is not closed.
+     *
+     * @throws IOException if the target stream could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the aggregated lines to be written");
+        }
+        if (failure != null) {
+            throw new IOException("Failed writing aggregated lines", failure);
+        }
+    }
+
+    /**
+     * Creates a stream for one producer. The stream can be written by several threads, but a line is only kept whole when it is written by one thread, so
+     * the output and the error of a process need a stream each, as {@link #newStreamHandler(String)} creates. Closing the stream terminates its current
+     * line; the stream is buffered until closed.
+     *
+     * @param prefix The prefix of each line, for example {@code "[job-1] "}.
+     * @return A new stream.
+     * @throws IllegalStateException if the aggregator is closed.
+     */
+    public OutputStream newOutputStream(final String prefix) {
+        if (closing) {
+            throw new IllegalStateException("Log aggregator closed");
+        }
+        final ProducerOutputStream producer = new ProducerOutputStream(prefix.getBytes(charset));
+        producers.add(producer);
+        return producer;
+    }
+
+    /**
+     * Creates a stream handler for one execution of a process, pumping its output and its error to two streams with the same prefix, so that lines of the
+     * two are never torn, and closing them when the process ended.
+     *
+     * @param prefix The prefix of each line, for example {@code "[job-1] "}.
+     * @return A new stream handler.
+     * @throws IllegalStateException if the aggregator is closed.
+     */
+    public PumpStreamHandler newStreamHandler(final String prefix) {
+        final OutputStream out = newOutputStream(prefix);
+        final OutputStream err = newOutputStream(prefix);
+        return new PumpStreamHandler(out, err) {
+            @Override
+            public void stop() throws IOException {
+                try {
+                    super.stop();
+                } finally {
+                    out.close();
+                    err.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Drains the buffers and writes them in batches until closed.
+     */
+    private void run() {
+        final Batch batch = new Batch();
+        while (true) {
+            final boolean last = closing;
+            for (final ProducerOutputStream producer : producers) {
+                if (producer.drainTo(batch, last)) {
+                    producers.remove(producer);
+                }
+            }
+            if (batch.length > 0 && failure == null) {
+                try {
+                    outputStream.write(batch.bytes, 0, batch.length);
+                    outputStream.flush();
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+            batch.length = 0;
+            if (last) {
+                return;
+            }
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+    }
+}
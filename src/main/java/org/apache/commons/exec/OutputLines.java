@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.exec.launcher.CommandLauncher;
+import org.apache.commons.exec.launcher.CommandLauncherFactory;
+
+/**
+ * Iterates over the lines of the standard output of a process as the process prints them. For example:
+ *
+ * <pre>
+ * try (Stream&lt;String&gt; lines = OutputLines.builder().setCommandLine(new CommandLine("git").addArgument("log")).get().stream()) {
+ *     lines.filter(line -&gt; line.startsWith("commit ")).limit(10).forEach(System.out::println);
+ * }
+ * </pre>
+ * <p>
+ * The lines are read from the pipe of the process only when the consumer asks for them, through a buffer of bounded size, so the first line is available
+ * as soon as the process prints it and a slow consumer makes the process block on a full pipe rather than the output pile up in memory. The standard error
+ * is pumped to a stream by a thread and the standard input is closed.
+ * </p>
+ * <p>
+ * The process is started by the first call to {@link #hasNext()}. When its output ends, the process is waited for and its exit value checked, the failure
+ * surfacing as an {@link UncheckedIOException} wrapping an {@link ExecuteException}. Closing the instance before that destroys the process.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class OutputLines implements Iterator<String>, AutoCloseable {
+
+    /**
+     * Builds OutputLines instances.
+     */
+    public static final class Builder implements Supplier<OutputLines> {
+
+        /** The size in characters of the read buffer. */
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+        /** The charset of the output. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** The launcher starting the process. */
+        private CommandLauncher commandLauncher;
+
+        /** The command line. */
+        private CommandLine commandLine;
+
+        /** The environment, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** The stream receiving the standard error, null to discard it. */
+        private OutputStream errorStream;
+
+        /** The exit values meaning success, null to accept any. */
+        private int[] exitValues = { 0 };
+
+        /** The thread factory pumping the standard error. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** The working directory. */
+        private Path workingDirectory = Paths.get(".");
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured OutputLines.
+         *
+         * @return a new configured OutputLines.
+         * @throws NullPointerException if no command line is set.
+         */
+        @Override
+        public OutputLines get() {
+            return new OutputLines(this);
+        }
+
+        /**
+         * Sets the size in characters of the read buffer.
+         *
+         * @param bufferSize The size, values below 1 reset to 8192.
+         * @return {@code this} instance.
+         */
+        public Builder setBufferSize(final int bufferSize) {
+            this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+            return this;
+        }
+
+        /**
+         * Sets the charset of the output.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the launcher starting the process.
+         *
+         * @param commandLauncher The launcher, null resets to the launcher of the current platform.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the command line.
+         *
+         * @param commandLine The command line.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the process.
+         *
+         * @param environment The environment, null resets to the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard error of the process. The stream is not closed.
+         *
+         * @param errorStream The stream, null resets to discarding the standard error.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorStream(final OutputStream errorStream) {
+            this.errorStream = errorStream;
+            return this;
+        }
+
+        /**
+         * Sets the exit values meaning success.
+         *
+         * @param exitValues The exit values, null to accept any exit value.
+         * @return {@code this} instance.
+         */
+        public Builder setExitValues(final int... exitValues) {
+            this.exitValues = exitValues == null ? null : exitValues.clone();
+            return this;
+        }
+
+        /**
+         * Sets the thread factory pumping the standard error.
+         *
+         * @param threadFactory The thread factory, null resets to {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the process.
+         *
+         * @param workingDirectory The working directory, null resets to the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory != null ? workingDirectory : Paths.get(".");
+            return this;
+        }
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The size in characters of the read buffer. */
+    private final int bufferSize;
+
+    /** The charset of the output. */
+    private final Charset charset;
+
+    /** Whether the instance is closed. */
+    private volatile boolean closed;
+
+    /** The command line. */
+    private final CommandLine commandLine;
+
+    /** The environment, null to inherit the environment of the current process. */
+    private final Map<String, String> environment;
+
+    /** The pump of the standard error. */
+    private Thread errorPump;
+
+    /** The stream receiving the standard error, null to discard it. */
+    private final OutputStream errorStream;
+
+    /** The exit value once the output ended and the process exited. */
+    private Integer exitValue;
+
+    /** The exit values meaning success, null to accept any. */
+    private final int[] exitValues;
+
+    /** The launcher starting the process. */
+    private final CommandLauncher launcher;
+
+    /** The line returned by the next call to next(), null if not read yet. */
+    private String nextLine;
+
+    /** The process, null until started. */
+    private volatile Process process;
+
+    /** The reader of the standard output. */
+    private BufferedReader reader;
+
+    /** The thread factory pumping the standard error. */
+    private final ThreadFactory threadFactory;
+
+    /** The working directory. */
+    private final Path workingDirectory;
+
+    private OutputLines(final Builder builder) {
+        this.bufferSize = builder.bufferSize;
+        this.charset = builder.charset;
+        this.commandLine = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.environment = builder.environment;
+        this.errorStream = builder.errorStream;
+        this.exitValues = builder.exitValues;
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.threadFactory = builder.threadFactory;
+        this.workingDirectory = builder.workingDirectory;
+    }
+
+    /**
+     * Destroys the process if it is still running and releases its streams. Lines not read yet are lost.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Process current = process;
+        if (current != null) {
+            current.destroy();
+            try {
+                reader.close();
+            } catch (final IOException e) {
+                // the process is destroyed anyway
+            }
+        }
+    }
+
+    /**
+     * Waits for the process once its output ended, and checks its exit value.
+     */
+    private void finish() throws IOException {
+        final int value;
+        try {
+            value = process.waitFor();
+            errorPump.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + commandLine + " to exit");
+        } finally {
+            reader.close();
+        }
+        exitValue = value;
+        if (isFailure(value)) {
+            throw new ExecuteException("Process exited with an error: " + value, value);
+        }
+    }
+
+    /**
+     * Gets the exit value of the process once its output has been read to the end.
+     *
+     * @return The exit value.
+     * @throws IllegalStateException if the output has not been read to the end.
+     */
+    public synchronized int getExitValue() {
+        if (exitValue == null) {
+            throw new IllegalStateException("The output of " + commandLine + " has not been read to the end");
+        }
+        return exitValue;
+    }
+
+    /**
+     * Tests whether the process printed another line, starting the process on the first call and waiting for the line if needed.
+     *
+     * @return {@code true} if another line is available, {@code false} if the output ended and the exit value is a success.
+     * @throws UncheckedIOException if the process could not be started, its output could not be read, its exit value is a failure, or the instance is
+     *                              closed.
+     */
+    @Override
+    public synchronized boolean hasNext() {
+        if (nextLine != null) {
+            return true;
+        }
+        if (exitValue != null) {
+            return false;
+        }
+        try {
+            if (closed) {
+                throw new IOException("Output lines of " + commandLine + " closed");
+            }
+            if (process == null) {
+                start();
+            }
+            nextLine = reader.readLine();
+            if (nextLine == null) {
+                finish();
+                return false;
+            }
+            return true;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isFailure(final int value) {
+        if (exitValues == null) {
+            return false;
+        }
+        if (exitValues.length == 0) {
+            return launcher.isFailure(value);
+        }
+        for (final int success : exitValues) {
+            if (success == value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the next line printed by the process, without its line terminator.
+     *
+     * @return The next line.
+     * @throws NoSuchElementException if the output ended.
+     * @throws UncheckedIOException   as {@link #hasNext()}.
+     */
+    @Override
+    public synchronized String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String line = nextLine;
+        nextLine = null;
+        return line;
+    }
+
+    private void start() throws IOException {
+        final Process started = launcher.exec(commandLine, environment, workingDirectory);
+        started.getOutputStream().close();
+        reader = new BufferedReader(new InputStreamReader(started.getInputStream(), charset), bufferSize);
+        final OutputStream target = errorStream != null ? errorStream : new OutputStream() {
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                // discard
+            }
+
+            @Override
+            public void write(final int b) {
+                // discard
+            }
+        };
+        errorPump = ThreadUtil.newThread(threadFactory, new StreamPumper(started.getErrorStream(), target), "CommonsExecOutputLines-", true);
+        errorPump.start();
+        process = started;
+        if (closed) {
+            close();
+        }
+    }
+
+    /**
+     * Gets a sequential stream of the lines printed by the process, closing this instance when closed. Reading the stream to the end checks the exit value.
+     *
+     * @return A stream of the lines.
+     */
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+}
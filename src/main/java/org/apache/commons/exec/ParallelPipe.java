@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Splits a large input into chunks of whole records and pipes each chunk through its own process of a command, running several processes at the same
+ * time, like GNU parallel with {@code --pipe}. For example:
+ *
+ * <pre>
+ * ParallelPipe pipe = ParallelPipe.builder().setCommandLine(new CommandLine("gzip")).setChunker(ParallelPipe.Chunker.lines(1 &lt;&lt; 20)).get();
+ * try (OutputStream out = Files.newOutputStream(Paths.get("access.log.gz"))) {
+ *     pipe.execute(Paths.get("access.log"), out);
+ * }
+ * </pre>
+ * <p>
+ * The calling thread reads the input one chunk at a time, only when a process may be started and, with ordered merging, fewer outputs are waiting for an
+ * earlier chunk than the maximum parallelism, so that the memory used is bounded by a few chunks per process whatever the size of the input. Each
+ * process is run by a {@link DefaultExecutor} with a {@link PumpStreamHandler} feeding the chunk to its standard input and collecting its standard
+ * output. The outputs are handed to a {@link Merger} on the calling thread, in the order of the chunks or, for throughput, as soon as they are complete.
+ * </p>
+ * <p>
+ * The first failing process destroys the running processes and its failure is thrown to the caller.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ParallelPipe {
+
+    /**
+     * Builds ParallelPipe instances.
+     */
+    public static final class Builder implements Supplier<ParallelPipe> {
+
+        /** Splits the input. */
+        private Chunker chunker = Chunker.lines(DEFAULT_CHUNK_SIZE);
+
+        /** The command run for each chunk. */
+        private CommandLine commandLine;
+
+        /** The environment of the processes, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** Receives the standard error of the processes. */
+        private OutputStream errorStream = System.err;
+
+        /** The maximum number of processes running at the same time. */
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /** Whether the outputs are merged in the order of the chunks. */
+        private boolean ordered = true;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each process. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /** The working directory of the processes, null for the current directory. */
+        private Path workingDirectory;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ParallelPipe.
+         *
+         * @return A new configured ParallelPipe.
+         * @throws NullPointerException if the command line is not set.
+         */
+        @Override
+        public ParallelPipe get() {
+            return new ParallelPipe(this);
+        }
+
+        /**
+         * Sets how the input is split into chunks.
+         *
+         * @param chunker The chunker, null resets to lines in chunks of at least 1 MiB.
+         * @return {@code this} instance.
+         */
+        public Builder setChunker(final Chunker chunker) {
+            this.chunker = chunker != null ? chunker : Chunker.lines(DEFAULT_CHUNK_SIZE);
+            return this;
+        }
+
+        /**
+         * Sets the command run for each chunk.
+         *
+         * @param commandLine The command reading a chunk from its standard input.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the processes.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard error of all processes.
+         *
+         * @param errorStream The error stream, null resets to {@code System.err}.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorStream(final OutputStream errorStream) {
+            this.errorStream = errorStream != null ? errorStream : System.err;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of processes running at the same time.
+         *
+         * @param maxParallelism The maximum number of processes, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxParallelism(final int maxParallelism) {
+            this.maxParallelism = maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets whether the outputs are merged in the order of the chunks.
+         *
+         * @param ordered {@code true} (the default) to merge the outputs in the order of the chunks, {@code false} to merge them as soon as they are
+         *                complete.
+         * @return {@code this} instance.
+         */
+        public Builder setOrdered(final boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the timeout of each process.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the processes.
+         *
+         * @param workingDirectory The working directory, null for the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory;
+            return this;
+        }
+    }
+
+    /**
+     * Splits an input into chunks of whole records.
+     */
+    @FunctionalInterface
+    public interface Chunker {
+
+        /**
+         * Creates a chunker splitting after a delimiter, such as a record separator. A chunk holds the records up to the first delimiter ending at or after
+         * the target size, the last chunk the rest of the input.
+         *
+         * @param delimiter  The delimiter ending a record, part of the record.
+         * @param targetSize The minimum size of a chunk in bytes, except for the last one.
+         * @return A new chunker.
+         * @throws IllegalArgumentException if the delimiter is empty or the target size is less than 1.
+         */
+        static Chunker delimited(final byte[] delimiter, final int targetSize) {
+            if (delimiter.length == 0) {
+                throw new IllegalArgumentException("Empty delimiter");
+            }
+            if (targetSize < 1) {
+                throw new IllegalArgumentException("Target size must be positive: " + targetSize);
+            }
+            final int length = delimiter.length;
+            final LiteralAutomaton automaton = new LiteralAutomaton(new byte[][] { delimiter });
+            return input -> {
+                final byte[] buffer = new byte[targetSize];
+                int size = 0;
+                int n;
+                while (size < targetSize && (n = input.read(buffer, size, targetSize - size)) != -1) {
+                    size += n;
+                }
+                if (size == 0) {
+                    return null;
+                }
+                if (size < targetSize) {
+                    return Arrays.copyOf(buffer, size);
+                }
+                // a delimiter ending at or after the target size may have started in the tail of the buffer
+                int state = 0;
+                for (int i = Math.max(0, size - length); i < size; i++) {
+                    state = automaton.next(state, buffer[i]);
+                }
+                final ByteArrayOutputStream chunk = new ByteArrayOutputStream(targetSize + 128);
+                chunk.write(buffer, 0, size);
+                int b;
+                while (state < length && (b = input.read()) != -1) {
+                    chunk.write(b);
+                    state = automaton.next(state, (byte) b);
+                }
+                return chunk.toByteArray();
+            };
+        }
+
+        /**
+         * Creates a chunker splitting after line feeds.
+         *
+         * @param targetSize The minimum size of a chunk in bytes, except for the last one.
+         * @return A new chunker.
+         * @throws IllegalArgumentException if the target size is less than 1.
+         */
+        static Chunker lines(final int targetSize) {
+            return delimited(new byte[] { '\n' }, targetSize);
+        }
+
+        /**
+         * Reads the next chunk.
+         *
+         * @param input The buffered input.
+         * @return The next chunk, or null at the end of the input.
+         * @throws IOException if the input could not be read.
+         */
+        byte[] next(InputStream input) throws IOException;
+    }
+
+    /**
+     * Receives the outputs of the processes, on the thread executing the pipe.
+     */
+    @FunctionalInterface
+    public interface Merger {
+
+        /**
+         * Creates a merger writing the outputs to a stream.
+         *
+         * @param outputStream The stream, not closed by the merger.
+         * @return A new merger.
+         */
+        static Merger toOutputStream(final OutputStream outputStream) {
+            Objects.requireNonNull(outputStream, "outputStream");
+            return (index, output) -> outputStream.write(output);
+        }
+
+        /**
+         * Receives the standard output of the process of a chunk.
+         *
+         * @param index  The position of the chunk in the input, starting at 0.
+         * @param output The standard output of the process.
+         * @throws IOException if the output could not be merged; the pipe fails.
+         */
+        void accept(long index, byte[] output) throws IOException;
+    }
+
+    /** The default minimum chunk size. */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Splits the input. */
+    private final Chunker chunker;
+
+    /** The command run for each chunk. */
+    private final CommandLine commandLine;
+
+    /** The environment of the processes. */
+    private final Map<String, String> environment;
+
+    /** Receives the standard error of the processes. */
+    private final OutputStream errorStream;
+
+    /** The maximum number of processes running at the same time. */
+    private final int maxParallelism;
+
+    /** Whether the outputs are merged in the order of the chunks. */
+    private final boolean ordered;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each process. */
+    private final Duration timeout;
+
+    /** The working directory of the processes. */
+    private final Path workingDirectory;
+
+    private ParallelPipe(final Builder builder) {
+        this.chunker = builder.chunker;
+        this.commandLine = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.environment = builder.environment;
+        this.errorStream = builder.errorStream;
+        this.maxParallelism = builder.maxParallelism;
+        this.ordered = builder.ordered;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+        this.workingDirectory = builder.workingDirectory;
+    }
+
+    /**
+     * Pipes a stream through the processes, merging their outputs with a merger.
+     *
+     * @param input  The input, not closed.
+     * @param merger Receives the outputs on the calling thread.
+     * @return The number of chunks.
+     * @throws ExecuteException       if a process failed.
+     * @throws InterruptedIOException if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException            if the input could not be read, a process could not be started or the merger failed.
+     */
+    public long execute(final InputStream input, final Merger merger) throws IOException {
+        Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(merger, "merger");
+        final InputStream bufferedInput = new BufferedInputStream(input);
+        final ExecutorService pool = new ThreadPoolExecutor(maxParallelism, maxParallelism, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> ThreadUtil.newThread(threadFactory, r, "CommonsExecParallelPipe-", true));
+        final CompletionService<Map.Entry<Long, byte[]>> completionService = new ExecutorCompletionService<>(pool);
+        final Map<Long, ExecuteWatchdog> watchdogs = new ConcurrentHashMap<>();
+        // outputs completed ahead of an earlier chunk when merging in order
+        final TreeMap<Long, byte[]> pending = new TreeMap<>();
+        long submitted = 0;
+        long nextToMerge = 0;
+        int running = 0;
+        boolean endOfInput = false;
+        try {
+            while (true) {
+                while (!endOfInput && running < maxParallelism && pending.size() < maxParallelism) {
+                    final byte[] chunk = chunker.next(bufferedInput);
+                    if (chunk == null) {
+                        endOfInput = true;
+                        break;
+                    }
+                    final long index = submitted++;
+                    completionService.submit(() -> new SimpleImmutableEntry<>(index, execute(index, chunk, watchdogs)));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                final Map.Entry<Long, byte[]> result = completionService.take().get();
+                running--;
+                if (!ordered) {
+                    merger.accept(result.getKey(), result.getValue());
+                    continue;
+                }
+                pending.put(result.getKey(), result.getValue());
+                while (!pending.isEmpty() && pending.firstKey() == nextToMerge) {
+                    merger.accept(nextToMerge, pending.pollFirstEntry().getValue());
+                    nextToMerge++;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipe to complete");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // a failure leaves processes running
+            watchdogs.values().forEach(ExecuteWatchdog::destroyProcess);
+            pool.shutdown();
+        }
+        return submitted;
+    }
+
+    /**
+     * Pipes a stream through the processes, writing their outputs to a stream.
+     *
+     * @param input  The input, not closed.
+     * @param output Receives the outputs, not closed.
+     * @return The number of chunks.
+     * @throws ExecuteException       if a process failed.
+     * @throws InterruptedIOException if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException            if the input could not be read, the output could not be written or a process could not be started.
+     */
+    public long execute(final InputStream input, final OutputStream output) throws IOException {
+        return execute(input, Merger.toOutputStream(output));
+    }
+
+    /**
+     * Pipes a file through the processes, writing their outputs to a stream.
+     *
+     * @param input  The input file.
+     * @param output Receives the outputs, not closed.
+     * @return The number of chunks.
+     * @throws ExecuteException       if a process failed.
+     * @throws InterruptedIOException if the current thread was interrupted; the running processes are destroyed.
+     * @throws IOException            if the input could not be read, the output could not be written or a process could not be started.
+     */
+    public long execute(final Path input, final OutputStream output) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(input)) {
+            return execute(inputStream, output);
+        }
+    }
+
+    /**
+     * Runs the command for one chunk.
+     *
+     * @param index     The position of the chunk.
+     * @param chunk     The chunk.
+     * @param watchdogs The watchdogs of the running processes.
+     * @return The standard output of the process.
+     * @throws IOException if the process failed.
+     */
+    private byte[] execute(final long index, final byte[] chunk, final Map<Long, ExecuteWatchdog> watchdogs) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final DefaultExecutor executor = DefaultExecutor.builder().setThreadFactory(threadFactory).setWorkingDirectory(workingDirectory).get();
+        executor.setStreamHandler(new PumpStreamHandler(output, errorStream, new ByteArrayInputStream(chunk)));
+        try {
+            BatchExecutor.execute(executor, commandLine, environment, index, watchdogs, threadFactory, timeout);
+        } catch (final ExecuteException e) {
+            throw new ExecuteException("Command " + commandLine + " failed on chunk " + index, e.getExitValue(), e);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.exec.util.ProcessUtils;
+
+/**
+ * Samples the CPU time and resident set size of a process tree from the Linux {@code /proc} file system.
+ * <p>
+ * All sampling tasks share a single daemon thread so that thousands of processes can be supervised without a thread per process.
+ * </p>
+ */
+final class ProcessResourceSampler {
+
+    /**
+     * The CPU time and resident set size of a process tree.
+     */
+    static final class Usage {
+
+        /** The CPU time in milliseconds, including reaped children. */
+        private final long cpuTimeMillis;
+
+        /** The resident set size in bytes. */
+        private final long residentSetSize;
+
+        Usage(final long cpuTimeMillis, final long residentSetSize) {
+            this.cpuTimeMillis = cpuTimeMillis;
+            this.residentSetSize = residentSetSize;
+        }
+
+        long getCpuTimeMillis() {
+            return cpuTimeMillis;
+        }
+
+        long getResidentSetSize() {
+            return residentSetSize;
+        }
+    }
+
+    /**
+     * Holds the kernel's USER_HZ, the unit of the CPU times in {@code /proc/<pid>/stat}, read on first use.
+     */
+    private static final class ClockTicks {
+
+        /** The number of clock ticks per second. */
+        private static final long PER_SECOND = readClockTicksPerSecond();
+    }
+
+    /** The root of the proc file system. */
+    private static final Path PROC = Paths.get("/proc");
+
+    /** The kernel's USER_HZ if it cannot be read, the value on all mainstream Linux platforms. */
+    static final long DEFAULT_CLOCK_TICKS_PER_SECOND = 100;
+
+    /** The maximum time to wait for {@code getconf}. */
+    private static final long GETCONF_TIMEOUT_SECONDS = 5;
+
+    /** The index of the utime field in {@code /proc/<pid>/stat} counting from the state field after the command name. */
+    private static final int UTIME_INDEX = 11;
+
+    /** The resident set size line prefix in {@code /proc/<pid>/status}. */
+    private static final String VM_RSS = "VmRSS:";
+
+    /** The shared sampler thread, created on first use. */
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * Lists the living descendants of a process, each process before its children.
+     *
+     * @param pid The process ID.
+     * @return The process IDs of the descendants, empty if there are none or they cannot be determined.
+     */
+    static List<Long> descendants(final long pid) {
+        final List<Long> descendants = new ArrayList<>();
+        descendants(PROC.resolve(Long.toString(pid)), descendants);
+        return descendants;
+    }
+
+    private static void descendants(final Path proc, final List<Long> descendants) {
+        for (final String child : children(proc)) {
+            descendants.add(Long.valueOf(child));
+            descendants(PROC.resolve(child), descendants);
+        }
+    }
+
+    /**
+     * Lists the children of a process from the children files of its threads.
+     *
+     * @param proc The {@code /proc/<pid>} directory.
+     * @return The process IDs of the children.
+     */
+    private static List<String> children(final Path proc) {
+        final List<String> result = new ArrayList<>();
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(proc.resolve("task"))) {
+            for (final Path task : tasks) {
+                final String children;
+                try {
+                    children = read(task.resolve("children")).trim();
+                } catch (final IOException e) {
+                    // the thread terminated or the kernel does not provide the children file
+                    continue;
+                }
+                if (!children.isEmpty()) {
+                    for (final String child : children.split(" ")) {
+                        result.add(child);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            // the process terminated
+        }
+        return result;
+    }
+
+    /**
+     * Gets the native process ID of a process.
+     *
+     * @param process The process.
+     * @return The process ID or -1 if it cannot be determined.
+     */
+    static long getPid(final Process process) {
+        try {
+            return ProcessUtils.getPid(process);
+        } catch (final UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends SIGKILL to processes, ignoring those that have terminated.
+     *
+     * @param pids The process IDs.
+     */
+    static void kill(final List<Long> pids) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        final List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-KILL");
+        pids.forEach(pid -> command.add(pid.toString()));
+        try {
+            // kill reports the processes that have terminated meanwhile, which are of no interest
+            final Process kill = new ProcessBuilder(command).redirectErrorStream(true).start();
+            kill.getOutputStream().close();
+            try (InputStream in = kill.getInputStream()) {
+                final byte[] buffer = new byte[256];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+            }
+            kill.waitFor();
+        } catch (final IOException e) {
+            // without kill the descendants cannot be reached, the root is destroyed regardless
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tests whether the {@code /proc} file system is available.
+     *
+     * @return whether the {@code /proc} file system is available.
+     */
+    static boolean isSupported() {
+        return Files.isDirectory(PROC.resolve("self"));
+    }
+
+    /**
+     * Parses the user and system CPU time of a process and its reaped children from the content of {@code /proc/<pid>/stat}.
+     *
+     * @param stat The content of {@code /proc/<pid>/stat}.
+     * @return The CPU time in clock ticks.
+     */
+    static long parseCpuTicks(final String stat) {
+        // the command name is in parentheses and may itself contain spaces and parentheses
+        final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        long ticks = 0;
+        // utime, stime, cutime, cstime
+        for (int i = UTIME_INDEX; i < UTIME_INDEX + 4; i++) {
+            ticks += Long.parseLong(fields[i]);
+        }
+        return ticks;
+    }
+
+    /**
+     * Parses the resident set size from the content of {@code /proc/<pid>/status}.
+     *
+     * @param status The content of {@code /proc/<pid>/status}.
+     * @return The resident set size in bytes, 0 if not available, for example for a zombie process.
+     */
+    static long parseResidentSetSize(final String status) {
+        final int start = status.indexOf(VM_RSS);
+        if (start < 0) {
+            return 0;
+        }
+        int end = status.indexOf('\n', start);
+        if (end < 0) {
+            end = status.length();
+        }
+        // "VmRSS:     1234 kB"
+        final String value = status.substring(start + VM_RSS.length(), end).trim();
+        final int space = value.indexOf(' ');
+        return Long.parseLong(space < 0 ? value : value.substring(0, space)) * 1024;
+    }
+
+    /**
+     * Reads the kernel's USER_HZ with {@code getconf CLK_TCK}.
+     *
+     * @return The number of clock ticks per second, {@link #DEFAULT_CLOCK_TICKS_PER_SECOND} if it cannot be read.
+     */
+    static long readClockTicksPerSecond() {
+        try {
+            final Process process = new ProcessBuilder("getconf", "CLK_TCK").start();
+            process.getOutputStream().close();
+            process.getErrorStream().close();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                final byte[] buffer = new byte[64];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+            }
+            if (!process.waitFor(GETCONF_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                return DEFAULT_CLOCK_TICKS_PER_SECOND;
+            }
+            final long ticks = Long.parseLong(output.toString(StandardCharsets.US_ASCII.name()).trim());
+            return ticks > 0 ? ticks : DEFAULT_CLOCK_TICKS_PER_SECOND;
+        } catch (final IOException | RuntimeException e) {
+            // no getconf or unexpected output
+            return DEFAULT_CLOCK_TICKS_PER_SECOND;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DEFAULT_CLOCK_TICKS_PER_SECOND;
+        }
+    }
+
+    private static String read(final Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Samples a process and all its living descendants.
+     *
+     * @param pid The process ID of the root process.
+     * @return The usage of the process tree.
+     * @throws IOException if the root process cannot be sampled, for example because it has terminated.
+     */
+    static Usage sample(final long pid) throws IOException {
+        final long[] totals = new long[2];
+        sample(PROC.resolve(Long.toString(pid)), totals, true);
+        return new Usage(totals[0] * 1000 / ClockTicks.PER_SECOND, totals[1]);
+    }
+
+    private static void sample(final Path proc, final long[] totals, final boolean root) throws IOException {
+        try {
+            totals[0] += parseCpuTicks(read(proc.resolve("stat")));
+            totals[1] += parseResidentSetSize(read(proc.resolve("status")));
+        } catch (final IOException | RuntimeException e) {
+            if (root) {
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            // a descendant terminated while we were looking at it
+            return;
+        }
+        for (final String child : children(proc)) {
+            sample(PROC.resolve(child), totals, false);
+        }
+    }
+
+    /**
+     * Schedules a sampling task on the shared sampler thread.
+     *
+     * @param task     The task.
+     * @param interval The sampling interval.
+     * @return The future to cancel the task.
+     */
+    static synchronized ScheduledFuture<?> schedule(final Runnable task, final Duration interval) {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1,
+                    r -> ThreadUtil.newThread(Executors.defaultThreadFactory(), r, "CommonsExecResourceSampler-", true));
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        final long intervalMillis = Math.max(1, interval.toMillis());
+        return scheduler.scheduleWithFixedDelay(task, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private ProcessResourceSampler() {
+        // empty
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Pumps the streams of a process like {@link PumpStreamHandler} and completes a future as soon as the process reports that it is ready, typically a server
+ * started with a {@link DaemonExecutor}. For example:
+ *
+ * <pre>
+ * ExecuteWatchdog watchdog = ExecuteWatchdog.builder().get();
+ * ReadinessStreamHandler handler = ReadinessStreamHandler.builder().setLiteral("Started server").setTimeout(Duration.ofSeconds(30)).setWatchdog(watchdog)
+ *         .get();
+ * Executor executor = DaemonExecutor.builder().setExecuteStreamHandler(handler).get();
+ * executor.setWatchdog(watchdog);
+ * executor.execute(commandLine, new DefaultExecuteResultHandler());
+ * handler.getReady().get();
+ * </pre>
+ * <p>
+ * The output and error streams are scanned as they are pumped, without buffering the output: a literal is matched byte by byte across reads, a regular
+ * expression is matched against each line. The future completes with the matched text, or fails if the watched streams end first, which is when the process
+ * exits, or if the timeout elapses first, in which case the process is destroyed through the watchdog, if set.
+ * </p>
+ * <p>
+ * A handler watches a single execution.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ReadinessStreamHandler extends PumpStreamHandler {
+
+    /**
+     * Builds ReadinessStreamHandler instances.
+     */
+    public static final class Builder implements Supplier<ReadinessStreamHandler> {
+
+        /** The charset of the output. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** Receives the standard error of the process. */
+        private OutputStream errorStream = System.err;
+
+        /** The standard input of the process. */
+        private InputStream inputStream;
+
+        /** The literal to look for. */
+        private String literal;
+
+        /** The maximum length of a line matched against the pattern. */
+        private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+
+        /** Receives the standard output of the process. */
+        private OutputStream outputStream = System.out;
+
+        /** The pattern to look for. */
+        private Pattern pattern;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** The time to wait for readiness. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /** Destroys the process on timeout. */
+        private ExecuteWatchdog watchdog;
+
+        /** Whether the standard error is watched. */
+        private boolean watchError = true;
+
+        /** Whether the standard output is watched. */
+        private boolean watchOutput = true;
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ReadinessStreamHandler.
+         *
+         * @return A new configured ReadinessStreamHandler.
+         * @throws IllegalStateException if neither a literal nor a pattern is set, or no stream is watched.
+         */
+        @Override
+        public ReadinessStreamHandler get() {
+            return new ReadinessStreamHandler(this);
+        }
+
+        /**
+         * Sets the charset used to encode the literal and decode the lines matched against the pattern.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard error of the process.
+         *
+         * @param errorStream The error stream, null discards the standard error.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorStream(final OutputStream errorStream) {
+            this.errorStream = errorStream;
+            return this;
+        }
+
+        /**
+         * Sets the standard input of the process.
+         *
+         * @param inputStream The input stream, null for none.
+         * @return {@code this} instance.
+         */
+        public Builder setInputStream(final InputStream inputStream) {
+            this.inputStream = inputStream;
+            return this;
+        }
+
+        /**
+         * Sets the literal text signaling readiness, which may span reads and lines.
+         *
+         * @param literal The literal, replacing the pattern.
+         * @return {@code this} instance.
+         */
+        public Builder setLiteral(final String literal) {
+            this.literal = literal;
+            this.pattern = null;
+            return this;
+        }
+
+        /**
+         * Sets the maximum length of a line matched against the pattern; only the end of longer lines is matched.
+         *
+         * @param maxLineLength The maximum length in bytes, less than 1 resets to 8192.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxLineLength(final int maxLineLength) {
+            this.maxLineLength = maxLineLength > 0 ? maxLineLength : DEFAULT_MAX_LINE_LENGTH;
+            return this;
+        }
+
+        /**
+         * Sets the stream receiving the standard output of the process.
+         *
+         * @param outputStream The output stream, null discards the standard output.
+         * @return {@code this} instance.
+         */
+        public Builder setOutputStream(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        /**
+         * Sets the regular expression signaling readiness, found in a line as by {@link java.util.regex.Matcher#find()}. A line is matched once it is
+         * complete, so that a pattern like {@code "port (\\d+)"} sees the whole port number.
+         *
+         * @param pattern The pattern, replacing the literal.
+         * @return {@code this} instance.
+         */
+        public Builder setPattern(final Pattern pattern) {
+            this.pattern = pattern;
+            this.literal = null;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory of the timeout thread.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the time to wait for readiness once the streams are started.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the watchdog of the executor running the process, used to destroy the process if it is not ready in time.
+         *
+         * @param watchdog The watchdog, null to leave the process running on timeout.
+         * @return {@code this} instance.
+         */
+        public Builder setWatchdog(final ExecuteWatchdog watchdog) {
+            this.watchdog = watchdog;
+            return this;
+        }
+
+        /**
+         * Sets whether the standard error is watched.
+         *
+         * @param watchError {@code true} (the default) to watch the standard error.
+         * @return {@code this} instance.
+         */
+        public Builder setWatchError(final boolean watchError) {
+            this.watchError = watchError;
+            return this;
+        }
+
+        /**
+         * Sets whether the standard output is watched.
+         *
+         * @param watchOutput {@code true} (the default) to watch the standard output.
+         * @return {@code this} instance.
+         */
+        public Builder setWatchOutput(final boolean watchOutput) {
+            this.watchOutput = watchOutput;
+            return this;
+        }
+    }
+
+    /**
+     * Matches a literal with a {@link LiteralAutomaton}, one byte at a time.
+     */
+    private static final class LiteralMatcher implements Matcher {
+
+        /** The literal. */
+        private final String literal;
+
+        /** Matches the encoded literal. */
+        private final LiteralAutomaton automaton;
+
+        /** The state of the automaton. */
+        private int state;
+
+        LiteralMatcher(final String literal, final Charset charset) {
+            this.literal = literal;
+            this.automaton = new LiteralAutomaton(new byte[][] { literal.getBytes(charset) });
+        }
+
+        @Override
+        public String end() {
+            return null;
+        }
+
+        @Override
+        public String feed(final byte[] b, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                state = automaton.next(state, b[i]);
+                if (automaton.output(state) >= 0) {
+                    return literal;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Scans output for readiness.
+     */
+    private interface Matcher {
+
+        /**
+         * Scans the end of the output.
+         *
+         * @return The matched text, null if none.
+         */
+        String end();
+
+        /**
+         * Scans output.
+         *
+         * @return The matched text, null if none.
+         */
+        String feed(byte[] b, int off, int len);
+    }
+
+    /**
+     * Matches a pattern against each line, keeping only the current line.
+     */
+    private static final class PatternMatcher implements Matcher {
+
+        /** The charset of the output. */
+        private final Charset charset;
+
+        /** The current line. */
+        private byte[] line = new byte[128];
+
+        /** The length of the current line. */
+        private int length;
+
+        /** The maximum length of a line. */
+        private final int maxLineLength;
+
+        /** The pattern. */
+        private final Pattern pattern;
+
+        PatternMatcher(final Pattern pattern, final Charset charset, final int maxLineLength) {
+            this.pattern = pattern;
+            this.charset = charset;
+            this.maxLineLength = maxLineLength;
+        }
+
+        private void append(final byte[] b, final int off, final int len) {
+            if (len >= maxLineLength) {
+                line = Arrays.copyOf(line, maxLineLength);
+                System.arraycopy(b, off + len - maxLineLength, line, 0, maxLineLength);
+                length = maxLineLength;
+                return;
+            }
+            final int keep = Math.min(length, maxLineLength - len);
+            if (keep < length) {
+                System.arraycopy(line, length - keep, line, 0, keep);
+            }
+            if (keep + len > line.length) {
+                line = Arrays.copyOf(line, Math.min(maxLineLength, Math.max(line.length * 2, keep + len)));
+            }
+            System.arraycopy(b, off, line, keep, len);
+            length = keep + len;
+        }
+
+        @Override
+        public String end() {
+            return length > 0 ? matchLine() : null;
+        }
+
+        @Override
+        public String feed(final byte[] b, final int off, final int len) {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    append(b, start, i - start);
+                    start = i + 1;
+                    final String match = matchLine();
+                    if (match != null) {
+                        return match;
+                    }
+                }
+            }
+            append(b, start, off + len - start);
+            return null;
+        }
+
+        private String matchLine() {
+            final int end = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+            length = 0;
+            final java.util.regex.Matcher matcher = pattern.matcher(new String(line, 0, end, charset));
+            return matcher.find() ? matcher.group() : null;
+        }
+    }
+
+    /**
+     * Scans the output of a stream on its way to the target stream.
+     */
+    private final class WatchingOutputStream extends OutputStream {
+
+        /** Scans the output. */
+        private final Matcher matcher;
+
+        /** The target stream, may be null. */
+        private final OutputStream target;
+
+        WatchingOutputStream(final OutputStream target) {
+            this.target = target;
+            this.matcher = literal != null ? new LiteralMatcher(literal, charset) : new PatternMatcher(pattern, charset, maxLineLength);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!ready.isDone()) {
+                complete(matcher.end());
+            }
+            if (watching.decrementAndGet() == 0) {
+                ready.completeExceptionally(new ExecuteException("The process output ended before it was ready", Executor.INVALID_EXITVALUE));
+            }
+            if (target instanceof PipedOutputStream) {
+                target.close();
+            } else if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (!ready.isDone()) {
+                complete(matcher.feed(b, off, len));
+            }
+            if (target != null) {
+                target.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+    }
+
+    /** The default maximum length of a line matched against the pattern. */
+    private static final int DEFAULT_MAX_LINE_LENGTH = 8192;
+
+    /** Stands for a discarded stream that is watched. */
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(final int b) {
+            // discard
+        }
+    };
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The charset of the output. */
+    private final Charset charset;
+
+    /** The literal to look for, null if matching a pattern. */
+    private final String literal;
+
+    /** The maximum length of a line matched against the pattern. */
+    private final int maxLineLength;
+
+    /** The pattern to look for, null if matching a literal. */
+    private final Pattern pattern;
+
+    /** Completed when the process is ready. */
+    private final CompletableFuture<String> ready = new CompletableFuture<>();
+
+    /** Thread factory of the timeout thread. */
+    private final ThreadFactory threadFactory;
+
+    /** The time to wait for readiness. */
+    private final Duration timeout;
+
+    /** Destroys the process on timeout, may be null. */
+    private final ExecuteWatchdog watchdog;
+
+    /** Whether the standard error is watched. */
+    private final boolean watchError;
+
+    /** The number of watched streams that did not end yet. */
+    private final AtomicInteger watching = new AtomicInteger();
+
+    /** Whether the standard output is watched. */
+    private final boolean watchOutput;
+
+    private ReadinessStreamHandler(final Builder builder) {
+        // always pump the watched streams, even if their output is discarded
+        super(builder.outputStream == null && builder.watchOutput ? DISCARD : builder.outputStream,
+                builder.errorStream == null && builder.watchError ? DISCARD : builder.errorStream, builder.inputStream);
+        if (builder.literal == null && builder.pattern == null) {
+            throw new IllegalStateException("Neither a literal nor a pattern is set");
+        }
+        if (builder.literal != null && builder.literal.isEmpty()) {
+            throw new IllegalStateException("The literal is empty");
+        }
+        if (!builder.watchOutput && !builder.watchError) {
+            throw new IllegalStateException("No stream is watched");
+        }
+        this.charset = builder.charset;
+        this.literal = builder.literal;
+        this.maxLineLength = builder.maxLineLength;
+        this.pattern = builder.pattern;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+        this.watchdog = builder.watchdog;
+        this.watchError = builder.watchError;
+        this.watchOutput = builder.watchOutput;
+    }
+
+    private void complete(final String match) {
+        if (match != null) {
+            ready.complete(match);
+        }
+    }
+
+    @Override
+    protected void createProcessErrorPump(final InputStream is, final OutputStream os) {
+        super.createProcessErrorPump(is, watchError ? watch(os) : os);
+    }
+
+    @Override
+    protected void createProcessOutputPump(final InputStream is, final OutputStream os) {
+        super.createProcessOutputPump(is, watchOutput ? watch(os) : os);
+    }
+
+    /**
+     * Creates the pump of a watched stream so that it closes the watching stream, signaling the end of the output.
+     */
+    @Override
+    protected Thread createPump(final InputStream is, final OutputStream os) {
+        return os instanceof WatchingOutputStream ? createPump(is, os, true) : super.createPump(is, os);
+    }
+
+    /**
+     * Gets the future completed with the matched text when the process is ready. It fails with an {@link ExecuteException} if the watched streams end
+     * before, or a {@link TimeoutException} if the timeout elapses before.
+     *
+     * @return The future, completed at most once.
+     */
+    public CompletableFuture<String> getReady() {
+        return ready;
+    }
+
+    /**
+     * Starts the pumps and the timeout.
+     */
+    @Override
+    public void start() {
+        super.start();
+        if (!ExecuteWatchdog.INFINITE_TIMEOUT_DURATION.equals(timeout) && !ready.isDone()) {
+            final Watchdog timer = Watchdog.builder().setTimeout(timeout).setThreadFactory(threadFactory).get();
+            timer.addTimeoutObserver(w -> {
+                if (ready.completeExceptionally(new TimeoutException("The process was not ready within " + timeout)) && watchdog != null) {
+                    watchdog.destroyProcess();
+                }
+            });
+            ready.whenComplete((match, e) -> timer.stop());
+            timer.start();
+        }
+    }
+
+    /**
+     * Stops pumping the streams, failing the future if the process was not ready.
+     */
+    @Override
+    public void stop() throws IOException {
+        try {
+            super.stop();
+        } finally {
+            ready.completeExceptionally(new ExecuteException("The process ended before it was ready", Executor.INVALID_EXITVALUE));
+        }
+    }
+
+    /**
+     * Wraps a watched stream.
+     */
+    private OutputStream watch(final OutputStream os) {
+        watching.incrementAndGet();
+        return new WatchingOutputStream(os != DISCARD ? os : null);
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.launcher.CommandLauncher;
+import org.apache.commons.exec.launcher.CommandLauncherFactory;
+import org.apache.commons.exec.util.DebugUtils;
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * Runs shell commands one after the other in a single long-running shell process, so that the cost of starting a shell is paid once and not for every
+ * command. For example:
+ *
+ * <pre>
+ * try (ShellSession session = ShellSession.builder().get()) {
+ *     ShellSession.Result result = session.execute("ls -l | wc -l");
+ *     int exitValue = result.getExitValue();
+ *     String output = new String(result.getOutput(), StandardCharsets.UTF_8);
+ * }
+ * </pre>
+ * <p>
+ * Each command runs in a subshell of the session with its standard input redirected from {@code /dev/null}, so that changes of variables or the working
+ * directory do not carry over to the next command and a syntax error only fails its own command. The standard output, standard error and exit status of
+ * each command are separated by markers containing a random token. A command running longer than its timeout is terminated together with its descendants,
+ * with KILL if they still run two seconds after TERM, while the session survives; on Linux the descendants are found in {@code /proc}, elsewhere only the
+ * subshell and its children are terminated.
+ * </p>
+ * <p>
+ * The shell is started by the first command. A session runs one command at a time; use a {@link ShellSessionPool} to run commands concurrently.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ShellSession implements AutoCloseable {
+
+    /**
+     * Builds ShellSession instances.
+     */
+    public static final class Builder implements Supplier<ShellSession> {
+
+        /** The launcher starting the shell. */
+        private CommandLauncher commandLauncher;
+
+        /** The environment of the shell, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** The command starting the shell. */
+        private CommandLine shell = DEFAULT_SHELL;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each command. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /** The working directory of the shell. */
+        private Path workingDirectory = Paths.get(".");
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ShellSession. The shell is started by the first command.
+         *
+         * @return A new configured ShellSession.
+         */
+        @Override
+        public ShellSession get() {
+            return new ShellSession(this);
+        }
+
+        /**
+         * Sets the launcher starting the shell.
+         *
+         * @param commandLauncher The command launcher, null resets to {@link CommandLauncherFactory#createVMLauncher()}.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the shell.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the command starting the shell, which must read commands from its standard input, for example {@code bash}.
+         *
+         * @param shell The shell, null resets to {@code /bin/sh}.
+         * @return {@code this} instance.
+         */
+        public Builder setShell(final CommandLine shell) {
+            this.shell = shell != null ? shell : DEFAULT_SHELL;
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the default timeout of each command.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the shell.
+         *
+         * @param workingDirectory The working directory, null resets to the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory != null ? workingDirectory : Paths.get(".");
+            return this;
+        }
+    }
+
+    /**
+     * The outcome of one command.
+     */
+    public static final class Result {
+
+        /** The standard error of the command. */
+        private final byte[] error;
+
+        /** The exit value of the command. */
+        private final int exitValue;
+
+        /** The standard output of the command. */
+        private final byte[] output;
+
+        /** Whether the command was terminated because it timed out. */
+        private final boolean timedOut;
+
+        Result(final int exitValue, final byte[] output, final byte[] error, final boolean timedOut) {
+            this.exitValue = exitValue;
+            this.output = output;
+            this.error = error;
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * Gets the standard error of the command.
+         *
+         * @return The standard error bytes.
+         */
+        public byte[] getError() {
+            return error.clone();
+        }
+
+        /**
+         * Gets the exit value of the command.
+         *
+         * @return The exit value.
+         */
+        public int getExitValue() {
+            return exitValue;
+        }
+
+        /**
+         * Gets the standard output of the command.
+         *
+         * @return The standard output bytes.
+         */
+        public byte[] getOutput() {
+            return output.clone();
+        }
+
+        /**
+         * Tests whether the command was terminated because it timed out.
+         *
+         * @return {@code true} if the command timed out.
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "Result [exitValue=" + exitValue + ", output=" + output.length + " bytes, error=" + error.length + " bytes, timedOut=" + timedOut + "]";
+        }
+    }
+
+    /** The default shell. */
+    private static final CommandLine DEFAULT_SHELL = new CommandLine("/bin/sh");
+
+    /** The time a timed out command has to exit after TERM before it is sent KILL. */
+    private static final Duration KILL_GRACE_PERIOD = Duration.ofSeconds(2);
+
+    /** The time between checks that a terminated command exited. */
+    private static final long KILL_POLL_MILLIS = 50;
+
+    /** Generates the marker tokens. */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Whether the session is closed. */
+    private volatile boolean closed;
+
+    /** The standard error of the commands, one element per command. */
+    private final BlockingQueue<Object> errors = new LinkedBlockingQueue<>();
+
+    /** The environment of the shell. */
+    private final Map<String, String> environment;
+
+    /** Guards {@link #runningCommandId} and signaling the running command. */
+    private final Object killLock = new Object();
+
+    /** The ID of the last command started. */
+    private long lastCommandId;
+
+    /** The launcher starting the shell. */
+    private final CommandLauncher launcher;
+
+    /** The marker separating the output of commands, preceded by a line feed. */
+    private final byte[] marker;
+
+    /** The shell process, null until the first command. */
+    private volatile Process process;
+
+    /** The ID of the running command, 0 if none. */
+    private long runningCommandId;
+
+    /** The process ID of the shell. */
+    private long shellPid;
+
+    /** The command starting the shell. */
+    private final CommandLine shell;
+
+    /** The standard input of the shell. */
+    private OutputStream stdin;
+
+    /** The standard output of the shell. */
+    private InputStream stdout;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each command. */
+    private final Duration timeout;
+
+    /** The working directory of the shell. */
+    private final Path workingDirectory;
+
+    private ShellSession(final Builder builder) {
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.environment = builder.environment;
+        this.shell = builder.shell;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+        this.workingDirectory = builder.workingDirectory;
+        final byte[] token = new byte[16];
+        RANDOM.nextBytes(token);
+        final StringBuilder marker = new StringBuilder("\n__commons_exec_");
+        for (final byte b : token) {
+            marker.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        this.marker = marker.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Stops the shell. A command in progress fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Process current = process;
+        if (current != null) {
+            try {
+                current.getOutputStream().close();
+            } catch (final IOException e) {
+                // the process is destroyed anyway
+            }
+            current.destroy();
+        }
+    }
+
+    /**
+     * Runs a command, using the timeout of the builder.
+     *
+     * @param command The shell command, for example {@code "ls -l | wc -l"}.
+     * @return The result of the command.
+     * @throws ExecuteException       if the shell exited.
+     * @throws InterruptedIOException if the current thread was interrupted; the session is closed.
+     * @throws IOException            if the shell could not be started or the session is closed.
+     */
+    public Result execute(final String command) throws IOException {
+        return execute(command, timeout);
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param command        The shell command, for example {@code "ls -l | wc -l"}.
+     * @param commandTimeout The timeout after which the command is terminated, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The result of the command.
+     * @throws ExecuteException       if the shell exited.
+     * @throws InterruptedIOException if the current thread was interrupted; the session is closed.
+     * @throws IOException            if the shell could not be started or the session is closed.
+     */
+    public synchronized Result execute(final String command, final Duration commandTimeout) throws IOException {
+        Objects.requireNonNull(command, "command");
+        if (closed) {
+            throw new IOException("Shell session closed");
+        }
+        start();
+        final String markerString = new String(marker, 1, marker.length - 1, StandardCharsets.US_ASCII);
+        final String script = "(eval " + StringUtils.quoteShellWord(command) + ") </dev/null\n"
+                + "printf '\\n%s %d\\n' " + markerString + " $?; printf '\\n%s\\n' " + markerString + " >&2\n";
+        Watchdog watchdog = null;
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final long commandId;
+        synchronized (killLock) {
+            commandId = ++lastCommandId;
+            runningCommandId = commandId;
+        }
+        if (commandTimeout != null && !ExecuteWatchdog.INFINITE_TIMEOUT_DURATION.equals(commandTimeout)) {
+            watchdog = Watchdog.builder().setTimeout(commandTimeout).setThreadFactory(threadFactory).get();
+            watchdog.addTimeoutObserver(w -> terminateCommand(commandId, timedOut));
+        }
+        try {
+            stdin.write(script.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+            if (watchdog != null) {
+                watchdog.start();
+            }
+            final byte[] output = readToMarker(stdout);
+            final int exitValue = Integer.parseInt(readLine(stdout).trim());
+            final Object error = errors.take();
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            return new Result(exitValue, output, (byte[]) error, timedOut.get());
+        } catch (final IOException | RuntimeException e) {
+            close();
+            int exitValue = Executor.INVALID_EXITVALUE;
+            try {
+                if (process.waitFor(1, TimeUnit.SECONDS)) {
+                    exitValue = process.exitValue();
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            throw new ExecuteException("Shell " + shell + " failed running " + command, exitValue, e);
+        } catch (final InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running " + command);
+        } finally {
+            // a timeout callback still in progress no longer signals anything
+            synchronized (killLock) {
+                runningCommandId = 0;
+            }
+            if (watchdog != null) {
+                watchdog.stop();
+            }
+        }
+    }
+
+    /**
+     * Tests whether the shell is running or not started yet.
+     *
+     * @return {@code true} if the session can run commands.
+     */
+    public boolean isAlive() {
+        final Process current = process;
+        return !closed && (current == null || current.isAlive());
+    }
+
+    /**
+     * Reads the rest of a line.
+     */
+    private String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("End of stream reading a marker");
+            }
+            if (b == '\n') {
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+    }
+
+    /**
+     * Reads until and excluding the marker.
+     */
+    private byte[] readToMarker(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // the number of marker bytes matched so far, the line feed starting the marker does not occur in the rest of it
+        int matched = 0;
+        while (true) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("End of stream before the marker");
+            }
+            if (b == marker[matched]) {
+                if (++matched == marker.length) {
+                    return out.toByteArray();
+                }
+                continue;
+            }
+            out.write(marker, 0, matched);
+            matched = b == marker[0] ? 1 : 0;
+            if (matched == 0) {
+                out.write(b);
+            }
+        }
+    }
+
+    /**
+     * Starts the shell if not started yet.
+     */
+    private void start() throws IOException {
+        if (process != null) {
+            if (!process.isAlive()) {
+                throw new ExecuteException("Shell " + shell + " exited", process.exitValue());
+            }
+            return;
+        }
+        process = launcher.exec(shell, environment, workingDirectory);
+        stdin = process.getOutputStream();
+        stdout = new BufferedInputStream(process.getInputStream());
+        final InputStream stderr = new BufferedInputStream(process.getErrorStream());
+        ThreadUtil.newThread(threadFactory, () -> {
+            try {
+                while (true) {
+                    errors.add(readToMarker(stderr));
+                    if (stderr.read() != '\n') {
+                        throw new IOException("Malformed marker on standard error");
+                    }
+                }
+            } catch (final IOException e) {
+                errors.add(e);
+            }
+        }, "CommonsExecShellSession-", true).start();
+        try {
+            stdin.write("echo $$\n".getBytes(StandardCharsets.US_ASCII));
+            stdin.flush();
+            shellPid = Long.parseLong(readLine(stdout).trim());
+        } catch (final IOException | RuntimeException e) {
+            close();
+            throw new ExecuteException("Shell " + shell + " failed to start", Executor.INVALID_EXITVALUE, e);
+        }
+    }
+
+    /**
+     * Signals the descendants of the shell if a command is still running, holding the kill lock so that the command cannot complete and the next one start
+     * in between.
+     *
+     * @param commandId The command to signal.
+     * @param signal    The signal name.
+     * @param timedOut  Set before the signal is sent.
+     * @return Whether a signal was sent.
+     */
+    private boolean signalCommand(final long commandId, final String signal, final AtomicBoolean timedOut) {
+        synchronized (killLock) {
+            if (runningCommandId != commandId) {
+                return false;
+            }
+            final CommandLine kill;
+            if (ProcessResourceSampler.isSupported()) {
+                final List<Long> descendants = ProcessResourceSampler.descendants(shellPid);
+                if (descendants.isEmpty()) {
+                    return false;
+                }
+                kill = new CommandLine("kill").addArgument("-" + signal);
+                descendants.forEach(pid -> kill.addArgument(pid.toString()));
+            } else {
+                kill = new CommandLine("pkill").addArgument("-" + signal).addArgument("-P").addArgument(Long.toString(shellPid));
+            }
+            timedOut.set(true);
+            try {
+                launcher.exec(kill, null).waitFor();
+            } catch (final IOException e) {
+                DebugUtils.handleException("Sending SIG" + signal + " to the command in " + shell + " failed", e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Terminates the command and its descendants, called by the watchdog: sends them TERM, then KILL if the command still runs after a grace period.
+     *
+     * @param commandId The command timed out, nothing is signaled once another command runs.
+     * @param timedOut  Set unless the command is known to have completed already.
+     */
+    private void terminateCommand(final long commandId, final AtomicBoolean timedOut) {
+        if (!signalCommand(commandId, "TERM", timedOut)) {
+            return;
+        }
+        final long deadline = System.nanoTime() + KILL_GRACE_PERIOD.toNanos();
+        while (System.nanoTime() - deadline < 0) {
+            synchronized (killLock) {
+                if (runningCommandId != commandId) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(KILL_POLL_MILLIS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        signalCommand(commandId, "KILL", timedOut);
+    }
+}
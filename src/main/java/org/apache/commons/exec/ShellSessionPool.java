@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Supplier;
+
+/**
+ * Runs shell commands concurrently on a fixed number of {@link ShellSession}s. For example:
+ *
+ * <pre>
+ * try (ShellSessionPool pool = ShellSessionPool.builder().setPoolSize(8).get()) {
+ *     ShellSession.Result result = pool.execute("grep -c foo file.txt");
+ * }
+ * </pre>
+ * <p>
+ * A command takes an idle session, waiting for one if all are busy. A session whose shell exited is replaced by a new one.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class ShellSessionPool implements AutoCloseable {
+
+    /**
+     * Builds ShellSessionPool instances.
+     */
+    public static final class Builder implements Supplier<ShellSessionPool> {
+
+        /** The number of sessions. */
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+
+        /** Creates the sessions. */
+        private Supplier<ShellSession> sessionSupplier = ShellSession.builder();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ShellSessionPool.
+         *
+         * @return A new configured ShellSessionPool.
+         */
+        @Override
+        public ShellSessionPool get() {
+            return new ShellSessionPool(this);
+        }
+
+        /**
+         * Sets the number of sessions.
+         *
+         * @param poolSize The number of sessions, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setPoolSize(final int poolSize) {
+            this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets the supplier of new sessions, typically a configured {@link ShellSession.Builder}.
+         *
+         * @param sessionSupplier The session supplier, null resets to a default {@link ShellSession.Builder}.
+         * @return {@code this} instance.
+         */
+        public Builder setSessionSupplier(final Supplier<ShellSession> sessionSupplier) {
+            this.sessionSupplier = sessionSupplier != null ? sessionSupplier : ShellSession.builder();
+            return this;
+        }
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Whether the pool is closed. */
+    private volatile boolean closed;
+
+    /** The idle sessions. */
+    private final BlockingDeque<ShellSession> idle = new LinkedBlockingDeque<>();
+
+    /** Creates the sessions. */
+    private final Supplier<ShellSession> sessionSupplier;
+
+    /** All sessions. */
+    private final List<ShellSession> sessions;
+
+    private ShellSessionPool(final Builder builder) {
+        this.sessionSupplier = builder.sessionSupplier;
+        this.sessions = new ArrayList<>(builder.poolSize);
+        for (int i = 0; i < builder.poolSize; i++) {
+            final ShellSession session = sessionSupplier.get();
+            sessions.add(session);
+            idle.add(session);
+        }
+    }
+
+    /**
+     * Closes all sessions. Commands in progress fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (sessions) {
+            sessions.forEach(ShellSession::close);
+        }
+        // wake up a waiting command, which wakes up the next
+        idle.addFirst(sessionSupplier.get());
+    }
+
+    /**
+     * Runs a command on an idle session, using the timeout of the session.
+     *
+     * @param command The shell command.
+     * @return The result of the command.
+     * @throws ExecuteException       if the shell exited.
+     * @throws InterruptedIOException if the current thread was interrupted.
+     * @throws IOException            if the shell could not be started or the pool is closed.
+     */
+    public ShellSession.Result execute(final String command) throws IOException {
+        return execute(command, null, false);
+    }
+
+    /**
+     * Runs a command on an idle session.
+     *
+     * @param command The shell command.
+     * @param timeout The timeout after which the command is terminated, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The result of the command.
+     * @throws ExecuteException       if the shell exited.
+     * @throws InterruptedIOException if the current thread was interrupted.
+     * @throws IOException            if the shell could not be started or the pool is closed.
+     */
+    public ShellSession.Result execute(final String command, final Duration timeout) throws IOException {
+        return execute(command, timeout, true);
+    }
+
+    private ShellSession.Result execute(final String command, final Duration timeout, final boolean hasTimeout) throws IOException {
+        if (closed) {
+            throw new IOException("Shell session pool closed");
+        }
+        ShellSession session;
+        try {
+            session = idle.takeFirst();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shell session");
+        }
+        if (closed) {
+            idle.addFirst(session);
+            throw new IOException("Shell session pool closed");
+        }
+        try {
+            if (!session.isAlive()) {
+                session = replace(session);
+            }
+            return hasTimeout ? session.execute(command, timeout) : session.execute(command);
+        } finally {
+            if (!session.isAlive() && !closed) {
+                session = replace(session);
+            }
+            idle.addFirst(session);
+        }
+    }
+
+    /**
+     * Replaces a session whose shell exited.
+     */
+    private ShellSession replace(final ShellSession session) {
+        session.close();
+        final ShellSession replacement = sessionSupplier.get();
+        synchronized (sessions) {
+            sessions.set(sessions.indexOf(session), replacement);
+        }
+        if (closed) {
+            replacement.close();
+        }
+        return replacement;
+    }
+}
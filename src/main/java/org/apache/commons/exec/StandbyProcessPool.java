@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.launcher.CommandLauncher;
+import org.apache.commons.exec.launcher.CommandLauncherFactory;
+import org.apache.commons.exec.util.DebugUtils;
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * Starts processes of a command ahead of time, so that a request gets a process that is already running instead of waiting for a slow startup, for
+ * example of a JVM or Python tool. For example:
+ *
+ * <pre>
+ * CommandLine template = new CommandLine("python3").addArgument("convert.py").addArgument("${input}").addArgument("${format}");
+ * try (StandbyProcessPool pool = StandbyProcessPool.builder().setCommandLine(template).setStandbyCount(2).get()) {
+ *     Map&lt;String, Object&gt; arguments = new HashMap&lt;&gt;();
+ *     arguments.put("input", "photo.png");
+ *     arguments.put("format", "jpeg");
+ *     Process process = pool.launch(arguments);
+ *     // write the payload to process.getOutputStream() and read the result from process.getInputStream()
+ * }
+ * </pre>
+ * <p>
+ * The command line is a template: the executable and the arguments without variables are known ahead of time and are used to start the standby
+ * processes, which block reading their standard input. The arguments with variables are only known when a process is launched; they are expanded with
+ * the given substitution map and written to the standard input of the process, one per line, before it is handed out. The command must therefore read
+ * these arguments from its standard input, in template order, followed by the payload.
+ * </p>
+ * <p>
+ * A background thread keeps the configured number of processes on standby, replacing each one handed out. If no standby process is ready, a new one is
+ * started for the request. The caller owns the returned process and should watch it, for example with {@link ExecuteWatchdog#start(Process)}.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class StandbyProcessPool implements AutoCloseable {
+
+    /**
+     * Builds StandbyProcessPool instances.
+     */
+    public static final class Builder implements Supplier<StandbyProcessPool> {
+
+        /** The charset of the arguments written to the standard input. */
+        private Charset charset = Charset.defaultCharset();
+
+        /** The launcher starting the processes. */
+        private CommandLauncher commandLauncher;
+
+        /** The template of the command. */
+        private CommandLine commandLine;
+
+        /** The environment of the processes, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** The number of processes kept on standby. */
+        private int standbyCount = 1;
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** The working directory of the processes. */
+        private Path workingDirectory = Paths.get(".");
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured StandbyProcessPool and starts its standby processes in the background.
+         *
+         * @return A new configured StandbyProcessPool.
+         * @throws NullPointerException if the command line is not set.
+         */
+        @Override
+        public StandbyProcessPool get() {
+            return new StandbyProcessPool(this);
+        }
+
+        /**
+         * Sets the charset of the arguments written to the standard input of the processes.
+         *
+         * @param charset The charset, null resets to the default charset.
+         * @return {@code this} instance.
+         */
+        public Builder setCharset(final Charset charset) {
+            this.charset = charset != null ? charset : Charset.defaultCharset();
+            return this;
+        }
+
+        /**
+         * Sets the launcher starting the processes.
+         *
+         * @param commandLauncher The command launcher, null resets to {@link CommandLauncherFactory#createVMLauncher()}.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the template of the command. Arguments containing variables such as {@code ${input}} are written to the standard input of the process when
+         * it is launched, the executable and the other arguments are used to start the standby processes.
+         *
+         * @param commandLine The command template.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the processes.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the number of processes kept on standby.
+         *
+         * @param standbyCount The number of processes, less than 1 resets to 1.
+         * @return {@code this} instance.
+         */
+        public Builder setStandbyCount(final int standbyCount) {
+            this.standbyCount = Math.max(1, standbyCount);
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the processes.
+         *
+         * @param workingDirectory The working directory, null resets to the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory != null ? workingDirectory : Paths.get(".");
+            return this;
+        }
+    }
+
+    /** The time to wait before starting a standby process again after a failed start. */
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Tests whether an unexpanded argument contains a variable.
+     */
+    private static boolean isDeferred(final String argument) {
+        return argument.contains("${");
+    }
+
+    /** The charset of the arguments written to the standard input. */
+    private final Charset charset;
+
+    /** Whether the pool is closed. */
+    private volatile boolean closed;
+
+    /** The arguments written to the standard input, unexpanded. */
+    private final String[] deferredArguments;
+
+    /** The environment of the processes. */
+    private final Map<String, String> environment;
+
+    /** The launcher starting the processes. */
+    private final CommandLauncher launcher;
+
+    /** Permits to start a standby process, one for each missing standby process. */
+    private final Semaphore missing;
+
+    /** The processes on standby. */
+    private final BlockingQueue<Process> standby = new LinkedBlockingQueue<>();
+
+    /** The command starting a process, without the deferred arguments. */
+    private final CommandLine startCommand;
+
+    /** The number of started processes. */
+    private final AtomicLong started = new AtomicLong();
+
+    /** Keeps the standby processes. */
+    private final Thread supplier;
+
+    /** The working directory of the processes. */
+    private final Path workingDirectory;
+
+    private StandbyProcessPool(final Builder builder) {
+        final CommandLine template = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.charset = builder.charset;
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.environment = builder.environment;
+        this.workingDirectory = builder.workingDirectory;
+        this.startCommand = template.filterArguments(argument -> !isDeferred(argument));
+        final List<String> deferred = new ArrayList<>();
+        for (final String argument : template.getArgumentValues()) {
+            if (isDeferred(argument)) {
+                deferred.add(argument);
+            }
+        }
+        this.deferredArguments = deferred.toArray(new String[deferred.size()]);
+        this.missing = new Semaphore(builder.standbyCount);
+        this.supplier = ThreadUtil.newThread(builder.threadFactory, this::supplyStandby, "CommonsExecStandbyProcessPool-", true);
+        supplier.start();
+    }
+
+    /**
+     * Destroys the standby processes. Processes already handed out are not affected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        supplier.interrupt();
+        Process process;
+        while ((process = standby.poll()) != null) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Gets the number of processes on standby.
+     *
+     * @return The number of processes on standby.
+     */
+    public int getStandbyCount() {
+        return standby.size();
+    }
+
+    /**
+     * Gets the number of processes started so far, on standby or for a request.
+     *
+     * @return The number of started processes.
+     */
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * Hands out a running process after writing the arguments with variables to its standard input, one per line. The standard input is left open for the
+     * payload.
+     *
+     * @param substitutionMap The values of the variables, may be null if the template has no variables.
+     * @return The running process, owned by the caller.
+     * @throws IllegalArgumentException if an expanded argument contains a line break.
+     * @throws IOException              if no process could be started, the arguments could not be written, or the pool is closed.
+     */
+    public Process launch(final Map<String, ?> substitutionMap) throws IOException {
+        if (closed) {
+            throw new IOException("Standby process pool closed");
+        }
+        final StringBuilder arguments = new StringBuilder();
+        for (final String argument : deferredArguments) {
+            final String expanded = StringUtils.stringSubstitution(argument, substitutionMap, true).toString();
+            if (expanded.indexOf('\n') >= 0 || expanded.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("Argument " + argument + " expands to a value with a line break");
+            }
+            arguments.append(expanded).append('\n');
+        }
+        final Process process = take();
+        if (arguments.length() > 0) {
+            final OutputStream stdin = process.getOutputStream();
+            try {
+                stdin.write(arguments.toString().getBytes(charset));
+                stdin.flush();
+            } catch (final IOException e) {
+                process.destroy();
+                throw e;
+            }
+        }
+        return process;
+    }
+
+    private Process start() throws IOException {
+        final Process process = launcher.exec(startCommand, environment, workingDirectory);
+        started.incrementAndGet();
+        return process;
+    }
+
+    /**
+     * Starts standby processes as long as some are missing, on the supplier thread.
+     */
+    private void supplyStandby() {
+        try {
+            while (!closed) {
+                missing.acquire();
+                try {
+                    final Process process = start();
+                    standby.add(process);
+                    if (closed) {
+                        close();
+                    }
+                } catch (final IOException e) {
+                    missing.release();
+                    DebugUtils.handleException("Starting a standby process of " + startCommand + " failed", e);
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY.toMillis());
+                }
+            }
+        } catch (final InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Takes a living standby process or starts a new one.
+     */
+    private Process take() throws IOException {
+        Process process;
+        while ((process = standby.poll()) != null) {
+            missing.release();
+            if (process.isAlive()) {
+                return process;
+            }
+        }
+        return start();
+    }
+}
@@ -119,6 +119,11 @@ public class Watchdog implements Runnable {
      */
     private boolean stopped;
 
+    /**
+     * The time in milliseconds the current countdown started, moved forward by {@link #touch()}.
+     */
+    private volatile long startTimeMillis;
+
     /**
      * The thread factory.
      */
@@ -195,7 +200,7 @@ public class Watchdog implements Runnable {
 
     @Override
     public void run() {
-        final long startTimeMillis = System.currentTimeMillis();
+        startTimeMillis = System.currentTimeMillis();
         boolean isWaiting;
         synchronized (this) {
             final long timeoutMillis = timeout.toMillis();
@@ -217,6 +222,16 @@ public class Watchdog implements Runnable {
         }
     }
 
+    /**
+     * Restarts the countdown without waking up the waiting thread. The watchdog thread notices the new start time the next time it wakes up, so calling this
+     * method is cheap enough to be done for every chunk of data a process produces.
+     *
+     * @since 1.7.0
+     */
+    public void touch() {
+        startTimeMillis = System.currentTimeMillis();
+    }
+
     /**
      * Starts a new thread.
      */
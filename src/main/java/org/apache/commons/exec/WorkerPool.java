@@ -0,0 +1,824 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.launcher.CommandLauncher;
+import org.apache.commons.exec.launcher.CommandLauncherFactory;
+
+/**
+ * Keeps a number of long-running worker processes that read requests on their standard input and write responses on their standard output, so that the
+ * cost of starting a process is paid once and not for every request. For example:
+ *
+ * <pre>
+ * try (WorkerPool pool = WorkerPool.builder().setCommandLine(CommandLine.parse("jq --unbuffered -c .name")).setPoolSize(4).get()) {
+ *     byte[] response = pool.request("{\"name\":\"commons-exec\"}".getBytes(StandardCharsets.UTF_8));
+ * }
+ * </pre>
+ * <p>
+ * Each request checks out an idle worker, writes the request framed by the {@link Framing}, reads one framed response and gives the worker back. A worker
+ * that exits or fails is replaced in the background, waiting longer after each consecutive failure to start. Workers are recycled after a maximum number of
+ * requests and stopped after being idle for too long; a stopped worker is started again when it is checked out. A request running longer than its timeout
+ * has its worker destroyed by a task on the thread of the pool; a worker should not leave children holding its standard output, which would delay the
+ * timeout until they exit. The standard error of the workers is pumped to an output stream.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class WorkerPool implements AutoCloseable {
+
+    /**
+     * Builds WorkerPool instances.
+     */
+    public static final class Builder implements Supplier<WorkerPool> {
+
+        /** The command starting a worker. */
+        private CommandLine commandLine;
+
+        /** The launcher starting the workers. */
+        private CommandLauncher commandLauncher;
+
+        /** The environment of the workers, null to inherit the environment of the current process. */
+        private Map<String, String> environment;
+
+        /** Receives the standard error of the workers. */
+        private OutputStream errorStream = System.err;
+
+        /** Frames the requests and responses. */
+        private Framing framing = Framing.newline();
+
+        /** The maximum time a worker is idle before it is stopped, null to keep idle workers. */
+        private Duration maxIdleTime;
+
+        /** The maximum number of requests a worker serves before it is replaced, 0 for no limit. */
+        private int maxRequests;
+
+        /** The number of workers. */
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+
+        /** The time to wait before restarting a worker after its first failure. */
+        private Duration restartBackoff = Duration.ofMillis(100);
+
+        /** The maximum time to wait before restarting a failed worker. */
+        private Duration maxRestartBackoff = Duration.ofSeconds(30);
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /** Timeout of each request. */
+        private Duration timeout = ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+
+        /** The working directory of the workers. */
+        private Path workingDirectory = Paths.get(".");
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured WorkerPool and starts its workers in the background.
+         *
+         * @return A new configured WorkerPool.
+         * @throws NullPointerException if the command line is not set.
+         */
+        @Override
+        public WorkerPool get() {
+            return new WorkerPool(this);
+        }
+
+        /**
+         * Sets the launcher starting the workers.
+         *
+         * @param commandLauncher The command launcher, null resets to {@link CommandLauncherFactory#createVMLauncher()}.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the command starting a worker.
+         *
+         * @param commandLine The command.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLine(final CommandLine commandLine) {
+            this.commandLine = commandLine;
+            return this;
+        }
+
+        /**
+         * Sets the environment of the workers.
+         *
+         * @param environment The environment, null inherits the environment of the current process.
+         * @return {@code this} instance.
+         */
+        public Builder setEnvironment(final Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        /**
+         * Sets the output stream receiving the standard error of the workers.
+         *
+         * @param errorStream The output stream, null resets to {@code System.err}.
+         * @return {@code this} instance.
+         */
+        public Builder setErrorStream(final OutputStream errorStream) {
+            this.errorStream = errorStream != null ? errorStream : System.err;
+            return this;
+        }
+
+        /**
+         * Sets how requests and responses are delimited on the streams of the workers.
+         *
+         * @param framing The framing, null resets to {@link Framing#newline()}.
+         * @return {@code this} instance.
+         */
+        public Builder setFraming(final Framing framing) {
+            this.framing = framing != null ? framing : Framing.newline();
+            return this;
+        }
+
+        /**
+         * Sets the maximum time a worker is idle before it is stopped.
+         *
+         * @param maxIdleTime The maximum idle time, null resets to keeping idle workers running.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxIdleTime(final Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests a worker serves before it is replaced, for example to bound the effect of leaks in the worker.
+         *
+         * @param maxRequests The maximum number of requests, 0 or less resets to no limit.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxRequests(final int maxRequests) {
+            this.maxRequests = Math.max(0, maxRequests);
+            return this;
+        }
+
+        /**
+         * Sets the number of workers.
+         *
+         * @param poolSize The number of workers, less than 1 resets to the number of available processors.
+         * @return {@code this} instance.
+         */
+        public Builder setPoolSize(final int poolSize) {
+            this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+            return this;
+        }
+
+        /**
+         * Sets the time to wait before restarting a failed worker. The time doubles with each consecutive failure up to the given maximum.
+         *
+         * @param restartBackoff    The time to wait after the first failure, null resets to 100 milliseconds.
+         * @param maxRestartBackoff The maximum time to wait, null resets to 30 seconds.
+         * @return {@code this} instance.
+         */
+        public Builder setRestartBackoff(final Duration restartBackoff, final Duration maxRestartBackoff) {
+            this.restartBackoff = restartBackoff != null ? restartBackoff : Duration.ofMillis(100);
+            this.maxRestartBackoff = maxRestartBackoff != null ? maxRestartBackoff : Duration.ofSeconds(30);
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+
+        /**
+         * Sets the default timeout of each request.
+         *
+         * @param timeout The timeout, null resets to {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION}.
+         * @return {@code this} instance.
+         */
+        public Builder setTimeout(final Duration timeout) {
+            this.timeout = timeout != null ? timeout : ExecuteWatchdog.INFINITE_TIMEOUT_DURATION;
+            return this;
+        }
+
+        /**
+         * Sets the working directory of the workers.
+         *
+         * @param workingDirectory The working directory, null resets to the current directory.
+         * @return {@code this} instance.
+         */
+        public Builder setWorkingDirectory(final Path workingDirectory) {
+            this.workingDirectory = workingDirectory != null ? workingDirectory : Paths.get(".");
+            return this;
+        }
+    }
+
+    /**
+     * Delimits requests and responses on the streams of a worker.
+     */
+    public interface Framing {
+
+        /**
+         * Frames messages by a 4 byte big-endian length prefix.
+         *
+         * @return The framing.
+         */
+        static Framing lengthPrefixed() {
+            return LengthPrefixedFraming.INSTANCE;
+        }
+
+        /**
+         * Frames messages by a terminating line feed, which a message must not contain.
+         *
+         * @return The framing.
+         */
+        static Framing newline() {
+            return SentinelFraming.NEWLINE;
+        }
+
+        /**
+         * Frames messages by a terminating byte sequence, which a message must not contain.
+         *
+         * @param sentinel The terminating byte sequence.
+         * @return The framing.
+         */
+        static Framing sentinel(final byte[] sentinel) {
+            return new SentinelFraming(sentinel);
+        }
+
+        /**
+         * Reads one message.
+         *
+         * @param in The standard output of the worker.
+         * @return The message without its framing.
+         * @throws EOFException if the stream ends before a complete message.
+         * @throws IOException  if reading fails.
+         */
+        byte[] read(InputStream in) throws IOException;
+
+        /**
+         * Writes one message.
+         *
+         * @param out     The standard input of the worker.
+         * @param message The message.
+         * @throws IllegalArgumentException if the message cannot be framed.
+         * @throws IOException              if writing fails.
+         */
+        void write(OutputStream out, byte[] message) throws IOException;
+    }
+
+    /**
+     * Frames messages by a 4 byte big-endian length prefix.
+     */
+    private static final class LengthPrefixedFraming implements Framing {
+
+        private static final LengthPrefixedFraming INSTANCE = new LengthPrefixedFraming();
+
+        @Override
+        public byte[] read(final InputStream in) throws IOException {
+            int length = 0;
+            for (int i = 0; i < 4; i++) {
+                final int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("End of stream reading the length of a response");
+                }
+                length = length << 8 | b;
+            }
+            if (length < 0) {
+                throw new IOException("Invalid response length " + length);
+            }
+            final byte[] message = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                final int read = in.read(message, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException("End of stream after " + offset + " of " + length + " response bytes");
+                }
+                offset += read;
+            }
+            return message;
+        }
+
+        @Override
+        public void write(final OutputStream out, final byte[] message) throws IOException {
+            final int length = message.length;
+            out.write(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+            out.write(message);
+        }
+    }
+
+    /**
+     * Frames messages by a terminating byte sequence.
+     */
+    private static final class SentinelFraming implements Framing {
+
+        private static final SentinelFraming NEWLINE = new SentinelFraming(new byte[] { '\n' });
+
+        /** Matches the sentinel. */
+        private final LiteralAutomaton automaton;
+
+        private final byte[] sentinel;
+
+        SentinelFraming(final byte[] sentinel) {
+            if (sentinel.length == 0) {
+                throw new IllegalArgumentException("Empty sentinel");
+            }
+            this.sentinel = sentinel.clone();
+            this.automaton = new LiteralAutomaton(new byte[][] { sentinel });
+        }
+
+        @Override
+        public byte[] read(final InputStream in) throws IOException {
+            final ByteArrayOutputStream message = new ByteArrayOutputStream() {
+                @Override
+                public String toString() {
+                    return size() + " bytes";
+                }
+            };
+            int state = 0;
+            while (true) {
+                final int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("End of stream after " + message + " of an unterminated response");
+                }
+                message.write(b);
+                state = automaton.next(state, (byte) b);
+                if (automaton.output(state) >= 0) {
+                    return Arrays.copyOf(message.toByteArray(), message.size() - sentinel.length);
+                }
+            }
+        }
+
+        @Override
+        public void write(final OutputStream out, final byte[] message) throws IOException {
+            int state = 0;
+            for (int i = 0; i < message.length; i++) {
+                state = automaton.next(state, message[i]);
+                if (automaton.output(state) >= 0) {
+                    throw new IllegalArgumentException("The request contains the sentinel at offset " + (i + 1 - sentinel.length));
+                }
+            }
+            out.write(message);
+            out.write(sentinel);
+        }
+    }
+
+    /**
+     * A worker slot, holding a running process or none.
+     */
+    private final class Worker {
+
+        /** The number of consecutive failures. */
+        private int failures;
+
+        /** When the worker was last given back. */
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        /** The earliest time to start the process after a failure. */
+        private long notBeforeNanos = System.nanoTime();
+
+        /** The running process, null if stopped. */
+        private volatile Process process;
+
+        /** The number of requests served by the running process. */
+        private int requests;
+
+        /** The standard input of the running process. */
+        private OutputStream stdin;
+
+        /** The standard output of the running process. */
+        private InputStream stdout;
+
+        /**
+         * Records a failure of the running process and stops it.
+         */
+        void failed() {
+            failures++;
+            final long backoffNanos = restartBackoff.toNanos() << Math.min(failures - 1, 30);
+            notBeforeNanos = System.nanoTime() + Math.min(maxRestartBackoff.toNanos(), backoffNanos < 0 ? Long.MAX_VALUE : backoffNanos);
+            stop();
+        }
+
+        boolean isRunning() {
+            return process != null && process.isAlive();
+        }
+
+        /**
+         * Starts the process if it is not running, waiting for the restart backoff.
+         */
+        void start() throws IOException {
+            if (isRunning()) {
+                return;
+            }
+            stop();
+            final long waitNanos = notBeforeNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to restart a worker");
+                }
+            }
+            try {
+                process = launcher.exec(commandLine, environment, workingDirectory);
+            } catch (final IOException e) {
+                failed();
+                throw e;
+            }
+            started.incrementAndGet();
+            requests = 0;
+            stdin = new BufferedOutputStream(process.getOutputStream());
+            stdout = new BufferedInputStream(process.getInputStream());
+            final Thread pumper = ThreadUtil.newThread(threadFactory, new StreamPumper(process.getErrorStream(), errorStream), "CommonsExecWorkerPool-", true);
+            pumper.start();
+        }
+
+        /**
+         * Stops the running process.
+         */
+        void stop() {
+            if (process != null) {
+                try {
+                    stdin.close();
+                } catch (final IOException e) {
+                    // the process is destroyed anyway
+                }
+                process.destroy();
+                process = null;
+                stdin = null;
+                stdout = null;
+            }
+        }
+    }
+
+    /** A request waiting for its response. */
+    private static final int PENDING = 0;
+
+    /** A request that got its response or failed before timing out. */
+    private static final int RESPONDED = 1;
+
+    /** A request that timed out, its worker destroyed. */
+    private static final int TIMED_OUT = 2;
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Whether the pool is closed. */
+    private volatile boolean closed;
+
+    /** Marks the pool as closed in the idle queue. */
+    private final Worker closedMarker = new Worker();
+
+    /** The command starting a worker. */
+    private final CommandLine commandLine;
+
+    /** The environment of the workers. */
+    private final Map<String, String> environment;
+
+    /** Receives the standard error of the workers. */
+    private final OutputStream errorStream;
+
+    /** Frames the requests and responses. */
+    private final Framing framing;
+
+    /** The idle workers, the most recently used first. */
+    private final BlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+
+    /** The launcher starting the workers. */
+    private final CommandLauncher launcher;
+
+    /** The maximum time a worker is idle before it is stopped, null to keep idle workers. */
+    private final Duration maxIdleTime;
+
+    /** The maximum number of requests a worker serves before it is replaced, 0 for no limit. */
+    private final int maxRequests;
+
+    /** The maximum time to wait before restarting a failed worker. */
+    private final Duration maxRestartBackoff;
+
+    /** The time to wait before restarting a worker after its first failure. */
+    private final Duration restartBackoff;
+
+    /** Starts workers in the background and stops idle workers. */
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /** The number of started processes. */
+    private final AtomicLong started = new AtomicLong();
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    /** Timeout of each request. */
+    private final Duration timeout;
+
+    /** All workers. */
+    private final List<Worker> workers;
+
+    /** The working directory of the workers. */
+    private final Path workingDirectory;
+
+    private WorkerPool(final Builder builder) {
+        this.commandLine = Objects.requireNonNull(builder.commandLine, "commandLine");
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.environment = builder.environment;
+        this.errorStream = builder.errorStream;
+        this.framing = builder.framing;
+        this.maxIdleTime = builder.maxIdleTime;
+        this.maxRequests = builder.maxRequests;
+        this.restartBackoff = builder.restartBackoff;
+        this.maxRestartBackoff = builder.maxRestartBackoff;
+        this.threadFactory = builder.threadFactory;
+        this.timeout = builder.timeout;
+        this.workingDirectory = builder.workingDirectory;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> ThreadUtil.newThread(threadFactory, r, "CommonsExecWorkerPool-", true));
+        // request timeouts are mostly canceled
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.workers = new ArrayList<>(builder.poolSize);
+        for (int i = 0; i < builder.poolSize; i++) {
+            final Worker worker = new Worker();
+            workers.add(worker);
+            idle.addLast(worker);
+            warmUp(worker);
+        }
+        if (maxIdleTime != null) {
+            final long periodMillis = Math.max(1, maxIdleTime.toMillis() / 2);
+            scheduler.scheduleWithFixedDelay(this::stopIdleWorkers, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes an idle worker, waiting for one to be given back if necessary.
+     */
+    private Worker checkOut() throws IOException {
+        if (closed) {
+            throw new IOException("Worker pool closed");
+        }
+        final Worker worker;
+        try {
+            worker = idle.takeFirst();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a worker");
+        }
+        if (worker == closedMarker) {
+            // wake up the next waiting request
+            idle.addFirst(worker);
+            throw new IOException("Worker pool closed");
+        }
+        return worker;
+    }
+
+    /**
+     * Gives back a worker after a request, replacing it in the background if it failed or served its maximum number of requests.
+     */
+    private void checkIn(final Worker worker) {
+        worker.lastUsedNanos = System.nanoTime();
+        if (closed) {
+            worker.stop();
+            return;
+        }
+        if (!worker.isRunning() || maxRequests > 0 && worker.requests >= maxRequests) {
+            worker.stop();
+            idle.addLast(worker);
+            warmUp(worker);
+        } else {
+            idle.addFirst(worker);
+        }
+    }
+
+    /**
+     * Stops all workers and fails waiting and further requests. Requests in progress fail as their workers are destroyed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        for (final Worker worker : workers) {
+            if (idle.remove(worker)) {
+                worker.stop();
+            } else {
+                // in use, destroy the process to fail the request
+                final Process process = worker.process;
+                if (process != null) {
+                    process.destroy();
+                }
+            }
+        }
+        idle.addFirst(closedMarker);
+    }
+
+    /**
+     * Gets the number of worker processes started so far, including replacements.
+     *
+     * @return The number of started processes.
+     */
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * Sends a request to a worker and waits for its response, using the timeout of the builder.
+     *
+     * @param request The request.
+     * @return The response.
+     * @throws ExecuteException       if the worker exited or timed out before responding.
+     * @throws InterruptedIOException if the current thread was interrupted.
+     * @throws IOException            if no worker could be started or the pool is closed.
+     */
+    public byte[] request(final byte[] request) throws IOException {
+        return request(request, timeout);
+    }
+
+    /**
+     * Sends a request to a worker and waits for its response.
+     *
+     * @param request        The request.
+     * @param requestTimeout The timeout after which the worker is destroyed, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The response.
+     * @throws ExecuteException       if the worker exited or timed out before responding.
+     * @throws InterruptedIOException if the current thread was interrupted.
+     * @throws IOException            if no worker could be started or the pool is closed.
+     */
+    public byte[] request(final byte[] request, final Duration requestTimeout) throws IOException {
+        Objects.requireNonNull(request, "request");
+        final Worker worker = checkOut();
+        try {
+            worker.start();
+            final Process process = worker.process;
+            // the response and the timeout race to settle the request, the timeout destroying the worker
+            final AtomicInteger state = new AtomicInteger(PENDING);
+            final Future<?> timeoutTask = scheduleTimeout(process, state, requestTimeout);
+            try {
+                framing.write(worker.stdin, request);
+                worker.stdin.flush();
+                final byte[] response = framing.read(worker.stdout);
+                worker.requests++;
+                worker.failures = 0;
+                return response;
+            } catch (final IOException e) {
+                if (settle(state, timeoutTask)) {
+                    throw new ExecuteException("Request to " + commandLine + " timed out after " + requestTimeout, Executor.INVALID_EXITVALUE, e);
+                }
+                int exitValue = Executor.INVALID_EXITVALUE;
+                try {
+                    if (process.waitFor(1, TimeUnit.SECONDS)) {
+                        exitValue = process.exitValue();
+                    }
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                worker.failed();
+                throw new ExecuteException("Worker " + commandLine + " failed to respond", exitValue, e);
+            } finally {
+                if (settle(state, timeoutTask)) {
+                    // the response raced with the timeout
+                    worker.stop();
+                }
+            }
+        } finally {
+            checkIn(worker);
+        }
+    }
+
+    /**
+     * Schedules the destruction of a worker process on the thread of the pool once a request timed out.
+     *
+     * @param process        The process of the worker.
+     * @param state          The state of the request, the process is only destroyed if it is still pending.
+     * @param requestTimeout The timeout, null or {@link ExecuteWatchdog#INFINITE_TIMEOUT_DURATION} to wait forever.
+     * @return The task to cancel, null if there is no timeout.
+     * @throws IOException if the pool is closed.
+     */
+    private Future<?> scheduleTimeout(final Process process, final AtomicInteger state, final Duration requestTimeout) throws IOException {
+        if (requestTimeout == null || ExecuteWatchdog.INFINITE_TIMEOUT_DURATION.equals(requestTimeout)) {
+            return null;
+        }
+        try {
+            return scheduler.schedule(() -> {
+                if (state.compareAndSet(PENDING, TIMED_OUT)) {
+                    process.destroy();
+                }
+            }, Math.max(0, requestTimeout.toNanos()), TimeUnit.NANOSECONDS);
+        } catch (final RejectedExecutionException e) {
+            throw new IOException("Worker pool closed", e);
+        }
+    }
+
+    /**
+     * Settles a request, canceling its timeout.
+     *
+     * @param state       The state of the request.
+     * @param timeoutTask The timeout task, may be null.
+     * @return Whether the request timed out, its worker destroyed.
+     */
+    private static boolean settle(final AtomicInteger state, final Future<?> timeoutTask) {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+        }
+        state.compareAndSet(PENDING, RESPONDED);
+        return state.get() == TIMED_OUT;
+    }
+
+    /**
+     * Stops the workers idle for longer than the maximum idle time.
+     */
+    private void stopIdleWorkers() {
+        final long nowNanos = System.nanoTime();
+        for (final Worker worker : workers) {
+            if (nowNanos - worker.lastUsedNanos > maxIdleTime.toNanos() && idle.remove(worker)) {
+                if (nowNanos - worker.lastUsedNanos > maxIdleTime.toNanos()) {
+                    worker.stop();
+                }
+                idle.addLast(worker);
+            }
+        }
+    }
+
+    /**
+     * Starts a worker in the background once its restart backoff elapsed if it is still idle, so that a request does not wait for it to start.
+     */
+    private void warmUp(final Worker worker) {
+        if (closed) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            if (!closed && idle.remove(worker)) {
+                boolean retry = false;
+                try {
+                    worker.start();
+                } catch (final IOException e) {
+                    retry = true;
+                }
+                if (closed) {
+                    worker.stop();
+                }
+                idle.addLast(worker);
+                if (retry) {
+                    warmUp(worker);
+                }
+            }
+        }, Math.max(0, worker.notBeforeNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,849 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.util.ProcessUtils;
+
+/**
+ * A command launcher that admits a limited number of child processes at the same time, so that independent components of one JVM sharing this launcher
+ * cannot fork more processes than the machine can handle. For example:
+ *
+ * <pre>
+ * CommandLauncher launcher = AdmissionControlCommandLauncher.builder().setMaxConcurrency(64).setQueueTimeout(Duration.ofMinutes(1)).get();
+ * Executor executor = DefaultExecutor.builder().setCommandLauncher(launcher).get();
+ * </pre>
+ * <p>
+ * A launch waits in a queue until fewer than the maximum number of processes admitted by this launcher are running and, if a spawn rate is set, a token
+ * of the token bucket is available. Waiting launches are admitted first-in first-out or, if a priority function is set, highest priority first. A launch
+ * that waited longer than the queue timeout is rejected with an {@link IOException}.
+ * </p>
+ * <p>
+ * Within a priority class, launches of different tenants, for example interactive and batch callers, are admitted by weighted fair queuing: each tenant
+ * gets a share of the admissions proportional to its weight while it has launches waiting, so that a flood of launches of one tenant cannot starve
+ * another. The time a launch waited to be admitted and the time its process ran are reported separately to a {@link Listener}.
+ * </p>
+ * <p>
+ * An admitted process counts as running until its termination is observed, either through {@link Process#waitFor()}, {@link Process#exitValue()} or
+ * {@link Process#isAlive()} on the returned process, or by a daemon reaper thread polling the running processes every 50 milliseconds, so that the slot of
+ * a process whose caller never waits for it is given back too.
+ * </p>
+ *
+ * @since 1.7.0
+ */
+public class AdmissionControlCommandLauncher implements CommandLauncher {
+
+    /**
+     * Receives the queue wait and run times of launches.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a launch was admitted, before its process is started.
+         *
+         * @param commandLine The command.
+         * @param queueWait   The time the launch waited to be admitted.
+         */
+        default void onAdmitted(final CommandLine commandLine, final Duration queueWait) {
+            // noop
+        }
+
+        /**
+         * Called when a launch was rejected because it waited longer than the queue timeout.
+         *
+         * @param commandLine The command.
+         * @param queueWait   The time the launch waited.
+         */
+        default void onRejected(final CommandLine commandLine, final Duration queueWait) {
+            // noop
+        }
+
+        /**
+         * Called when the termination of an admitted process was observed, or its start failed.
+         *
+         * @param commandLine The command.
+         * @param queueWait   The time the launch waited to be admitted.
+         * @param runTime     The time from admission to the observed termination.
+         */
+        default void onTerminated(final CommandLine commandLine, final Duration queueWait, final Duration runTime) {
+            // noop
+        }
+    }
+
+    /**
+     * Builds AdmissionControlCommandLauncher instances.
+     */
+    public static final class Builder implements Supplier<AdmissionControlCommandLauncher> {
+
+        /** The launcher starting the admitted processes. */
+        private CommandLauncher commandLauncher;
+
+        /** Receives the queue wait and run times, may be null. */
+        private Listener listener;
+
+        /** The maximum number of processes running at the same time. */
+        private int maxConcurrency = Integer.MAX_VALUE;
+
+        /** The priority of a command, null for first-in first-out. */
+        private ToIntFunction<CommandLine> priority;
+
+        /** The maximum time a launch waits to be admitted, null to wait forever. */
+        private Duration queueTimeout;
+
+        /** The number of tokens the token bucket can hold. */
+        private int spawnBurst = 1;
+
+        /** The number of processes started per second, 0 for no limit. */
+        private double spawnRate;
+
+        /** The tenant of a command, null for a single tenant. */
+        private Function<CommandLine, String> tenant;
+
+        /** The weights of the tenants. */
+        private Map<String, Double> tenantWeights = Collections.emptyMap();
+
+        /** The factory of the reaper thread. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured AdmissionControlCommandLauncher.
+         *
+         * @return A new configured AdmissionControlCommandLauncher.
+         */
+        @Override
+        public AdmissionControlCommandLauncher get() {
+            return new AdmissionControlCommandLauncher(this);
+        }
+
+        /**
+         * Sets the launcher starting the admitted processes.
+         *
+         * @param commandLauncher The command launcher, null resets to {@link CommandLauncherFactory#createVMLauncher()}.
+         * @return {@code this} instance.
+         */
+        public Builder setCommandLauncher(final CommandLauncher commandLauncher) {
+            this.commandLauncher = commandLauncher;
+            return this;
+        }
+
+        /**
+         * Sets the listener receiving the queue wait and run times of launches.
+         *
+         * @param listener The listener, null resets to none.
+         * @return {@code this} instance.
+         */
+        public Builder setListener(final Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of processes running at the same time.
+         *
+         * @param maxConcurrency The maximum number of processes, less than 1 resets to no limit.
+         * @return {@code this} instance.
+         */
+        public Builder setMaxConcurrency(final int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * Sets the function computing the priority of a command. Waiting launches with a higher priority are admitted first, launches with the same priority
+         * in arrival order.
+         *
+         * @param priority The priority function, null resets to first-in first-out.
+         * @return {@code this} instance.
+         */
+        public Builder setPriority(final ToIntFunction<CommandLine> priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time a launch waits to be admitted.
+         *
+         * @param queueTimeout The queue timeout, null resets to waiting forever.
+         * @return {@code this} instance.
+         */
+        public Builder setQueueTimeout(final Duration queueTimeout) {
+            this.queueTimeout = queueTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the number of tokens the spawn rate token bucket can hold, that is how many processes can be started at once after a quiet period.
+         *
+         * @param spawnBurst The burst size, less than 1 resets to 1.
+         * @return {@code this} instance.
+         */
+        public Builder setSpawnBurst(final int spawnBurst) {
+            this.spawnBurst = Math.max(1, spawnBurst);
+            return this;
+        }
+
+        /**
+         * Sets the sustained number of processes started per second.
+         *
+         * @param spawnRate The spawn rate, 0 or less resets to no limit.
+         * @return {@code this} instance.
+         */
+        public Builder setSpawnRate(final double spawnRate) {
+            this.spawnRate = Math.max(0, spawnRate);
+            return this;
+        }
+
+        /**
+         * Sets the function computing the tenant of a command, for example from a thread local or the executable. Waiting launches of the same priority
+         * are shared fairly among tenants according to their weights.
+         *
+         * @param tenant The tenant function, null resets to a single tenant.
+         * @return {@code this} instance.
+         */
+        public Builder setTenant(final Function<CommandLine, String> tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        /**
+         * Sets the weights of the tenants. A tenant with weight 3 is admitted three times as often as a tenant with weight 1 while both have launches
+         * waiting. Tenants without a weight have weight 1.
+         *
+         * @param tenantWeights The positive weights by tenant, null resets to weight 1 for all tenants.
+         * @return {@code this} instance.
+         */
+        public Builder setTenantWeights(final Map<String, Double> tenantWeights) {
+            this.tenantWeights = tenantWeights != null ? new HashMap<>(tenantWeights) : Collections.emptyMap();
+            return this;
+        }
+
+        /**
+         * Sets the factory of the thread observing the termination of the admitted processes.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * A process admitted by this launcher, giving back its slot once it is known to have terminated.
+     */
+    private final class AdmittedProcess extends Process {
+
+        /** The started process. */
+        private final Process process;
+
+        /** The admission of the process. */
+        private final Admission admission;
+
+        /** Whether the slot was given back, guarded by this. */
+        private boolean released;
+
+        AdmittedProcess(final Process process, final Admission admission) {
+            this.process = process;
+            this.admission = admission;
+        }
+
+        @Override
+        public void destroy() {
+            process.destroy();
+        }
+
+        @Override
+        public Process destroyForcibly() {
+            process.destroyForcibly();
+            return this;
+        }
+
+        @Override
+        public int exitValue() {
+            final int exitValue = process.exitValue();
+            terminated();
+            return exitValue;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return process.getErrorStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return process.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return process.getOutputStream();
+        }
+
+        @Override
+        public boolean isAlive() {
+            final boolean alive = process.isAlive();
+            if (!alive) {
+                terminated();
+            }
+            return alive;
+        }
+
+        /**
+         * Gets the native process ID of the started process, overriding {@code Process.pid()} on Java 9 and above.
+         *
+         * @return The process ID.
+         * @throws UnsupportedOperationException if the process ID is not available.
+         */
+        public long pid() {
+            return ProcessUtils.getPid(process);
+        }
+
+        /**
+         * Gives back the slot once, returning only when it was given back, whether by this or a concurrent call.
+         */
+        private synchronized void terminated() {
+            if (!released) {
+                released = true;
+                unreaped.remove(this);
+                release(admission);
+            }
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            final int exitValue = process.waitFor();
+            terminated();
+            return exitValue;
+        }
+
+        @Override
+        public boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final boolean exited = process.waitFor(timeout, unit);
+            if (exited) {
+                terminated();
+            }
+            return exited;
+        }
+    }
+
+    /**
+     * An admitted launch.
+     */
+    private static final class Admission {
+
+        /** The command. */
+        private final CommandLine commandLine;
+
+        /** When the launch was admitted. */
+        private final long admittedNanos;
+
+        /** The time the launch waited to be admitted in nanoseconds. */
+        private final long queueWaitNanos;
+
+        Admission(final CommandLine commandLine, final long admittedNanos, final long queueWaitNanos) {
+            this.commandLine = commandLine;
+            this.admittedNanos = admittedNanos;
+            this.queueWaitNanos = queueWaitNanos;
+        }
+    }
+
+    /**
+     * A launch waiting to be admitted.
+     */
+    private final class Waiter {
+
+        /** Signaled when this waiter may have become admissible. */
+        private final Condition condition = lock.newCondition();
+
+        /** The virtual time at which the launch would be admitted if every tenant got exactly its share. */
+        private final double finishTag;
+
+        /** The priority of the command. */
+        private final int priority;
+
+        /** The arrival order. */
+        private final long sequence;
+
+        Waiter(final int priority, final double finishTag, final long sequence) {
+            this.priority = priority;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+
+    /** The time between two polls of the reaper thread. */
+    private static final long REAP_INTERVAL_MILLIS = 50;
+
+    /** The prefix of the reaper thread name. */
+    private static final String THREAD_PREFIX = "CommonsExecAdmissionReaper-";
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The number of admitted launches. */
+    private long admitted;
+
+    /** The launcher starting the admitted processes. */
+    private final CommandLauncher launcher;
+
+    /** Receives the queue wait and run times, may be null. */
+    private final Listener listener;
+
+    /** Guards the admission state. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The maximum number of processes running at the same time. */
+    private final int maxConcurrency;
+
+    /** The number of launches that waited longer than the queue timeout. */
+    private long rejected;
+
+    /** The priority of a command, null for first-in first-out. */
+    private final ToIntFunction<CommandLine> priority;
+
+    /** The waiting launches, the head is the next to be admitted. */
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.<Waiter>comparingInt(w -> -w.priority).thenComparingDouble(w -> w.finishTag).thenComparingLong(w -> w.sequence));
+
+    /** The total time admitted launches waited to be admitted in nanoseconds. */
+    private long queueWaitNanos;
+
+    /** The maximum time a launch waits to be admitted in nanoseconds, negative to wait forever. */
+    private final long queueTimeoutNanos;
+
+    /** The number of admitted processes not known to have terminated. */
+    private int running;
+
+    /** The total time from admission to observed termination of processes in nanoseconds. */
+    private long runTimeNanos;
+
+    /** The arrival counter. */
+    private long sequence;
+
+    /** The number of tokens the token bucket can hold. */
+    private final int spawnBurst;
+
+    /** The number of processes started per second, 0 for no limit. */
+    private final double spawnRate;
+
+    /** The tenant of a command, null for a single tenant. */
+    private final Function<CommandLine, String> tenant;
+
+    /** The finish tag of the last waiting launch of each tenant with launches waiting. */
+    private final Map<String, Double> tenantFinishTags = new HashMap<>();
+
+    /** The weights of the tenants. */
+    private final Map<String, Double> tenantWeights;
+
+    /** The factory of the reaper thread. */
+    private final ThreadFactory threadFactory;
+
+    /** The number of tokens in the token bucket. */
+    private double tokens;
+
+    /** When the token bucket was last refilled. */
+    private long tokensNanos;
+
+    /** The admitted processes whose termination was not observed yet. */
+    private final Set<AdmittedProcess> unreaped = ConcurrentHashMap.newKeySet();
+
+    /** Polls the admitted processes for termination while there are any, null if not running. */
+    private Thread reaper;
+
+    /** The finish tag of the last admitted launch. */
+    private double virtualTime;
+
+    private AdmissionControlCommandLauncher(final Builder builder) {
+        this.launcher = builder.commandLauncher != null ? builder.commandLauncher : CommandLauncherFactory.createVMLauncher();
+        this.listener = builder.listener;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.priority = builder.priority;
+        this.queueTimeoutNanos = builder.queueTimeout != null ? Math.max(0, builder.queueTimeout.toNanos()) : -1;
+        this.spawnBurst = builder.spawnBurst;
+        this.spawnRate = builder.spawnRate;
+        this.tenant = builder.tenant;
+        this.tenantWeights = builder.tenantWeights;
+        this.threadFactory = builder.threadFactory;
+        this.tokens = builder.spawnBurst;
+        this.tokensNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until a launch of the given command is admitted.
+     *
+     * @param commandLine The command to launch.
+     * @return The admission.
+     * @throws IOException if the queue timeout elapsed or the current thread was interrupted.
+     */
+    private Admission acquire(final CommandLine commandLine) throws IOException {
+        final int commandPriority = priority != null ? priority.applyAsInt(commandLine) : 0;
+        final String commandTenant = tenant != null ? tenant.apply(commandLine) : null;
+        final long startNanos = System.nanoTime();
+        Admission admission = null;
+        lock.lock();
+        try {
+            final Waiter waiter = new Waiter(commandPriority, finishTag(commandTenant), sequence++);
+            queue.add(waiter);
+            try {
+                while (true) {
+                    long waitNanos = Long.MAX_VALUE;
+                    if (queue.peek() == waiter && running < maxConcurrency) {
+                        waitNanos = takeToken();
+                        if (waitNanos == 0) {
+                            queue.poll();
+                            running++;
+                            admitted++;
+                            virtualTime = Math.max(virtualTime, waiter.finishTag);
+                            dequeued(commandTenant);
+                            signalHead();
+                            final long nowNanos = System.nanoTime();
+                            queueWaitNanos += nowNanos - startNanos;
+                            admission = new Admission(commandLine, nowNanos, nowNanos - startNanos);
+                            break;
+                        }
+                    }
+                    if (queueTimeoutNanos >= 0) {
+                        final long remainingNanos = queueTimeoutNanos - (System.nanoTime() - startNanos);
+                        if (remainingNanos <= 0) {
+                            queue.remove(waiter);
+                            dequeued(commandTenant);
+                            rejected++;
+                            signalHead();
+                            break;
+                        }
+                        waitNanos = Math.min(waitNanos, remainingNanos);
+                    }
+                    if (waitNanos == Long.MAX_VALUE) {
+                        waiter.condition.await();
+                    } else {
+                        waiter.condition.awaitNanos(waitNanos);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                queue.remove(waiter);
+                dequeued(commandTenant);
+                signalHead();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to launch " + commandLine);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (admission == null) {
+            if (listener != null) {
+                listener.onRejected(commandLine, Duration.ofNanos(System.nanoTime() - startNanos));
+            }
+            throw new IOException("Launch of " + commandLine + " not admitted within " + Duration.ofNanos(queueTimeoutNanos));
+        }
+        if (listener != null) {
+            listener.onAdmitted(commandLine, Duration.ofNanos(admission.queueWaitNanos));
+        }
+        return admission;
+    }
+
+    /**
+     * Forgets the finish tag of a tenant without waiting launches. The caller of this method must be holding the lock.
+     *
+     * @param commandTenant The tenant of a launch that left the queue.
+     */
+    private void dequeued(final String commandTenant) {
+        if (tenant != null) {
+            final Double last = tenantFinishTags.get(commandTenant);
+            if (last != null && last <= virtualTime) {
+                tenantFinishTags.remove(commandTenant);
+            }
+        }
+    }
+
+    @Override
+    public Process exec(final CommandLine commandLine, final Map<String, String> env) throws IOException {
+        return launched(acquire(commandLine), () -> launcher.exec(commandLine, env));
+    }
+
+    @Override
+    public Process exec(final CommandLine commandLine, final Map<String, String> env, final File workingDirectory) throws IOException {
+        return launched(acquire(commandLine), () -> launcher.exec(commandLine, env, workingDirectory));
+    }
+
+    @Override
+    public Process exec(final CommandLine commandLine, final Map<String, String> env, final Path workingDirectory) throws IOException {
+        return launched(acquire(commandLine), () -> launcher.exec(commandLine, env, workingDirectory));
+    }
+
+    /**
+     * Computes the finish tag of a new waiting launch and records it as the last of its tenant. The caller of this method must be holding the lock.
+     *
+     * @param commandTenant The tenant of the launch.
+     * @return The finish tag, 0 without a tenant function so that launches are ordered by arrival.
+     */
+    private double finishTag(final String commandTenant) {
+        if (tenant == null) {
+            return 0;
+        }
+        final Double last = tenantFinishTags.get(commandTenant);
+        final double start = last != null ? Math.max(virtualTime, last) : virtualTime;
+        final Double weight = tenantWeights.get(commandTenant);
+        final double finish = start + 1 / (weight != null && weight > 0 ? weight : 1);
+        tenantFinishTags.put(commandTenant, finish);
+        return finish;
+    }
+
+    /**
+     * Gets the number of admitted launches.
+     *
+     * @return The number of admitted launches.
+     */
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of launches waiting to be admitted.
+     *
+     * @return The number of waiting launches.
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total time admitted launches waited to be admitted.
+     *
+     * @return The total queue wait time.
+     */
+    public Duration getQueueWaitTime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos(queueWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of launches rejected because they waited longer than the queue timeout.
+     *
+     * @return The number of rejected launches.
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of admitted processes not yet known to have terminated.
+     *
+     * @return The number of running processes.
+     */
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total time from admission to observed termination of admitted processes, excluding the time they waited to be admitted.
+     *
+     * @return The total run time.
+     */
+    public Duration getRunTime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos(runTimeNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isFailure(final int exitValue) {
+        return launcher.isFailure(exitValue);
+    }
+
+    /**
+     * Starts an admitted process, giving back its slot if the start fails.
+     */
+    private Process launched(final Admission admission, final ProcessStarter starter) throws IOException {
+        final Process process;
+        try {
+            process = starter.start();
+        } catch (final IOException | RuntimeException e) {
+            release(admission);
+            throw e;
+        }
+        final AdmittedProcess admittedProcess = new AdmittedProcess(process, admission);
+        unreaped.add(admittedProcess);
+        lock.lock();
+        try {
+            if (reaper == null) {
+                reaper = threadFactory.newThread(this::reap);
+                if (reaper == null) {
+                    throw new IllegalStateException(String.format("The ThreadFactory %s could not construct a thread for '%s'", threadFactory, THREAD_PREFIX));
+                }
+                reaper.setName(THREAD_PREFIX + reaper.getName());
+                reaper.setDaemon(true);
+                reaper.start();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return admittedProcess;
+    }
+
+    /**
+     * Polls the admitted processes for termination, giving back the slots of those nobody waits for, until none is left.
+     */
+    private void reap() {
+        while (true) {
+            unreaped.removeIf(admittedProcess -> !admittedProcess.isAlive());
+            lock.lock();
+            try {
+                if (unreaped.isEmpty()) {
+                    // a process admitted from now on starts a new reaper
+                    reaper = null;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Thread.sleep(REAP_INTERVAL_MILLIS);
+            } catch (final InterruptedException e) {
+                lock.lock();
+                try {
+                    reaper = null;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives back the slot of a terminated process.
+     */
+    private void release(final Admission admission) {
+        final long elapsedNanos = System.nanoTime() - admission.admittedNanos;
+        lock.lock();
+        try {
+            running--;
+            runTimeNanos += elapsedNanos;
+            signalHead();
+        } finally {
+            lock.unlock();
+        }
+        if (listener != null) {
+            listener.onTerminated(admission.commandLine, Duration.ofNanos(admission.queueWaitNanos), Duration.ofNanos(elapsedNanos));
+        }
+    }
+
+    /**
+     * Wakes up the next waiter to be admitted. The caller of this method must be holding the lock.
+     */
+    private void signalHead() {
+        final Waiter head = queue.peek();
+        if (head != null) {
+            head.condition.signal();
+        }
+    }
+
+    /**
+     * Takes a token from the token bucket. The caller of this method must be holding the lock.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available.
+     */
+    private long takeToken() {
+        if (spawnRate <= 0) {
+            return 0;
+        }
+        final long nowNanos = System.nanoTime();
+        tokens = Math.min(spawnBurst, tokens + (nowNanos - tokensNanos) * spawnRate / TimeUnit.SECONDS.toNanos(1));
+        tokensNanos = nowNanos;
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / spawnRate));
+    }
+
+    /**
+     * Starts a process.
+     */
+    @FunctionalInterface
+    private interface ProcessStarter {
+        Process start() throws IOException;
+    }
+}
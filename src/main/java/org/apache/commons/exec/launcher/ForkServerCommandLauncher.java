@@ -0,0 +1,596 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec.launcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.util.DebugUtils;
+import org.apache.commons.exec.util.StringUtils;
+
+/**
+ * A command launcher that asks a small helper shell process to start the child processes, so that the cost of starting a process does not grow with the
+ * heap and thread count of the JVM. For example:
+ *
+ * <pre>
+ * // create the launcher early, while the JVM is still small
+ * ForkServerCommandLauncher launcher = ForkServerCommandLauncher.builder().get();
+ * Executor executor = DefaultExecutor.builder().setCommandLauncher(launcher).get();
+ * </pre>
+ * <p>
+ * The helper is started when the launcher is created. Each launch sends the arguments, environment and working directory of the command to the helper,
+ * which creates three named pipes for the standard streams of the child, starts the child and reports its process ID and, later, its exit value. The
+ * helper is started again if it exited.
+ * </p>
+ * <p>
+ * This launcher only works on Unix-like systems with {@code mkfifo}. It differs from {@link Java13CommandLauncher} in a few ways:
+ * </p>
+ * <ul>
+ * <li>An executable that cannot be started fails the child with exit value 127 instead of throwing an {@link IOException}, as with a shell.</li>
+ * <li>With a null environment, the child inherits the environment of the helper, which is the environment of the JVM when the helper was started.</li>
+ * <li>If the exit of a child cannot be reported because the output of the helper was closed, its exit value is -1.</li>
+ * </ul>
+ *
+ * @since 1.7.0
+ */
+public class ForkServerCommandLauncher implements CommandLauncher, AutoCloseable {
+
+    /**
+     * Builds ForkServerCommandLauncher instances.
+     */
+    public static final class Builder implements Supplier<ForkServerCommandLauncher> {
+
+        /** The time a child has to open its pipes. */
+        private Duration launchTimeout = DEFAULT_LAUNCH_TIMEOUT;
+
+        /** The shell run as helper. */
+        private String shell = DEFAULT_SHELL;
+
+        /** The directory of the named pipes. */
+        private Path temporaryDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+        /** Thread factory. */
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        /**
+         * Constructs a new instance.
+         */
+        public Builder() {
+            // empty
+        }
+
+        /**
+         * Creates a new configured ForkServerCommandLauncher and starts its helper process.
+         *
+         * @return A new configured ForkServerCommandLauncher.
+         * @throws IllegalStateException if the helper process could not be started.
+         */
+        @Override
+        public ForkServerCommandLauncher get() {
+            return new ForkServerCommandLauncher(this);
+        }
+
+        /**
+         * Sets the time a child has to open its named pipes once they exist, after which the launch fails. A launch also fails as soon as the helper or the
+         * child exits before opening them.
+         *
+         * @param launchTimeout The time, null resets to 30 seconds.
+         * @return {@code this} instance.
+         */
+        public Builder setLaunchTimeout(final Duration launchTimeout) {
+            this.launchTimeout = launchTimeout != null ? launchTimeout : DEFAULT_LAUNCH_TIMEOUT;
+            return this;
+        }
+
+        /**
+         * Sets the POSIX shell run as helper.
+         *
+         * @param shell The shell executable, null resets to {@code /bin/sh}.
+         * @return {@code this} instance.
+         */
+        public Builder setShell(final String shell) {
+            this.shell = shell != null ? shell : DEFAULT_SHELL;
+            return this;
+        }
+
+        /**
+         * Sets the directory in which the named pipes of the children are created and deleted again.
+         *
+         * @param temporaryDirectory The directory, null resets to the {@code java.io.tmpdir} directory.
+         * @return {@code this} instance.
+         */
+        public Builder setTemporaryDirectory(final Path temporaryDirectory) {
+            this.temporaryDirectory = temporaryDirectory != null ? temporaryDirectory : Paths.get(System.getProperty("java.io.tmpdir"));
+            return this;
+        }
+
+        /**
+         * Sets the thread factory.
+         *
+         * @param threadFactory The thread factory, null resets to the default {@link Executors#defaultThreadFactory()}.
+         * @return {@code this} instance.
+         */
+        public Builder setThreadFactory(final ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+            return this;
+        }
+    }
+
+    /**
+     * A child process started by the helper.
+     */
+    private final class ForkedProcess extends Process {
+
+        /** Completes with the exit value of the child. */
+        private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+
+        /** Completes with the process ID of the child. */
+        private final CompletableFuture<Long> pid = new CompletableFuture<>();
+
+        /** Completes when the named pipes exist. */
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        /** The standard error of the child. */
+        private volatile InputStream stderr;
+
+        /** The standard input of the child. */
+        private volatile OutputStream stdin;
+
+        /** The standard output of the child. */
+        private volatile InputStream stdout;
+
+        @Override
+        public void destroy() {
+            kill("TERM");
+        }
+
+        @Override
+        public Process destroyForcibly() {
+            kill("KILL");
+            return this;
+        }
+
+        @Override
+        public int exitValue() {
+            final Integer exitValue = exit.getNow(null);
+            if (exitValue == null) {
+                throw new IllegalThreadStateException("process hasn't exited");
+            }
+            return exitValue.intValue();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return stderr;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return stdin;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return !exit.isDone();
+        }
+
+        private void kill(final String signal) {
+            if (isAlive()) {
+                try {
+                    helper().send("kill -" + signal + " " + pid() + " 2>/dev/null\n");
+                } catch (final IOException e) {
+                    // closed, fall back to forking the JVM
+                    try {
+                        Runtime.getRuntime().exec(new String[] { "kill", "-" + signal, Long.toString(pid()) });
+                    } catch (final IOException e2) {
+                        DebugUtils.handleException("Sending SIG" + signal + " to process " + pid() + " failed", e2);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the native process ID of the child.
+         *
+         * @return The process ID.
+         */
+        public long pid() {
+            return pid.join().longValue();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            try {
+                return exit.get().intValue();
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean waitFor(final long timeout, final TimeUnit unit) throws InterruptedException {
+            try {
+                exit.get(timeout, unit);
+                return true;
+            } catch (final TimeoutException e) {
+                return false;
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A running helper process and the children it reports on.
+     */
+    private final class Helper {
+
+        /** The children whose exit was not reported yet, by request ID. */
+        private final Map<Long, ForkedProcess> children = new ConcurrentHashMap<>();
+
+        /** The requests of the helper. */
+        private final Writer commands;
+
+        /** Whether the output of the helper ended. */
+        private volatile boolean exited;
+
+        /** The helper process. */
+        private final Process process;
+
+        Helper() throws IOException {
+            process = new ProcessBuilder(shell).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            commands = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            final Thread thread;
+            try {
+                thread = newThread(this::readReports);
+            } catch (final IllegalStateException e) {
+                process.destroy();
+                throw e;
+            }
+            thread.start();
+        }
+
+        void close() {
+            try {
+                commands.close();
+            } catch (final IOException e) {
+                DebugUtils.handleException("Closing the fork server failed", e);
+            }
+        }
+
+        /**
+         * Tests whether the helper accepts requests.
+         */
+        boolean isAlive() {
+            return !exited && process.isAlive();
+        }
+
+        /**
+         * Reads the reports of the helper, one per line: {@code <id> ready}, {@code <id> failed}, {@code <id> pid <pid>} or {@code <id> exit <value>}.
+         */
+        private void readReports() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] report = line.split(" ");
+                    final ForkedProcess child = children.get(Long.valueOf(report[0]));
+                    if (child == null) {
+                        continue;
+                    }
+                    switch (report[1]) {
+                    case "ready":
+                        child.ready.complete(null);
+                        break;
+                    case "failed":
+                        child.ready.completeExceptionally(new IOException("Could not create the named pipes of " + report[0]));
+                        children.remove(Long.valueOf(report[0]));
+                        break;
+                    case "pid":
+                        child.pid.complete(Long.valueOf(report[2]));
+                        break;
+                    case "exit":
+                        children.remove(Long.valueOf(report[0]));
+                        child.exit.complete(Integer.valueOf(report[2]));
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                DebugUtils.handleException("Reading the fork server failed", e);
+            } finally {
+                exited = true;
+                process.destroy();
+                final IOException e = new IOException("Fork server exited");
+                children.values().forEach(child -> {
+                    child.ready.completeExceptionally(e);
+                    child.pid.completeExceptionally(e);
+                    child.exit.complete(Integer.valueOf(-1));
+                });
+                children.clear();
+            }
+        }
+
+        synchronized void send(final String command) throws IOException {
+            commands.write(command);
+            commands.flush();
+        }
+    }
+
+    /** The default shell. */
+    private static final String DEFAULT_SHELL = "/bin/sh";
+
+    /** The default time a child has to open its pipes. */
+    private static final Duration DEFAULT_LAUNCH_TIMEOUT = Duration.ofSeconds(30);
+
+    /** The time between checks that the helper and the child are alive while opening the pipes. */
+    private static final long PIPE_POLL_MILLIS = 50;
+
+    /** The prefix of the names of the threads reading the helper. */
+    private static final String THREAD_PREFIX = "CommonsExecForkServer-";
+
+    /**
+     * Creates a new builder.
+     *
+     * @return A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static <T> T get(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the fork server");
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /** Whether the launcher is closed. */
+    private volatile boolean closed;
+
+    /** The current helper. */
+    private Helper helper;
+
+    /** The time a child has to open its pipes. */
+    private final Duration launchTimeout;
+
+    /** The IDs of the requests. */
+    private final AtomicLong requestIds = new AtomicLong();
+
+    /** The shell run as helper. */
+    private final String shell;
+
+    /** The directory of the named pipes. */
+    private final Path temporaryDirectory;
+
+    /** Thread factory. */
+    private final ThreadFactory threadFactory;
+
+    private ForkServerCommandLauncher(final Builder builder) {
+        this.launchTimeout = builder.launchTimeout;
+        this.shell = builder.shell;
+        this.temporaryDirectory = builder.temporaryDirectory;
+        this.threadFactory = builder.threadFactory;
+        try {
+            helper();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not start the fork server " + shell, e);
+        }
+    }
+
+    /**
+     * Closes the standard input of the helper, which then exits. Running children are not affected and their exit values are still reported.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (helper != null) {
+            helper.close();
+        }
+    }
+
+    @Override
+    public Process exec(final CommandLine commandLine, final Map<String, String> env) throws IOException {
+        return exec(commandLine, env, (File) null);
+    }
+
+    @Override
+    public Process exec(final CommandLine commandLine, final Map<String, String> env, final File workingDirectory) throws IOException {
+        if (workingDirectory != null && !workingDirectory.isDirectory()) {
+            throw new IOException(workingDirectory + " doesn't exist.");
+        }
+        final StringBuilder command = new StringBuilder("exec");
+        if (env != null) {
+            command.append(" env -i");
+            env.forEach((key, value) -> command.append(' ').append(StringUtils.quoteShellWord(key + "=" + value)));
+        }
+        for (final String argument : commandLine.toStrings()) {
+            command.append(' ').append(StringUtils.quoteShellWord(argument));
+        }
+        if (workingDirectory != null) {
+            command.insert(0, "cd " + StringUtils.quoteShellWord(workingDirectory.getAbsolutePath()) + " && ");
+        }
+        final long id = requestIds.incrementAndGet();
+        final Path pipes = Files.createTempDirectory(temporaryDirectory, "commons-exec-fork");
+        final ForkedProcess child = new ForkedProcess();
+        try {
+            final Helper current = helper();
+            current.children.put(Long.valueOf(id), child);
+            final String d = StringUtils.quoteShellWord(pipes.toString());
+            current.send("if mkfifo " + d + "/in " + d + "/out " + d + "/err 2>/dev/null; then echo '" + id + " ready'; "
+                    + "((" + command + ") <" + d + "/in >" + d + "/out 2>" + d + "/err & "
+                    + "echo \"" + id + " pid $!\"; wait $!; echo \"" + id + " exit $?\") 2>/dev/null & "
+                    + "else echo '" + id + " failed'; fi\n");
+            get(child.ready);
+            openPipes(current, child, pipes);
+            get(child.pid);
+        } catch (final IOException e) {
+            closeQuietly(child.stdin);
+            closeQuietly(child.stdout);
+            closeQuietly(child.stderr);
+            throw e;
+        } finally {
+            for (final String name : new String[] { "in", "out", "err" }) {
+                Files.deleteIfExists(pipes.resolve(name));
+            }
+            Files.deleteIfExists(pipes);
+        }
+        return child;
+    }
+
+    private void closeQuietly(final AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final Exception e) {
+                DebugUtils.handleException("Closing a stream of a failed launch failed", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the running helper, starting a new one if the previous one exited.
+     */
+    private synchronized Helper helper() throws IOException {
+        if (closed) {
+            throw new IOException("Fork server closed");
+        }
+        if (helper == null || !helper.isAlive()) {
+            helper = new Helper();
+        }
+        return helper;
+    }
+
+    @Override
+    public boolean isFailure(final int exitValue) {
+        // non zero exit value signals failure
+        return exitValue != 0;
+    }
+
+    /**
+     * Opens the named pipes of a child on a thread of its own, since each open blocks until the child opened the other end. Fails if the helper or the
+     * child exits first, or if the launch timeout elapses, unblocking the opening thread by opening the pipes for reading and writing.
+     */
+    private void openPipes(final Helper current, final ForkedProcess child, final Path pipes) throws IOException {
+        final CompletableFuture<Void> opened = new CompletableFuture<>();
+        final Thread opener = newThread(() -> {
+            try {
+                // the same order as the redirections of the child
+                child.stdin = new FileOutputStream(pipes.resolve("in").toFile());
+                child.stdout = new FileInputStream(pipes.resolve("out").toFile());
+                child.stderr = new FileInputStream(pipes.resolve("err").toFile());
+                opened.complete(null);
+            } catch (final IOException e) {
+                opened.completeExceptionally(e);
+            }
+        });
+        opener.start();
+        final long deadline = System.nanoTime() + launchTimeout.toNanos();
+        IOException failure = null;
+        while (failure == null && !opened.isDone()) {
+            if (!current.isAlive() || child.exit.isDone()) {
+                failure = new IOException("The fork server or the child exited before opening the pipes of the child");
+            } else if (System.nanoTime() - deadline > 0) {
+                failure = new IOException("Timed out after " + launchTimeout + " waiting for the child to open its pipes");
+            } else {
+                try {
+                    opened.get(PIPE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException | ExecutionException e) {
+                    // checked by the loop
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new InterruptedIOException("Interrupted while waiting for the child to open its pipes");
+                }
+            }
+        }
+        if (failure == null) {
+            get(opened);
+            return;
+        }
+        // opening a named pipe for reading and writing does not block and releases a blocked open of either end
+        while (opener.isAlive()) {
+            for (final String name : new String[] { "in", "out", "err" }) {
+                try {
+                    new RandomAccessFile(pipes.resolve(name).toFile(), "rw").close();
+                } catch (final IOException e) {
+                    DebugUtils.handleException("Unblocking the pipes of a failed launch failed", e);
+                }
+            }
+            try {
+                opener.join(PIPE_POLL_MILLIS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        closeQuietly(child.stdin);
+        closeQuietly(child.stdout);
+        closeQuietly(child.stderr);
+        throw failure;
+    }
+
+    /**
+     * Creates a daemon thread named with the prefix of this launcher.
+     */
+    private Thread newThread(final Runnable runnable) {
+        final Thread thread = threadFactory.newThread(runnable);
+        if (thread == null) {
+            throw new IllegalStateException(String.format("The ThreadFactory %s could not construct a thread for '%s'", threadFactory, THREAD_PREFIX));
+        }
+        thread.setName(THREAD_PREFIX + thread.getName());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Helper methods for processes that Java 8 lacks. This class is not part of the public API and could change without warning.
+ *
+ * @since 1.7.0
+ */
+public final class ProcessUtils {
+
+    /**
+     * Gets the native process ID of a process, from {@code Process.pid()} on Java 9 and above and from the field of {@code java.lang.UNIXProcess} on Java 8.
+     *
+     * @param process The process.
+     * @return The process ID.
+     * @throws UnsupportedOperationException if the process ID is not available.
+     */
+    public static long getPid(final Process process) {
+        try {
+            // Java 9 and above
+            return ((Number) Process.class.getMethod("pid").invoke(process)).longValue();
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnsupportedOperationException(e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            // fall through
+        }
+        try {
+            // java.lang.UNIXProcess on Java 8
+            final Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return pid.getLong(process);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            throw new UnsupportedOperationException("The process ID of " + process + " is not available", e);
+        }
+    }
+
+    private ProcessUtils() {
+        // empty
+    }
+}
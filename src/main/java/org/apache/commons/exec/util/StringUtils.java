@@ -109,6 +109,17 @@ public class StringUtils {
         return cleanedArgument;
     }
 
+    /**
+     * Quotes a string as a single word of a POSIX shell, between single quotes, whatever characters it contains.
+     *
+     * @param argument The argument to be quoted.
+     * @return The quoted argument.
+     * @since 1.7.0
+     */
+    public static String quoteShellWord(final String argument) {
+        return SINGLE_QUOTE + argument.replace(SINGLE_QUOTE, "'\\''") + SINGLE_QUOTE;
+    }
+
     /**
      * Split a string into an array of strings based on a separator.
      *
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ArgumentBatcher}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ArgumentBatcherTest {
+
+    /** Prints each argument on its own line. */
+    private static final CommandLine PRINT = new CommandLine("printf").addArgument("%s\\n");
+
+    private static List<String> arguments(final int count) {
+        final List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            arguments.add("file-" + i + ".txt");
+        }
+        return arguments;
+    }
+
+    @Test
+    void testExecute() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // room for a few dozen arguments with an empty environment
+        final ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(PRINT).setEnvironment(Collections.emptyMap()).setMaxCommandLength(3000)
+                .setMaxParallelism(4).setOutputStream(output).get();
+        final List<String> arguments = arguments(1000);
+        final ArgumentBatcher.Result result = batcher.execute(arguments);
+        assertFalse(result.isFailure());
+        assertEquals(0, result.getExitValue());
+        assertTrue(result.getInvocations().size() > 10, result::toString);
+        for (final BatchExecutor.Result invocation : result.getInvocations()) {
+            long size = 0;
+            for (final String part : invocation.getCommandLine().toStrings()) {
+                size += part.length() + 1 + 8;
+            }
+            assertTrue(size <= 3000 - 2048, invocation::toString);
+        }
+        assertEquals(String.join("\n", arguments) + "\n", output.toString());
+    }
+
+    @Test
+    void testExecuteArgumentTooLong() {
+        final ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(PRINT).setEnvironment(Collections.emptyMap()).setMaxCommandLength(2200)
+                .get();
+        final char[] chars = new char[200];
+        Arrays.fill(chars, 'x');
+        assertThrows(IllegalArgumentException.class, () -> batcher.execute(Collections.singletonList(new String(chars))));
+    }
+
+    @Test
+    void testExecuteFailure() throws Exception {
+        // fails on the invocation holding the argument "bad"
+        final CommandLine check = new CommandLine("sh").addArgument("-c").addArgument("for a; do [ \"$a\" = bad ] && exit 5; done; exit 0", false)
+                .addArgument("sh");
+        final ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(check).setMaxArguments(10).setOutputStream(new ByteArrayOutputStream())
+                .get();
+        final List<String> arguments = arguments(100);
+        arguments.set(55, "bad");
+        final ArgumentBatcher.Result result = batcher.execute(arguments);
+        assertEquals(10, result.getInvocations().size());
+        assertTrue(result.isFailure());
+        assertEquals(5, result.getExitValue());
+        assertTrue(result.getInvocations().get(5).isFailure());
+        final ArgumentBatcher failFast = ArgumentBatcher.builder().setCommandLine(check).setMaxArguments(10).setFailFast(true).get();
+        assertEquals(5, assertThrows(ExecuteException.class, () -> failFast.execute(arguments)).getExitValue());
+    }
+
+    @Test
+    void testExecuteMaxArguments() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(PRINT).setMaxArguments(7).setOutputStream(output).get();
+        final ArgumentBatcher.Result result = batcher.execute(arguments(50));
+        assertEquals(8, result.getInvocations().size());
+        // printf, its format and 7 arguments
+        assertEquals(9, result.getInvocations().get(0).getCommandLine().toStrings().length);
+        assertEquals(50, output.toString().split("\n").length);
+        assertEquals(0, batcher.execute(Collections.emptyList()).getInvocations().size());
+    }
+
+    @Test
+    void testExecuteUntrimmedArguments() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ArgumentBatcher batcher = ArgumentBatcher.builder().setCommandLine(PRINT).setMaxArguments(2).setOutputStream(output).get();
+        final List<String> arguments = Arrays.asList(" leading", "trailing ", "with space", "it's", "\"quoted\"");
+        batcher.execute(arguments);
+        assertEquals(String.join("\n", arguments) + "\n", output.toString());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link BatchExecutor}.
+ */
+class BatchExecutorTest {
+
+    private final File testDir = new File("src/test/scripts");
+    private final Path testScript = TestUtil.resolveScriptPathForOS(testDir + "/test");
+    private final Path errorTestScript = TestUtil.resolveScriptPathForOS(testDir + "/error");
+    private final Path sleepScript = TestUtil.resolveScriptPathForOS(testDir + "/sleep");
+
+    private static BatchExecutor.Builder quietBuilder() {
+        return BatchExecutor.builder().setExecutorFactory(c -> DefaultExecutor.builder().setExecuteStreamHandler(new PumpStreamHandler(null, null)).get());
+    }
+
+    private List<CommandLine> commands(final Path... scripts) {
+        final List<CommandLine> commands = new ArrayList<>();
+        for (final Path script : scripts) {
+            commands.add(new CommandLine(script));
+        }
+        return commands;
+    }
+
+    @Test
+    void testBuilder() {
+        assertNotNull(BatchExecutor.builder().get());
+        assertNotNull(BatchExecutor.builder().setExecutorFactory(null).setThreadFactory(null).setTimeout(null).setMaxParallelism(0).get());
+    }
+
+    @Test
+    void testCollectAll() throws Exception {
+        final List<BatchExecutor.Result> results = quietBuilder().setMaxParallelism(2).get()
+                .executeAll(commands(testScript, errorTestScript, testScript, testScript));
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+        }
+        assertFalse(results.get(0).isFailure());
+        assertTrue(results.get(1).isFailure());
+        assertTrue(results.get(1).getException() instanceof ExecuteException);
+        assertFalse(results.get(2).isFailure());
+        assertFalse(results.get(3).isFailure());
+    }
+
+    @Test
+    void testFailFast() {
+        final long startMillis = System.currentTimeMillis();
+        final ExecuteException e = assertThrows(ExecuteException.class,
+                () -> quietBuilder().setMaxParallelism(2).setFailFast(true).get().executeAll(commands(sleepScript, errorTestScript, testScript)));
+        assertEquals(TestUtil.getTestScriptCodesForOS()[1], e.getExitValue());
+        assertTrue(System.currentTimeMillis() - startMillis < 30_000, "The running sleep script should have been destroyed");
+    }
+
+    @Test
+    void testIteratorIsConsumedLazily() throws Exception {
+        final AtomicInteger maxAhead = new AtomicInteger();
+        final AtomicInteger taken = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        final Iterator<CommandLine> commands = new Iterator<CommandLine>() {
+
+            @Override
+            public boolean hasNext() {
+                return taken.get() < 20;
+            }
+
+            @Override
+            public CommandLine next() {
+                maxAhead.accumulateAndGet(taken.incrementAndGet() - delivered.get(), Math::max);
+                return new CommandLine(testScript);
+            }
+        };
+        quietBuilder().setMaxParallelism(3).setOrdered(false).get().executeAll(commands, r -> delivered.incrementAndGet());
+        assertEquals(20, delivered.get());
+        assertTrue(maxAhead.get() <= 3, () -> "Took " + maxAhead.get() + " commands ahead of the results");
+    }
+
+    @Test
+    void testOutputPerCommand() throws Exception {
+        final List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        final BatchExecutor batch = BatchExecutor.builder().setExecutorFactory(c -> {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            synchronized (outputs) {
+                outputs.add(out);
+            }
+            return DefaultExecutor.builder().setExecuteStreamHandler(new PumpStreamHandler(out, out)).get();
+        }).get();
+        final List<BatchExecutor.Result> results = batch.executeAll(Arrays.asList(new CommandLine(testScript), new CommandLine(testScript)));
+        assertEquals(2, results.size());
+        assertEquals(2, outputs.size());
+        for (final ByteArrayOutputStream out : outputs) {
+            assertTrue(out.toString().trim().startsWith("FOO."));
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        final List<BatchExecutor.Result> results = quietBuilder().setTimeout(Duration.ofSeconds(1)).get().executeAll(commands(sleepScript, testScript));
+        assertTrue(results.get(0).isFailure());
+        assertTrue(results.get(0).getDuration().toMillis() < 30_000);
+        assertFalse(results.get(1).isFailure());
+    }
+}
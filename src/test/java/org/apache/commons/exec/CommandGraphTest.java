@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link CommandGraph}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class CommandGraphTest {
+
+    private static CommandLine shell(final String script) {
+        return new CommandLine("sh").addArgument("-c").addArgument(script, false);
+    }
+
+    private static Duration end(final CommandGraph.NodeResult result) {
+        return result.getStartOffset().plus(result.getDuration());
+    }
+
+    private static void assertStartsAfter(final CommandGraph.Report report, final String node, final String dependency) {
+        assertTrue(report.getResult(node).getStartOffset().compareTo(end(report.getResult(dependency))) >= 0, report::toString);
+    }
+
+    @Test
+    void testCycle() {
+        final CommandGraph graph = CommandGraph.builder().get();
+        final CommandGraph.Node a = graph.add("a", new CommandLine("true"));
+        final CommandGraph.Node b = graph.add("b", new CommandLine("true")).dependsOn(a);
+        a.dependsOn(b);
+        assertThrows(IllegalArgumentException.class, graph::execute);
+        assertThrows(IllegalArgumentException.class, () -> graph.add("a", new CommandLine("true")));
+        assertThrows(IllegalArgumentException.class, () -> a.dependsOn(CommandGraph.builder().get().add("c", new CommandLine("true"))));
+    }
+
+    @Test
+    void testExecute() throws Exception {
+        final CommandGraph graph = CommandGraph.builder().setMaxParallelism(4).get();
+        final CommandGraph.Node compile = graph.add("compile", shell("sleep 0.2"));
+        final CommandGraph.Node test1 = graph.add("test-1", shell("sleep 0.1")).dependsOn(compile);
+        final CommandGraph.Node test2 = graph.add("test-2", shell("sleep 0.4")).dependsOn(compile);
+        graph.add("package", shell("sleep 0.1")).dependsOn(test1, test2);
+        final CommandGraph.Report report = graph.execute();
+        assertTrue(report.isSuccess(), report::toString);
+        assertStartsAfter(report, "test-1", "compile");
+        assertStartsAfter(report, "test-2", "compile");
+        assertStartsAfter(report, "package", "test-2");
+        // the shards ran at the same time
+        assertTrue(report.getResult("test-1").getStartOffset().compareTo(end(report.getResult("test-2"))) < 0, report::toString);
+        assertEquals(Arrays.asList("compile", "test-2", "package"),
+                report.getCriticalPath().stream().map(result -> result.getNode().getName()).collect(Collectors.toList()));
+        assertTrue(report.getDuration().compareTo(Duration.ofMillis(700)) >= 0, report::toString);
+    }
+
+    @Test
+    void testFailureCancelsDownstream() throws Exception {
+        final CommandGraph graph = CommandGraph.builder().setMaxParallelism(2).get();
+        final CommandGraph.Node compile = graph.add("compile", shell("exit 2"));
+        final CommandGraph.Node test = graph.add("test", new CommandLine("true")).dependsOn(compile);
+        graph.add("package", new CommandLine("true")).dependsOn(test);
+        graph.add("docs", new CommandLine("true"));
+        final CommandGraph.Report report = graph.execute();
+        assertFalse(report.isSuccess());
+        assertEquals(CommandGraph.Status.FAILED, report.getResult("compile").getStatus());
+        assertEquals(2, report.getResult("compile").getExitValue());
+        assertEquals(CommandGraph.Status.CANCELLED, report.getResult("test").getStatus());
+        assertEquals(CommandGraph.Status.CANCELLED, report.getResult("package").getStatus());
+        assertEquals(CommandGraph.Status.SUCCEEDED, report.getResult("docs").getStatus());
+        assertEquals(4, report.getResults().size());
+    }
+
+    @Test
+    void testInputsAndOutputs() throws Exception {
+        final Path directory = Files.createTempDirectory("commons-exec-graph");
+        try {
+            final Path jar = directory.resolve("app.jar");
+            final CommandGraph graph = CommandGraph.builder().get();
+            // declared first, but reads the output of the second node
+            graph.add("package", shell("test -f " + jar)).setInputs(jar);
+            graph.add("compile", shell("sleep 0.2; touch " + jar)).setOutputs(jar);
+            graph.add("broken", new CommandLine("true")).setOutputs(directory.resolve("missing"));
+            final CommandGraph.Report report = graph.execute();
+            assertEquals(CommandGraph.Status.SUCCEEDED, report.getResult("package").getStatus(), report.toString());
+            assertStartsAfter(report, "package", "compile");
+            assertEquals(CommandGraph.Status.FAILED, report.getResult("broken").getStatus());
+            assertEquals(0, report.getResult("broken").getExitValue());
+        } finally {
+            Files.deleteIfExists(directory.resolve("app.jar"));
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void testResourceLimit() throws Exception {
+        final CommandGraph graph = CommandGraph.builder().setMaxParallelism(4).setResourceLimit("db", 1).get();
+        for (int i = 0; i < 3; i++) {
+            graph.add("db-" + i, shell("sleep 0.1")).setResources("db");
+        }
+        graph.add("free", shell("sleep 0.1"));
+        final CommandGraph.Report report = graph.execute();
+        assertTrue(report.isSuccess(), report::toString);
+        final List<CommandGraph.NodeResult> db = report.getResults().subList(0, 3);
+        for (int i = 0; i < db.size(); i++) {
+            for (int j = i + 1; j < db.size(); j++) {
+                final boolean disjoint = end(db.get(i)).compareTo(db.get(j).getStartOffset()) <= 0
+                        || end(db.get(j)).compareTo(db.get(i).getStartOffset()) <= 0;
+                assertTrue(disjoint, report::toString);
+            }
+        }
+        // the node without resource did not wait for the others
+        assertTrue(report.getResult("free").getStartOffset().compareTo(Duration.ofMillis(100)) < 0, report::toString);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link CommandTemplate}.
+ */
+class CommandTemplateTest {
+
+    private static void assertRendersLikeCommandLine(final CommandLine commandLine, final Map<String, ?> substitutionMap) {
+        final CommandTemplate template = CommandTemplate.compile(commandLine);
+        commandLine.setSubstitutionMap(substitutionMap);
+        assertArrayEquals(commandLine.toStrings(), template.render(substitutionMap));
+        assertArrayEquals(commandLine.toStrings(), template.toCommandLine(substitutionMap).toStrings());
+    }
+
+    @Test
+    void testCompileUnclosedVariable() {
+        assertThrows(IllegalArgumentException.class, () -> CommandTemplate.compile(new CommandLine("cmd").addArgument("${file")));
+        assertThrows(IllegalArgumentException.class, () -> CommandTemplate.compile(new CommandLine("cmd").addArgument("${a b}", false)));
+    }
+
+    @Test
+    void testConstantArgumentsAreShared() {
+        final CommandTemplate template = CommandTemplate.compile(new CommandLine("cmd").addArgument("a b").addArgument("${x}"));
+        assertSame(template.render(null)[1], template.render(null)[1]);
+    }
+
+    @Test
+    void testGetVariableNames() {
+        final CommandTemplate template = CommandTemplate.compile(CommandLine.parse("${tool} -i ${in} -o ${out}.${ext} -i ${in}"));
+        assertEquals(Arrays.asList("tool", "in", "out", "ext"), new ArrayList<>(template.getVariableNames()));
+    }
+
+    @Test
+    void testRender() {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("in", "my file.txt");
+        map.put("out", "out");
+        map.put("n", Integer.valueOf(50));
+        final CommandLine commandLine = new CommandLine("convert").addArgument("${in}").addArgument("-resize").addArgument("${n}%")
+                .addArgument("${out}.${ext}").addArgument("$HOME", false).addArgument("${in}", false);
+        assertArrayEquals(new String[] { "convert", "\"my file.txt\"", "-resize", "50%", "out.${ext}", "$HOME", "my file.txt" },
+                CommandTemplate.compile(commandLine).render(map));
+        assertRendersLikeCommandLine(commandLine, map);
+        // a trailing dollar is literal text
+        assertEquals("cost$", CommandTemplate.compile(new CommandLine("echo").addArgument("cost$")).render(map)[1]);
+    }
+
+    @Test
+    void testRenderBothQuotes() {
+        final CommandTemplate template = CommandTemplate.compile(new CommandLine("echo").addArgument("${text}"));
+        assertThrows(IllegalArgumentException.class, () -> template.render(Collections.singletonMap("text", "'\"")));
+    }
+
+    @Test
+    void testRenderExecutableAndFile() {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("JAVA_HOME", "/opt/java");
+        map.put("file", new File("some/file"));
+        assertRendersLikeCommandLine(new CommandLine("${JAVA_HOME}/bin/java").addArgument("-jar").addArgument("${file}"), map);
+    }
+
+    @Test
+    void testRenderWithoutValues() {
+        final CommandLine commandLine = CommandLine.parse("cp ${from} \"${to} dir\"");
+        assertArrayEquals(new String[] { "cp", "${from}", "\"${to} dir\"" }, CommandTemplate.compile(commandLine).render(null));
+        assertRendersLikeCommandLine(commandLine, new HashMap<>());
+    }
+
+    @Test
+    void testToCommandLineKeepsRenderedArguments() {
+        final CommandTemplate template = CommandTemplate.compile(new CommandLine("printf").addArgument("${format}", false));
+        final CommandLine commandLine = template.toCommandLine(Collections.singletonMap("format", " %s "));
+        assertArrayEquals(new String[] { "printf", " %s " }, commandLine.toStrings());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link CompressingOutputStream}.
+ */
+class CompressingOutputStreamTest {
+
+    private static byte[] gunzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void testInvalidLevel() {
+        assertThrows(IllegalArgumentException.class, () -> CompressingOutputStream.builder().setLevel(10));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcessOutput() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final CompressingOutputStream archive = CompressingOutputStream.builder().setOutputStream(target).get();
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setStreamHandler(new PumpStreamHandler(archive));
+        executor.execute(new CommandLine("seq").addArgument("1").addArgument("100000"));
+        archive.close();
+        final String text = new String(gunzip(target.toByteArray()), StandardCharsets.US_ASCII);
+        assertTrue(text.startsWith("1\n2\n") && text.endsWith("\n100000\n"));
+        assertEquals(text.length(), archive.getRawByteCount());
+        assertEquals(target.size(), archive.getCompressedByteCount());
+        assertTrue(archive.getCompressedByteCount() * 2 < archive.getRawByteCount(), () -> archive.getCompressedByteCount() + " compressed bytes");
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        final byte[] data = new byte[1_000_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("0123456789abcdef".charAt(i * 7 % 16) ^ i / 4096);
+        }
+        for (final int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION }) {
+            final ByteArrayOutputStream target = new ByteArrayOutputStream();
+            try (CompressingOutputStream out = CompressingOutputStream.builder().setOutputStream(target).setLevel(level).setBlockSize(1000)
+                    .setMaxQueuedBlocks(2).get()) {
+                for (int i = 0; i < data.length; i += 777) {
+                    out.write(data, i, Math.min(777, data.length - i));
+                }
+                out.write('!');
+            }
+            final byte[] expected = new byte[data.length + 1];
+            System.arraycopy(data, 0, expected, 0, data.length);
+            expected[data.length] = '!';
+            assertArrayEquals(expected, gunzip(target.toByteArray()));
+        }
+    }
+
+    @Test
+    void testTargetFailure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final OutputStream failing = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                try {
+                    // fail on the GZIP header, once the writer is waiting on the full queue
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("disk full");
+            }
+        };
+        final CompressingOutputStream out = CompressingOutputStream.builder().setOutputStream(failing).setBlockSize(16).setMaxQueuedBlocks(1).get();
+        final AtomicReference<IOException> thrown = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100_000; i++) {
+                    out.write(new byte[16]);
+                }
+                out.close();
+            } catch (final IOException e) {
+                thrown.set(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(200);
+        release.countDown();
+        writer.join(10_000);
+        assertFalse(writer.isAlive());
+        final IOException e = thrown.get();
+        assertTrue(e != null && e.getCause() != null && "disk full".equals(e.getCause().getMessage()), String.valueOf(e));
+        // closing after the failure does not wait either, and reports it
+        assertThrows(IOException.class, out::close);
+    }
+}
@@ -43,6 +43,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.exec.environment.EnvironmentUtils;
+import org.apache.commons.exec.launcher.AdmissionControlCommandLauncher;
 import org.apache.commons.lang3.SystemProperties;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -191,6 +192,22 @@ class DefaultExecutorTest {
         assertEquals(Paths.get("."), exec.getWorkingDirectoryPath());
     }
 
+    /**
+     * Executes a script through an admission controlled launcher and checks that the slot is given back.
+     *
+     * @throws Exception the test failed
+     */
+    @Test
+    void testExecuteWithAdmissionControl() throws Exception {
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setMaxConcurrency(1).get();
+        final DefaultExecutor executor = DefaultExecutor.builder().setCommandLauncher(launcher).setExecuteStreamHandler(new PumpStreamHandler(baos, baos))
+                .get();
+        assertEquals(0, executor.execute(new CommandLine(testScript)));
+        assertEquals(0, executor.execute(new CommandLine(testScript)));
+        assertEquals("FOO..\nFOO..", baos.toString().trim().replace("\r", ""));
+        assertEquals(0, launcher.getRunningCount());
+    }
+
     /**
      * Start an asynchronous process which returns a success exit value.
      *
@@ -485,6 +502,25 @@ class DefaultExecutorTest {
         fail("Process did not create ExecuteException when killed");
     }
 
+    /**
+     * Start a script looping forever without writing to its output streams and check if the idle timeout of the ExecuteWatchdog kicks in long before the
+     * regular timeout.
+     *
+     * @throws Exception the test failed
+     */
+    @Test
+    void testExecuteWatchdogIdleTimeout() throws Exception {
+        final CommandLine cl = new CommandLine(foreverTestScript);
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setWorkingDirectory(new File("."));
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setTimeout(Duration.ofMinutes(5)).setIdleTimeout(Duration.ofSeconds(2)).get();
+        executor.setWatchdog(watchdog);
+        final long startMillis = System.currentTimeMillis();
+        assertThrows(ExecuteException.class, () -> executor.execute(cl));
+        assertTrue(watchdog.killedProcess(), "Killed process should be true");
+        assertTrue(System.currentTimeMillis() - startMillis < WAITFOR_TIMEOUT, "The idle timeout should have killed the process");
+    }
+
     /**
      * [EXEC-68] Synchronously starts a short script with a Watchdog attached with an extremely large timeout. Checks to see if the script terminated naturally
      * or if it was killed by the Watchdog. Fail if killed by Watchdog.
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link DelimitedOutputStream}.
+ */
+class DelimitedOutputStreamTest {
+
+    private static List<String> split(final String text, final String delimiter, final int maxRecordLength, final int writeSize) throws Exception {
+        final List<String> records = new ArrayList<>();
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try (DelimitedOutputStream out = DelimitedOutputStream.builder().setDelimiter(delimiter.getBytes(StandardCharsets.UTF_8))
+                .setMaxRecordLength(maxRecordLength).setCharset(StandardCharsets.UTF_8).setStringConsumer(records::add).get()) {
+            for (int i = 0; i < bytes.length; i += writeSize) {
+                out.write(bytes, i, Math.min(writeSize, bytes.length - i));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void testMaxRecordLength() throws Exception {
+        for (final int writeSize : new int[] { 1, 3, 100 }) {
+            assertEquals(Arrays.asList("abcd", "efgh", "ij", "k"), split("abcdefghij<>\n<>k", "<>\n<>", 4, writeSize), "write size " + writeSize);
+        }
+    }
+
+    @Test
+    void testMultiByteDelimiterAcrossWrites() throws Exception {
+        for (int writeSize = 1; writeSize <= 12; writeSize++) {
+            assertEquals(Arrays.asList("a", "b\r", "\n", "c", "d"), split("a\r\nb\r\r\n\n\r\nc\r\nd", "\r\n", 100, writeSize), "write size " + writeSize);
+        }
+        // a delimiter with a repeated prefix
+        assertEquals(Arrays.asList("x", "aby"), split("xaabaabyaaba", "aaba", 100, 1));
+    }
+
+    @Test
+    void testNulDelimiter() throws Exception {
+        assertEquals(Arrays.asList("one", "two\nlines", "", "three"), split("one\0two\nlines\0\0three\0", "\0", 100, 100));
+        assertEquals(Collections.emptyList(), split("", "\0", 100, 100));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcessOutput() throws Exception {
+        final Path dir = Files.createTempDirectory("delimited");
+        try {
+            Files.createFile(dir.resolve("with\nnewline"));
+            Files.createFile(dir.resolve("plain"));
+            final List<String> files = new ArrayList<>();
+            final DefaultExecutor executor = DefaultExecutor.builder().get();
+            executor.setStreamHandler(new PumpStreamHandler(DelimitedOutputStream.builder().setDelimiter((byte) 0).setStringConsumer(files::add).get()));
+            executor.execute(new CommandLine("find").addArgument(dir.toString()).addArgument("-type").addArgument("f").addArgument("-print0"));
+            Collections.sort(files);
+            assertEquals(Arrays.asList(dir.resolve("plain").toString(), dir.resolve("with\nnewline").toString()), files);
+        } finally {
+            Files.deleteIfExists(dir.resolve("with\nnewline"));
+            Files.deleteIfExists(dir.resolve("plain"));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testRandomAgainstSplit() throws Exception {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(60); i > 0; i--) {
+                text.append("ab|".charAt(random.nextInt(3)));
+            }
+            final String delimiter = "a|".substring(random.nextInt(2));
+            final List<String> expected = new ArrayList<>(Arrays.asList(text.toString().split(Pattern.quote(delimiter), -1)));
+            // no record after a final delimiter
+            if (expected.get(expected.size() - 1).isEmpty()) {
+                expected.remove(expected.size() - 1);
+            }
+            assertEquals(expected, split(text.toString(), delimiter, 1000, 1 + random.nextInt(7)), text + " / " + delimiter);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link DigestingOutputStream}.
+ */
+class DigestingOutputStreamTest {
+
+    @Test
+    void testDigests() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final CRC32 crc = new CRC32();
+        final DigestingOutputStream out = DigestingOutputStream.builder().setOutputStream(target).setAlgorithms("SHA-256", "MD5").setChecksums(crc).get();
+        out.write("hello ".getBytes(StandardCharsets.US_ASCII));
+        out.write('w');
+        out.write("xorldx".getBytes(StandardCharsets.US_ASCII), 1, 4);
+        assertThrows(IllegalStateException.class, () -> out.getDigest("MD5"));
+        out.close();
+        assertEquals("hello world", target.toString());
+        assertEquals(11, out.getByteCount());
+        assertEquals("b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9", out.getDigestHex("SHA-256"));
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest("hello world".getBytes(StandardCharsets.US_ASCII)), out.getDigest("MD5"));
+        assertEquals(0x0d4a1185L, crc.getValue());
+        assertThrows(IllegalArgumentException.class, () -> out.getDigest("SHA-1"));
+        assertThrows(IOException.class, () -> out.write('x'));
+    }
+
+    @Test
+    void testInvalidAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> DigestingOutputStream.builder().setAlgorithms("NO-SUCH-DIGEST").get());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcessOutput() throws Exception {
+        final DigestingOutputStream out = DigestingOutputStream.builder().setAlgorithms("SHA-256").get();
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setStreamHandler(new PumpStreamHandler(out));
+        executor.execute(new CommandLine("head").addArgument("-c").addArgument("1000000").addArgument("/dev/zero"));
+        out.close();
+        assertEquals(1000000, out.getByteCount());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(new byte[1000000]), out.getDigest("SHA-256"));
+    }
+}
@@ -20,12 +20,17 @@
 package org.apache.commons.exec;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 
 /**
  * Tests {@link ExecuteWatchdog}.
@@ -41,4 +46,38 @@ class ExecuteWatchdogTest {
         assertNotNull(ExecuteWatchdog.builder().setThreadFactory(null).get());
         assertNotNull(ExecuteWatchdog.builder().setThreadFactory(null).setTimeout(Duration.ofMinutes(1)).get().getWatchdog().getThreadFactory());
     }
+
+    @Test
+    void testBuilderIdleTimeout() {
+        assertFalse(ExecuteWatchdog.builder().get().hasIdleTimeout());
+        assertFalse(ExecuteWatchdog.builder().setIdleTimeout(null).get().hasIdleTimeout());
+        assertTrue(ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMinutes(1)).get().hasIdleTimeout());
+        assertNull(ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMinutes(1)).get().getWatchdog());
+        assertEquals(Duration.ofMinutes(1), ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMinutes(1)).get().getIdleWatchdog().getTimeout());
+    }
+
+    @Test
+    void testBuilderResourceLimits() {
+        assertEquals(Duration.ZERO, ExecuteWatchdog.builder().get().getCpuTime());
+        assertEquals(0, ExecuteWatchdog.builder().get().getPeakResidentSetSize());
+        assertNotNull(ExecuteWatchdog.builder().setCpuTimeLimit(Duration.ofMinutes(1)).setResidentSetSizeLimit(1 << 30).get());
+        assertNotNull(ExecuteWatchdog.builder().setCpuTimeLimit(null).setResidentSetSizeLimit(-1).setSampleInterval(null).get());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testIdleTimeoutWithFlowStreamHandler() throws Exception {
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(FlowStreamHandler.builder().get()).get();
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMillis(500)).get();
+        executor.setWatchdog(watchdog);
+        // writes for three times the idle timeout, never silent for long
+        final String script = "i=0; while [ $i -lt 15 ]; do echo tick; sleep 0.1; i=$((i + 1)); done";
+        assertEquals(0, executor.execute(new CommandLine("sh").addArgument("-c").addArgument(script, false)));
+        assertFalse(watchdog.killedProcess());
+        final DefaultExecutor silent = DefaultExecutor.builder().setExecuteStreamHandler(FlowStreamHandler.builder().get()).get();
+        final ExecuteWatchdog silentWatchdog = ExecuteWatchdog.builder().setIdleTimeout(Duration.ofMillis(500)).get();
+        silent.setWatchdog(silentWatchdog);
+        assertThrows(ExecuteException.class, () -> silent.execute(new CommandLine("sh").addArgument("-c").addArgument("exec sleep 30", false)));
+        assertTrue(silentWatchdog.killedProcess());
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ExpectSession}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ExpectSessionTest {
+
+    private static ExpectSession.Builder shell(final String script) {
+        return ExpectSession.builder().setCommandLine(new CommandLine("sh").addArgument("-c").addArgument(script, false)).setCharset(StandardCharsets.UTF_8)
+                .setTimeout(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void testDialog() throws Exception {
+        try (ExpectSession session = shell("printf 'Name: '; read name; printf 'Overwrite (y/n)? '; read answer; echo \"$name said $answer\"").get()) {
+            assertEquals("", session.expect("Name: ").getBefore());
+            session.sendLine("joe");
+            final ExpectSession.Match match = session.expect("Password: ", "(y/n)? ");
+            assertEquals(1, match.getIndex());
+            assertEquals("(y/n)? ", match.getLiteral());
+            assertEquals("Overwrite ", match.getBefore());
+            session.sendLine("y");
+            assertEquals("joe said y\n", session.expectEnd(Duration.ofSeconds(10)));
+            assertEquals(0, session.waitFor(Duration.ofSeconds(10)));
+            assertFalse(session.isAlive());
+        }
+    }
+
+    @Test
+    void testEndBeforeMatch() throws Exception {
+        try (ExpectSession session = shell("echo bye; exit 3").get()) {
+            final ExecuteException e = assertThrows(ExecuteException.class, () -> session.expect("never"));
+            assertEquals(3, e.getExitValue());
+            assertEquals("bye\n", session.expectEnd(Duration.ofSeconds(10)));
+        }
+    }
+
+    @Test
+    void testOverlappingLiterals() throws Exception {
+        // each literal is found where it ends first; the earlier literal wins a tie
+        try (ExpectSession session = shell("printf 'she sells sea shells'; sleep 0.2; printf ' on the seashore'; exec sleep 10").get()) {
+            assertEquals("he", session.expect("hers", "he", "she").getLiteral());
+            assertEquals(" ", session.expect("sea", "sells").getBefore());
+            assertEquals("sea", session.expect("sea", "shells").getLiteral());
+            assertEquals("shells", session.expect("shells", "ells").getLiteral());
+            assertEquals(" on the ", session.expect("seashore").getBefore());
+        }
+    }
+
+    @Test
+    void testStandardErrorAndTimeout() throws Exception {
+        try (ExpectSession session = shell("printf 'password: ' >&2; exec sleep 10").get()) {
+            session.expect("password: ");
+            assertThrows(InterruptedIOException.class, () -> session.expect(Duration.ofMillis(200), "never"));
+            assertTrue(session.isAlive());
+        }
+        assertThrows(IllegalArgumentException.class, () -> shell("true").get().expect(""));
+    }
+
+    @Test
+    void testWindow() throws Exception {
+        try (ExpectSession session = shell("i=0; while [ $i -lt 2000 ]; do echo line $i; i=$((i + 1)); done; echo done").setMaxBufferSize(1024).get()) {
+            final ExpectSession.Match match = session.expect("done");
+            assertTrue(match.getBefore().length() <= 1024, () -> Integer.toString(match.getBefore().length()));
+            assertTrue(match.getBefore().endsWith("line 1999\n"));
+        }
+    }
+}
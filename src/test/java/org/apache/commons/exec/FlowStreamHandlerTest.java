@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link FlowStreamHandler}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class FlowStreamHandlerTest {
+
+    /**
+     * Collects the chunks, requesting them as told.
+     */
+    private static final class Collector implements FlowStreamHandler.Subscriber<ByteBuffer> {
+
+        final AtomicInteger chunks = new AtomicInteger();
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        final long initialRequest;
+
+        volatile FlowStreamHandler.Subscription subscription;
+
+        Collector(final long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public synchronized void onNext(final ByteBuffer item) {
+            chunks.incrementAndGet();
+            output.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+        }
+
+        @Override
+        public void onSubscribe(final FlowStreamHandler.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+    }
+
+    private static CommandLine shell(final String script) {
+        return new CommandLine("sh").addArgument("-c").addArgument(script, false);
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        final FlowStreamHandler handler = FlowStreamHandler.builder().setChunkSize(1000).get();
+        final Collector collector = new Collector(1);
+        handler.getOutputPublisher().subscribe(collector);
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(new CommandLine("head").addArgument("-c").addArgument("1000000").addArgument("/dev/zero"), resultHandler);
+        Thread.sleep(500);
+        // without demand the pipe fills up and the process blocks
+        assertFalse(resultHandler.hasResult());
+        assertEquals(1, collector.chunks.get());
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.done.get(10, TimeUnit.SECONDS);
+        resultHandler.waitFor(Duration.ofSeconds(10));
+        assertEquals(0, resultHandler.getExitValue());
+        assertEquals(1000000, collector.output.size());
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        final FlowStreamHandler handler = FlowStreamHandler.builder().get();
+        final Collector collector = new Collector(0);
+        handler.getOutputPublisher().subscribe(collector);
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setExitValues(null);
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(new CommandLine("yes"), resultHandler);
+        collector.subscription.cancel();
+        // the closed pipe terminates the process
+        resultHandler.waitFor(Duration.ofSeconds(10));
+        assertTrue(resultHandler.hasResult());
+        assertFalse(collector.done.isDone());
+    }
+
+    @Test
+    void testKilledWithoutDemand() throws Exception {
+        final FlowStreamHandler handler = FlowStreamHandler.builder().setStopTimeout(Duration.ofMillis(200)).get();
+        final Collector collector = new Collector(0);
+        handler.getOutputPublisher().subscribe(collector);
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setWatchdog(ExecuteWatchdog.builder().setTimeout(Duration.ofMillis(200)).get());
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(shell("echo unread; exec sleep 30"), resultHandler);
+        resultHandler.waitFor(Duration.ofSeconds(10));
+        assertTrue(resultHandler.hasResult());
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> collector.done.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ExecuteException, e::toString);
+        assertEquals(0, collector.chunks.get());
+    }
+
+    @Test
+    void testInputPublisher() throws Exception {
+        final List<String> lines = Arrays.asList("one\n", "two\n", "three\n");
+        final FlowStreamHandler.Publisher<ByteBuffer> input = subscriber -> subscriber.onSubscribe(new FlowStreamHandler.Subscription() {
+            private final Iterator<String> iterator = lines.iterator();
+
+            @Override
+            public void cancel() {
+                // empty
+            }
+
+            @Override
+            public void request(final long n) {
+                if (iterator.hasNext()) {
+                    subscriber.onNext(ByteBuffer.wrap(iterator.next().getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+        });
+        final FlowStreamHandler handler = FlowStreamHandler.builder().setInputPublisher(input).get();
+        final Collector output = new Collector(Long.MAX_VALUE);
+        final Collector error = new Collector(Long.MAX_VALUE);
+        handler.getOutputPublisher().subscribe(output);
+        handler.getErrorPublisher().subscribe(error);
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        assertEquals(0, executor.execute(shell("cat; echo done >&2")));
+        assertNull(output.done.get(10, TimeUnit.SECONDS));
+        assertEquals("one\ntwo\nthree\n", output.output.toString());
+        assertEquals("done\n", error.output.toString());
+    }
+
+    @Test
+    void testSingleSubscriber() throws Exception {
+        final FlowStreamHandler handler = FlowStreamHandler.builder().get();
+        handler.getOutputPublisher().subscribe(new Collector(Long.MAX_VALUE));
+        final Collector second = new Collector(Long.MAX_VALUE);
+        handler.getOutputPublisher().subscribe(second);
+        assertTrue(second.done.isCompletedExceptionally());
+        // the unsubscribed standard error is discarded
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        assertEquals(0, executor.execute(shell("head -c 1000000 /dev/zero >&2")));
+    }
+}
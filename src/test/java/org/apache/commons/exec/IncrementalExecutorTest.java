@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link IncrementalExecutor}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class IncrementalExecutorTest {
+
+    private Path directory;
+
+    /** Counts the executions. */
+    private final AtomicInteger executions = new AtomicInteger();
+
+    private IncrementalExecutor.Builder builder() {
+        final Supplier<Executor> executorFactory = () -> new DefaultExecutor(DefaultExecutor.builder()) {
+            @Override
+            public int execute(final CommandLine command, final Map<String, String> environment) throws IOException {
+                executions.incrementAndGet();
+                return super.execute(command, environment);
+            }
+        };
+        return IncrementalExecutor.builder().setStateFile(directory.resolve("state/exec-state")).setExecutorFactory(executorFactory);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("commons-exec-incremental");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private IncrementalExecutor.Task copy(final Path input, final Path output) {
+        return new IncrementalExecutor.Task(new CommandLine("cp").addArgument(input.toString()).addArgument(output.toString())).addInputs(input)
+                .addOutputs(output);
+    }
+
+    private String state() throws IOException {
+        return new String(Files.readAllBytes(directory.resolve("state/exec-state")), StandardCharsets.UTF_8);
+    }
+
+    private void touch(final Path path, final long millis) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(millis));
+    }
+
+    @Test
+    void testContentHash() throws Exception {
+        final Path input = Files.write(directory.resolve("in.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        final Path output = directory.resolve("out.txt");
+        final IncrementalExecutor incremental = builder().setContentHash(true).get();
+        assertTrue(incremental.execute(copy(input, output)));
+        touch(input, 1_000_000);
+        assertFalse(incremental.execute(copy(input, output)));
+        // same modification time, but a different size
+        Files.write(input, "bb".getBytes(StandardCharsets.UTF_8));
+        touch(input, 1_000_000);
+        assertTrue(incremental.execute(copy(input, output)));
+        assertEquals("bb", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExecute() throws Exception {
+        final Path input = Files.write(directory.resolve("in.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        final Path output = directory.resolve("out.txt");
+        final IncrementalExecutor incremental = builder().get();
+        assertTrue(incremental.execute(copy(input, output)));
+        assertFalse(incremental.execute(copy(input, output)));
+        assertEquals(1, executions.get());
+        // a fresh instance reads the state file
+        assertFalse(builder().get().execute(copy(input, output)));
+        // touching the input
+        touch(input, 1_000_000);
+        assertTrue(incremental.execute(copy(input, output)));
+        // a missing output
+        Files.delete(output);
+        assertTrue(incremental.execute(copy(input, output)));
+        // a different environment
+        assertTrue(incremental.execute(copy(input, output).setEnvironment(Collections.singletonMap("A", "1"))));
+        assertFalse(incremental.execute(copy(input, output).setEnvironment(Collections.singletonMap("A", "1"))));
+        // a different command line
+        final IncrementalExecutor.Task append = new IncrementalExecutor.Task(new CommandLine("sh").addArgument("-c")
+                .addArgument("cat " + input + " " + input + " > " + output, false)).addInputs(input).addOutputs(output);
+        assertTrue(incremental.execute(append));
+        assertFalse(incremental.execute(append));
+        assertEquals("aa", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExecuteFailure() throws Exception {
+        final Path input = Files.write(directory.resolve("in.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        final Path output = Files.write(directory.resolve("out.txt"), new byte[0]);
+        final IncrementalExecutor incremental = builder().get();
+        final IncrementalExecutor.Task failing = new IncrementalExecutor.Task(new CommandLine("false")).addInputs(input).addOutputs(output);
+        assertThrows(ExecuteException.class, () -> incremental.execute(failing));
+        assertThrows(ExecuteException.class, () -> incremental.execute(failing));
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    void testExecuteFailureIsPersisted() throws Exception {
+        final Path input = Files.write(directory.resolve("in.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        final Path output = directory.resolve("out.txt");
+        final Path fail = directory.resolve("fail");
+        final IncrementalExecutor.Task task = new IncrementalExecutor.Task(new CommandLine("sh").addArgument("-c")
+                .addArgument("echo broken > " + output + "; test ! -f " + fail + " && cp " + input + " " + output, false)).addInputs(input)
+                .addOutputs(output);
+        assertTrue(builder().setContentHash(true).get().execute(task));
+        // a failed run with changed inputs clobbers the output
+        Files.write(input, "b".getBytes(StandardCharsets.UTF_8));
+        Files.createFile(fail);
+        assertThrows(ExecuteException.class, () -> builder().setContentHash(true).get().execute(task));
+        Files.delete(fail);
+        // reverting the inputs does not make the broken output up to date in a new JVM
+        Files.write(input, "a".getBytes(StandardCharsets.UTF_8));
+        assertTrue(builder().setContentHash(true).get().execute(task));
+        assertEquals("a", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testGlob() throws Exception {
+        final Path sources = Files.createDirectories(directory.resolve("src/sub"));
+        for (int i = 0; i < 1000; i++) {
+            Files.write(sources.resolve(i + ".proto"), Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+        }
+        final Path readme = Files.write(sources.resolve("README"), new byte[0]);
+        final Path output = directory.resolve("count.txt");
+        final IncrementalExecutor incremental = builder().setMaxParallelism(4).get();
+        final IncrementalExecutor.Task count = new IncrementalExecutor.Task(new CommandLine("sh").addArgument("-c")
+                .addArgument("ls " + sources + " | wc -l > " + output, false)).addInputs(directory.resolve("src"), "**/*.proto").addOutputs(output);
+        assertTrue(incremental.execute(count));
+        assertFalse(incremental.execute(count));
+        // not matched by the pattern
+        touch(readme, 1_000_000);
+        assertFalse(incremental.execute(count));
+        Files.write(sources.resolve("new.proto"), new byte[0]);
+        assertTrue(incremental.execute(count));
+        Files.delete(sources.resolve("new.proto"));
+        assertTrue(incremental.execute(count));
+        assertFalse(incremental.execute(count));
+    }
+
+    @Test
+    void testStateKeepsOnlyCurrentInputs() throws Exception {
+        final Path first = Files.write(directory.resolve("first.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        final Path second = Files.write(directory.resolve("second.txt"), "b".getBytes(StandardCharsets.UTF_8));
+        final Path output = directory.resolve("out.txt");
+        final IncrementalExecutor incremental = builder().get();
+        assertTrue(incremental.execute(copy(first, output)));
+        assertTrue(state().contains(first.toString()));
+        // the same task, identified by its output, now with another input
+        assertTrue(incremental.execute(copy(second, output)));
+        assertFalse(state().contains(first.toString()));
+        assertTrue(state().contains(second.toString()));
+        // the inputs of a task are known to a new instance
+        assertFalse(builder().get().execute(copy(second, output)));
+        assertTrue(state().contains(second.toString()));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link InterleavedCapture}.
+ */
+class InterleavedCaptureTest {
+
+    @Test
+    void testConcurrentWritesAreNotTorn() throws Exception {
+        final InterleavedCapture capture = InterleavedCapture.builder().get();
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (final OutputStream out : Arrays.asList(capture.getOutputStream(), capture.getErrorStream())) {
+            final byte[] line = (out == capture.getOutputStream() ? "out-line\n" : "ERROR-LINE\n").getBytes();
+            final Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                    for (int i = 0; i < 10000; i++) {
+                        out.write(line);
+                    }
+                } catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20000, capture.getRecordCount());
+        final int[] counts = new int[2];
+        capture.replay((source, nanos, bytes, offset, length) -> {
+            final String line = new String(bytes, offset, length);
+            assertEquals(source == InterleavedCapture.Source.OUTPUT ? "out-line\n" : "ERROR-LINE\n", line);
+            counts[source.ordinal()]++;
+            assertTrue(nanos >= 0);
+        });
+        assertArrayEquals(new int[] { 10000, 10000 }, counts);
+    }
+
+    @Test
+    void testLimits() throws Exception {
+        final InterleavedCapture capture = InterleavedCapture.builder().setMaxBytes(10).setMaxRecords(3).get();
+        capture.getOutputStream().write("0123".getBytes());
+        capture.getOutputStream().write("4567890".getBytes());
+        capture.getOutputStream().write("ab".getBytes());
+        capture.getOutputStream().write("cd".getBytes());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capture.writeTo(out);
+        assertEquals("0123ab", out.toString());
+        assertEquals(9, capture.getDroppedByteCount());
+        assertEquals(3, capture.getRecordCount());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcessOrder() throws Exception {
+        final InterleavedCapture capture = InterleavedCapture.builder().get();
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setStreamHandler(new PumpStreamHandler(capture.getOutputStream(), capture.getErrorStream()));
+        executor.execute(new CommandLine("sh").addArgument("-c").addArgument("echo one; sleep 0.2; echo two >&2; sleep 0.2; echo three", false));
+        final StringBuilder builder = new StringBuilder();
+        capture.replay((source, nanos, bytes, offset, length) -> builder.append(source).append(':').append(new String(bytes, offset, length)));
+        assertEquals("OUTPUT:one\nERROR:two\nOUTPUT:three\n", builder.toString());
+    }
+
+    @Test
+    void testRecordSpanningChunks() throws Exception {
+        final InterleavedCapture capture = InterleavedCapture.builder().get();
+        final byte[] big = new byte[200_000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        capture.getErrorStream().write('x');
+        capture.getOutputStream().write(big);
+        final List<byte[]> records = new ArrayList<>();
+        capture.replay((source, nanos, bytes, offset, length) -> records.add(Arrays.copyOfRange(bytes, offset, offset + length)));
+        assertEquals(2, records.size());
+        assertArrayEquals(new byte[] { 'x' }, records.get(0));
+        assertArrayEquals(big, records.get(1));
+    }
+}
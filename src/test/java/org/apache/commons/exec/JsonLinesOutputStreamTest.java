@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link JsonLinesOutputStream}.
+ */
+class JsonLinesOutputStreamTest {
+
+    private final List<Object> records = new ArrayList<>();
+
+    private final List<String> errors = new ArrayList<>();
+
+    private JsonLinesOutputStream.Builder builder() {
+        return JsonLinesOutputStream.builder().setConsumer(records::add).setErrorHandler((line, e) -> errors.add(line + ": " + e.getMessage()));
+    }
+
+    @Test
+    void testErrorIsolation() throws Exception {
+        try (JsonLinesOutputStream out = builder().get()) {
+            out.write("{\"a\":1}\n{\"a\":\n[1,2,]\n\n\"ok\"\n{} x\n01\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(4, out.getErrorCount());
+            assertEquals(2, out.getRecordCount());
+        }
+        assertEquals(Arrays.asList(Collections.singletonMap("a", 1L), "ok"), records);
+        assertEquals(Arrays.asList("2: Unexpected end of record at byte 5", "3: Unexpected character at byte 5", "6: Unexpected data after the value at byte 3",
+                "7: Unexpected data after the value at byte 1"), errors);
+    }
+
+    @Test
+    void testMaxRecordSize() throws Exception {
+        try (JsonLinesOutputStream out = builder().setMaxRecordSize(10).get()) {
+            out.write("[1]\n[\"0123".getBytes(StandardCharsets.UTF_8));
+            out.write("456789\"".getBytes(StandardCharsets.UTF_8));
+            out.write("]\n\"0123456789\"\n[2]".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(Arrays.asList(Collections.singletonList(1L), Collections.singletonList(2L)), records);
+        assertEquals(Arrays.asList("2: Record longer than 10 bytes", "3: Record longer than 10 bytes"), errors);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcessOutput() throws Exception {
+        final JsonLinesOutputStream out = builder().get();
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setStreamHandler(new PumpStreamHandler(out));
+        executor.execute(new CommandLine("sh").addArgument("-c").addArgument("for i in 1 2 3; do echo \"{\\\"n\\\": $i}\"; done", false));
+        assertEquals(3, out.getRecordCount());
+        assertEquals(Collections.singletonMap("n", 3L), records.get(2));
+    }
+
+    @Test
+    void testSplitWrites() throws Exception {
+        final byte[] bytes = "{\"k\": [true, false, null, -1.5e2, 12345678901234567890, \"\\u00e9\\n\u00e8\"]}\r\n".getBytes(StandardCharsets.UTF_8);
+        try (JsonLinesOutputStream out = builder().get()) {
+            for (final byte b : bytes) {
+                out.write(b);
+            }
+        }
+        final Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("k", Arrays.asList(true, false, null, -150.0, new BigInteger("12345678901234567890"), "\u00e9\n\u00e8"));
+        assertEquals(Collections.singletonList(expected), records);
+        assertEquals(Collections.emptyList(), errors);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link LineFilterOutputStream}.
+ */
+class LineFilterOutputStreamTest {
+
+    private static final String LOG = "DEBUG a\nINFO b\nDEBUG c\nWARN d: disk full\nINFO e: retry\nDEB\n\nERROR f\nINFO last";
+
+    /**
+     * Writes the input in chunks of the given size, so that lines, prefixes and literals span writes.
+     */
+    private static String filter(final LineFilterOutputStream.Builder builder, final String input, final int chunkSize) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (LineFilterOutputStream filter = builder.setOutputStream(output).get()) {
+            final byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i += chunkSize) {
+                filter.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+            }
+        }
+        return output.toString();
+    }
+
+    private static void assertFilter(final String expected, final LineFilterOutputStream.Builder builder) throws IOException {
+        for (final int chunkSize : new int[] { 1, 2, 3, 7, 1000 }) {
+            assertEquals(expected, filter(builder, LOG, chunkSize), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void testCounts() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final LineFilterOutputStream filter = LineFilterOutputStream.builder().setOutputStream(output).setDropPrefixes("DEBUG").get();
+        filter.write(LOG.getBytes(StandardCharsets.UTF_8));
+        filter.close();
+        assertEquals(2, filter.getDroppedLineCount());
+        assertEquals(7, filter.getWrittenLineCount());
+    }
+
+    @Test
+    void testDrop() throws IOException {
+        assertFilter("INFO b\nWARN d: disk full\nINFO e: retry\nDEB\n\nERROR f\nINFO last", LineFilterOutputStream.builder().setDropPrefixes("DEBUG"));
+        assertFilter("DEBUG a\nINFO b\nDEBUG c\nDEB\n\nERROR f\nINFO last", LineFilterOutputStream.builder().setDropLiterals(": ", "full"));
+        assertFilter("INFO b\nDEB\n\nERROR f\nINFO last", LineFilterOutputStream.builder().setDropPrefixes("DEBUG", "WARN").setDropLiterals("retry"));
+        assertFilter(LOG, LineFilterOutputStream.builder());
+    }
+
+    @Test
+    void testKeep() throws IOException {
+        assertFilter("WARN d: disk full\nERROR f\n", LineFilterOutputStream.builder().setKeepPrefixes("WARN", "ERROR"));
+        assertFilter("WARN d: disk full\nINFO e: retry\nERROR f\n", LineFilterOutputStream.builder().setKeepPrefixes("ERROR").setKeepLiterals(": "));
+        // a drop literal wins over a keep prefix
+        assertFilter("INFO b\nINFO last", LineFilterOutputStream.builder().setKeepPrefixes("INFO").setDropLiterals("retry"));
+    }
+
+    @Test
+    void testMaxLinesPerSecond() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append("line ").append(i).append('\n');
+        }
+        final String output = filter(LineFilterOutputStream.builder().setMaxLinesPerSecond(10), input.toString(), 4096);
+        // the writes take far less than a second
+        assertEquals("line 0\nline 1\nline 2\nline 3\nline 4\nline 5\nline 6\nline 7\nline 8\nline 9\n", output);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testPumpStreamHandler() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ByteArrayOutputStream error = new ByteArrayOutputStream();
+        final LineFilterOutputStream filterOut = LineFilterOutputStream.builder().setOutputStream(output).setDropPrefixes("DEBUG").get();
+        final LineFilterOutputStream filterErr = LineFilterOutputStream.builder().setOutputStream(error).setDropPrefixes("DEBUG").get();
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(new PumpStreamHandler(filterOut, filterErr)).get();
+        final String script = "i=0; while [ $i -lt 100 ]; do echo DEBUG $i; echo INFO $i; echo DEBUG $i >&2; echo WARN $i >&2; i=$((i + 1)); done";
+        executor.execute(new CommandLine("sh").addArgument("-c").addArgument(script, false));
+        assertEquals(100, output.toString().split("\n").length);
+        assertEquals(100, error.toString().split("\n").length);
+        assertEquals(100, filterOut.getDroppedLineCount());
+        assertEquals(100, filterErr.getDroppedLineCount());
+    }
+
+    @Test
+    void testSampleRate() throws IOException {
+        assertFilter("DEBUG a\nDEBUG c\nINFO e: retry\n\nINFO last", LineFilterOutputStream.builder().setSampleRate(2));
+        assertFilter("INFO b\nINFO last", LineFilterOutputStream.builder().setKeepPrefixes("INFO").setSampleRate(2));
+    }
+
+    @Test
+    void testWriteOutOfBounds() throws IOException {
+        try (LineFilterOutputStream filter = LineFilterOutputStream.builder().setOutputStream(new ByteArrayOutputStream()).get()) {
+            final byte[] bytes = new byte[4];
+            assertThrows(IndexOutOfBoundsException.class, () -> filter.write(bytes, -1, 2));
+            assertThrows(IndexOutOfBoundsException.class, () -> filter.write(bytes, 2, -1));
+            assertThrows(IndexOutOfBoundsException.class, () -> filter.write(bytes, 3, 2));
+            assertThrows(IndexOutOfBoundsException.class, () -> filter.write(bytes, 1, Integer.MAX_VALUE));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link LogAggregator}.
+ */
+class LogAggregatorTest {
+
+    @Test
+    void testCloseTerminatesPartialLines() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final LogAggregator aggregator = LogAggregator.builder().setOutputStream(target).get();
+        final OutputStream out = aggregator.newOutputStream("[a] ");
+        out.write("no newline".getBytes());
+        aggregator.close();
+        assertEquals("[a] no newline\n", target.toString());
+        assertThrows(IOException.class, () -> out.write('x'));
+        assertThrows(IllegalStateException.class, () -> aggregator.newOutputStream("[b] "));
+    }
+
+    @Test
+    void testConcurrentProducers() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final List<Thread> threads = new ArrayList<>();
+        try (LogAggregator aggregator = LogAggregator.builder().setOutputStream(target).setMaxBufferSize(256).get()) {
+            for (int t = 0; t < 16; t++) {
+                final OutputStream out = aggregator.newOutputStream("[job-" + t + "] ");
+                final Thread thread = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            // a line in two writes, which must not be separated
+                            out.write(("line " + i).getBytes());
+                            out.write(" end\n".getBytes());
+                        }
+                        out.close();
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        }
+        final String[] lines = target.toString().split("\n");
+        assertEquals(16000, lines.length);
+        final int[] next = new int[16];
+        for (final String line : lines) {
+            assertTrue(line.matches("\\[job-\\d+\\] line \\d+ end"), line);
+            final int job = Integer.parseInt(line.substring(5, line.indexOf(']')));
+            assertEquals("[job-" + job + "] line " + next[job]++ + " end", line);
+        }
+    }
+
+    @Test
+    void testLongLineIsSplit() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LogAggregator aggregator = LogAggregator.builder().setOutputStream(target).setMaxBufferSize(8).get()) {
+            final OutputStream out = aggregator.newOutputStream("> ");
+            out.write("0123456789abcdef\nxy\n".getBytes());
+        }
+        assertEquals("> 012345\n> 6789ab\n> cdef\n> xy\n", target.toString());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testProcesses() throws Exception {
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LogAggregator aggregator = LogAggregator.builder().setOutputStream(target).setFlushInterval(Duration.ofMillis(1)).get()) {
+            for (final String job : Arrays.asList("a", "b")) {
+                final DefaultExecutor executor = DefaultExecutor.builder().get();
+                executor.setStreamHandler(aggregator.newStreamHandler("[" + job + "] "));
+                executor.execute(new CommandLine("sh").addArgument("-c").addArgument("echo out; printf err >&2", false));
+            }
+            // the streams were closed when the processes ended, terminating the last lines without closing the aggregator
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (countLines(target) < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(4, countLines(target));
+        }
+        final List<String> lines = Arrays.asList(target.toString().split("\n"));
+        assertEquals(4, lines.size());
+        assertTrue(lines.containsAll(Arrays.asList("[a] out", "[a] err", "[b] out", "[b] err")), lines.toString());
+    }
+
+    private static int countLines(final ByteArrayOutputStream target) {
+        synchronized (target) {
+            return target.toString().split("\n", -1).length - 1;
+        }
+    }
+}
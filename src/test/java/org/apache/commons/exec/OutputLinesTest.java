@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link OutputLines}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class OutputLinesTest {
+
+    private static OutputLines.Builder shell(final String script) {
+        return OutputLines.builder().setCommandLine(new CommandLine("sh").addArgument("-c").addArgument(script, false));
+    }
+
+    @Test
+    void testCloseDestroysProcess() throws Exception {
+        final long start = System.nanoTime();
+        try (Stream<String> lines = shell("echo first; exec sleep 30").get().stream()) {
+            // the first line is available while the process is still running
+            assertEquals("first", lines.findFirst().get());
+        }
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+
+    @Test
+    void testExitValueFailure() {
+        final OutputLines lines = shell("echo one; exit 3").get();
+        assertEquals("one", lines.next());
+        final UncheckedIOException e = assertThrows(UncheckedIOException.class, lines::hasNext);
+        assertTrue(e.getCause() instanceof ExecuteException);
+        assertEquals(3, ((ExecuteException) e.getCause()).getExitValue());
+        assertEquals(3, lines.getExitValue());
+    }
+
+    @Test
+    void testExitValuesAccepted() {
+        final OutputLines lines = shell("echo one; exit 3").setExitValues(3).get();
+        assertEquals(Arrays.asList("one"), lines.stream().collect(Collectors.toList()));
+        assertEquals(3, lines.getExitValue());
+    }
+
+    @Test
+    void testLines() {
+        final ByteArrayOutputStream error = new ByteArrayOutputStream();
+        final OutputLines lines = shell("printf 'a\\nb\\r\\nc'; echo oops >&2").setErrorStream(error).setBufferSize(1).get();
+        final List<String> list = lines.stream().collect(Collectors.toList());
+        assertEquals(Arrays.asList("a", "b", "c"), list);
+        assertEquals("oops\n", error.toString());
+        assertEquals(0, lines.getExitValue());
+        assertFalse(lines.hasNext());
+    }
+
+    @Test
+    void testManyLines() {
+        try (Stream<String> lines = shell("seq 1 200000").get().stream()) {
+            assertEquals(200000L, lines.mapToLong(Long::parseLong).max().getAsLong());
+        }
+    }
+}
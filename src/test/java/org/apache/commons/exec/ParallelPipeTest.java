@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ParallelPipe}.
+ */
+class ParallelPipeTest {
+
+    private static List<String> chunks(final ParallelPipe.Chunker chunker, final String input) throws IOException {
+        final InputStream inputStream = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        final List<String> chunks = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.next(inputStream)) != null) {
+            chunks.add(new String(chunk, StandardCharsets.UTF_8));
+        }
+        return chunks;
+    }
+
+    private static String lines(final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    void testChunkerDelimited() throws Exception {
+        final ParallelPipe.Chunker chunker = ParallelPipe.Chunker.delimited("\r\n".getBytes(StandardCharsets.UTF_8), 4);
+        assertEquals(Arrays.asList("abc\r\n", "d\r\nef\r\n", "ghij\r\n", "k"), chunks(chunker, "abc\r\nd\r\nef\r\nghij\r\nk"));
+        // a partial match of the delimiter must not hide the match that follows
+        final ParallelPipe.Chunker overlapping = ParallelPipe.Chunker.delimited("aab".getBytes(StandardCharsets.UTF_8), 2);
+        assertEquals(Arrays.asList("xaaab", "aab", "c"), chunks(overlapping, "xaaabaabc"));
+        assertThrows(IllegalArgumentException.class, () -> ParallelPipe.Chunker.delimited(new byte[0], 1));
+    }
+
+    @Test
+    void testChunkerLines() throws Exception {
+        final String input = lines(100);
+        final List<String> chunks = chunks(ParallelPipe.Chunker.lines(50), input);
+        assertEquals(input, String.join("", chunks));
+        for (final String chunk : chunks) {
+            assertTrue(chunk.length() >= 50 || chunk == chunks.get(chunks.size() - 1));
+            assertTrue(chunk.endsWith("\n"));
+        }
+        assertNull(ParallelPipe.Chunker.lines(10).next(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testExecuteFailure() throws Exception {
+        final ParallelPipe pipe = ParallelPipe.builder().setCommandLine(new CommandLine("sh").addArgument("-c").addArgument("cat >/dev/null; exit 3", false))
+                .setChunker(ParallelPipe.Chunker.lines(100)).setMaxParallelism(2).get();
+        final ExecuteException e = assertThrows(ExecuteException.class,
+                () -> pipe.execute(new ByteArrayInputStream(lines(1000).getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+        assertEquals(3, e.getExitValue());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testExecuteOrdered() throws Exception {
+        final String input = lines(2000);
+        final ParallelPipe pipe = ParallelPipe.builder().setCommandLine(new CommandLine("tr").addArgument("a-z").addArgument("A-Z"))
+                .setChunker(ParallelPipe.Chunker.lines(1000)).setMaxParallelism(4).get();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final long chunks = pipe.execute(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+        assertTrue(chunks > 10, () -> Long.toString(chunks));
+        assertEquals(input.toUpperCase(Locale.ROOT), output.toString(StandardCharsets.UTF_8.name()));
+        assertEquals(0, pipe.execute(new ByteArrayInputStream(new byte[0]), output));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void testExecuteUnordered() throws Exception {
+        final ParallelPipe pipe = ParallelPipe.builder().setCommandLine(new CommandLine("wc").addArgument("-l")).setChunker(ParallelPipe.Chunker.lines(500))
+                .setMaxParallelism(3).setOrdered(false).get();
+        final AtomicLong total = new AtomicLong();
+        final long chunks = pipe.execute(new ByteArrayInputStream(lines(3000).getBytes(StandardCharsets.UTF_8)),
+                (index, output) -> total.addAndGet(Long.parseLong(new String(output, StandardCharsets.UTF_8).trim())));
+        assertTrue(chunks > 10, () -> Long.toString(chunks));
+        assertEquals(3000, total.get());
+    }
+}
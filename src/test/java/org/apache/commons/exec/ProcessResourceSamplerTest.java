@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ProcessResourceSampler}.
+ */
+class ProcessResourceSamplerTest {
+
+    @Test
+    void testParseCpuTicks() {
+        // the command name contains spaces and a closing parenthesis
+        final String stat = "4242 (my) proc) S 1 4242 4242 0 -1 4194560 300 0 0 0 7 3 20 10 20 0 1 0 1234 10000000 250 18446744073709551615";
+        assertEquals(40, ProcessResourceSampler.parseCpuTicks(stat));
+    }
+
+    @Test
+    void testParseResidentSetSize() {
+        assertEquals(2048 * 1024, ProcessResourceSampler.parseResidentSetSize("Name:\tsh\nVmHWM:\t    4096 kB\nVmRSS:\t    2048 kB\nRssAnon:\t 100 kB\n"));
+        assertEquals(0, ProcessResourceSampler.parseResidentSetSize("Name:\tzombie\nState:\tZ (zombie)\n"));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testSampleBusyProcess() throws Exception {
+        final CommandLine cl = new CommandLine("sh").addArgument("-c").addArgument("while :; do :; done", false);
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setCpuTimeLimit(Duration.ofMillis(500)).setSampleInterval(Duration.ofMillis(100)).get();
+        executor.setWatchdog(watchdog);
+        assertThrows(ExecuteException.class, () -> executor.execute(cl));
+        assertTrue(watchdog.killedProcess(), "The CPU time limit should have killed the process");
+        assertTrue(watchdog.getCpuTime().toMillis() >= 500, () -> "CPU time " + watchdog.getCpuTime());
+        assertTrue(watchdog.getPeakResidentSetSize() > 0, () -> "Peak RSS " + watchdog.getPeakResidentSetSize());
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testSampleBusyTreeKillsDescendants() throws Exception {
+        // the root only waits while its child spins
+        final CommandLine cl = new CommandLine("sh").addArgument("-c").addArgument("sh -c 'while :; do :; done' & echo $!; wait", false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DefaultExecutor executor = DefaultExecutor.builder().get();
+        executor.setStreamHandler(new PumpStreamHandler(out));
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().setCpuTimeLimit(Duration.ofMillis(500)).setSampleInterval(Duration.ofMillis(100)).get();
+        executor.setWatchdog(watchdog);
+        assertThrows(ExecuteException.class, () -> executor.execute(cl));
+        assertTrue(watchdog.killedProcess(), "The CPU time limit should have killed the process");
+        final Path child = Paths.get("/proc", out.toString().trim(), "stat");
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (isRunning(child) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(isRunning(child), "The CPU time limit should have killed the descendant");
+    }
+
+    private static boolean isRunning(final Path stat) throws IOException {
+        try {
+            // a zombie is dead, only not reaped yet
+            final String content = new String(Files.readAllBytes(stat), StandardCharsets.US_ASCII);
+            return content.charAt(content.lastIndexOf(')') + 2) != 'Z';
+        } catch (final NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testSampleTerminatedProcess() {
+        assertThrows(IOException.class, () -> ProcessResourceSampler.sample(Integer.MAX_VALUE));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testReadClockTicksPerSecond() {
+        assertTrue(ProcessResourceSampler.readClockTicksPerSecond() > 0);
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testSampleTree() throws Exception {
+        // the root only waits while its child spins
+        final Process process = new ProcessBuilder("sh", "-c", "sh -c 'while :; do :; done' & wait").start();
+        final long pid = ProcessResourceSampler.getPid(process);
+        try {
+            assertTrue(pid > 0);
+            Thread.sleep(1000);
+            final ProcessResourceSampler.Usage usage = ProcessResourceSampler.sample(pid);
+            assertTrue(usage.getCpuTimeMillis() >= 300, () -> "CPU time " + usage.getCpuTimeMillis());
+            final String rootStat = new String(Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "stat")), StandardCharsets.US_ASCII);
+            assertTrue(ProcessResourceSampler.parseCpuTicks(rootStat) * 1000 / ProcessResourceSampler.readClockTicksPerSecond() < 300);
+            final String rootStatus = new String(Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "status")), StandardCharsets.US_ASCII);
+            assertTrue(usage.getResidentSetSize() > ProcessResourceSampler.parseResidentSetSize(rootStatus));
+        } finally {
+            for (final Long descendant : ProcessResourceSampler.descendants(pid)) {
+                new ProcessBuilder("kill", "-KILL", descendant.toString()).start().waitFor();
+            }
+            process.destroy();
+        }
+    }
+}
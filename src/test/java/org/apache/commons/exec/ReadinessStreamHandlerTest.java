@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ReadinessStreamHandler}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ReadinessStreamHandlerTest {
+
+    private static CommandLine shell(final String script) {
+        return new CommandLine("sh").addArgument("-c").addArgument(script, false);
+    }
+
+    @Test
+    void testExitBeforeReady() throws Exception {
+        final ReadinessStreamHandler handler = ReadinessStreamHandler.builder().setLiteral("ready").setOutputStream(null).get();
+        final DefaultExecutor executor = DefaultExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setExitValues(null);
+        executor.execute(shell("echo starting; exit 1"));
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> handler.getReady().get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ExecuteException, e::toString);
+    }
+
+    @Test
+    void testLiteralAcrossReads() throws Exception {
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().get();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ReadinessStreamHandler handler = ReadinessStreamHandler.builder().setLiteral("server ready").setOutputStream(output).get();
+        final DefaultExecutor executor = DaemonExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setWatchdog(watchdog);
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(shell("printf 'server serv'; sleep 0.2; printf 'er rea'; sleep 0.2; echo dy; exec sleep 30"), resultHandler);
+        assertEquals("server ready", handler.getReady().get(10, TimeUnit.SECONDS));
+        assertFalse(resultHandler.hasResult());
+        watchdog.destroyProcess();
+        resultHandler.waitFor(Duration.ofSeconds(10));
+        assertTrue(resultHandler.hasResult());
+        assertEquals("server server ready\n", output.toString());
+    }
+
+    @Test
+    void testPattern() throws Exception {
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().get();
+        final ReadinessStreamHandler handler = ReadinessStreamHandler.builder().setPattern(Pattern.compile("port \\d+")).setOutputStream(null)
+                .setErrorStream(null).get();
+        final DefaultExecutor executor = DaemonExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setWatchdog(watchdog);
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(shell("echo starting; printf 'listening on port 80' >&2; sleep 0.2; echo 80 >&2; exec sleep 30"), resultHandler);
+        assertEquals("port 8080", handler.getReady().get(10, TimeUnit.SECONDS));
+        watchdog.destroyProcess();
+        resultHandler.waitFor(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        final ExecuteWatchdog watchdog = ExecuteWatchdog.builder().get();
+        final ReadinessStreamHandler handler = ReadinessStreamHandler.builder().setLiteral("ready").setTimeout(Duration.ofMillis(300))
+                .setWatchdog(watchdog).setOutputStream(null).get();
+        final DefaultExecutor executor = DaemonExecutor.builder().setExecuteStreamHandler(handler).get();
+        executor.setWatchdog(watchdog);
+        final DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
+        executor.execute(shell("echo starting; exec sleep 30"), resultHandler);
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> handler.getReady().get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException, e::toString);
+        resultHandler.waitFor(Duration.ofSeconds(10));
+        assertTrue(resultHandler.hasResult());
+        assertTrue(watchdog.killedProcess());
+    }
+
+    @Test
+    void testValidation() {
+        assertThrows(IllegalStateException.class, () -> ReadinessStreamHandler.builder().get());
+        assertThrows(IllegalStateException.class, () -> ReadinessStreamHandler.builder().setLiteral("").get());
+        assertThrows(IllegalStateException.class, () -> ReadinessStreamHandler.builder().setLiteral("a").setWatchOutput(false).setWatchError(false).get());
+    }
+}
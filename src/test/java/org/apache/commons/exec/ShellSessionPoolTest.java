@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ShellSessionPool}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ShellSessionPoolTest {
+
+    @Test
+    void testConcurrentCommands() throws Exception {
+        try (ShellSessionPool pool = ShellSessionPool.builder().setPoolSize(2).get()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                final List<Future<ShellSession.Result>> futures = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    futures.add(executor.submit(() -> pool.execute("echo $$")));
+                }
+                final Set<String> shells = new HashSet<>();
+                for (final Future<ShellSession.Result> future : futures) {
+                    shells.add(new String(future.get().getOutput(), StandardCharsets.UTF_8).trim());
+                }
+                assertEquals(2, shells.size(), shells.toString());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testExecuteAfterClose() throws Exception {
+        final ShellSessionPool pool = ShellSessionPool.builder().setPoolSize(1).get();
+        pool.close();
+        assertThrows(IOException.class, () -> pool.execute("true"));
+    }
+
+    @Test
+    void testReplacesExitedSession() throws Exception {
+        try (ShellSessionPool pool = ShellSessionPool.builder().setPoolSize(1).get()) {
+            assertThrows(ExecuteException.class, () -> pool.execute("kill -9 $$"));
+            assertEquals("ok\n", new String(pool.execute("echo ok").getOutput(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ShellSession}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ShellSessionTest {
+
+    private static String error(final ShellSession.Result result) {
+        return new String(result.getError(), StandardCharsets.UTF_8);
+    }
+
+    private static String output(final ShellSession.Result result) {
+        return new String(result.getOutput(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testCommandsAreIsolated() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            assertEquals(0, session.execute("FOO=bar; cd /").getExitValue());
+            assertEquals("[]\n", output(session.execute("echo \"[$FOO]\"")));
+            // a syntax error only fails its own command
+            assertNotEquals(0, session.execute("if then fi").getExitValue());
+            assertEquals("ok\n", output(session.execute("echo ok")));
+        }
+    }
+
+    @Test
+    void testCommandsDoNotReadTheSession() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            assertEquals("", output(session.execute("cat")));
+            assertEquals("next\n", output(session.execute("echo next")));
+        }
+    }
+
+    @Test
+    void testExecute() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            final ShellSession.Result result = session.execute("echo out; echo err >&2; exit 3");
+            assertEquals(3, result.getExitValue());
+            assertEquals("out\n", output(result));
+            assertEquals("err\n", error(result));
+            assertFalse(result.isTimedOut());
+            // output without a trailing line feed and quotes
+            assertEquals("it's", output(session.execute("printf '%s' \"it's\"")));
+            assertEquals("", output(session.execute("true")));
+        }
+    }
+
+    @Test
+    void testExecuteLargeOutput() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            final ShellSession.Result result = session.execute("i=0; while [ $i -lt 20000 ]; do echo \"line $i\"; echo \"error $i\" >&2; i=$((i+1)); done");
+            assertEquals(0, result.getExitValue());
+            assertTrue(output(result).endsWith("line 19999\n"));
+            assertTrue(error(result).endsWith("error 19999\n"));
+        }
+    }
+
+    @Test
+    void testExecuteAfterClose() throws Exception {
+        final ShellSession session = ShellSession.builder().get();
+        assertEquals(0, session.execute("true").getExitValue());
+        session.close();
+        assertFalse(session.isAlive());
+        assertThrows(IOException.class, () -> session.execute("true"));
+    }
+
+    @Test
+    void testShellExit() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            // $$ is the process ID of the session shell, also in the subshell
+            final ExecuteException e = assertThrows(ExecuteException.class, () -> session.execute("kill -9 $$"));
+            assertNotEquals(0, e.getExitValue());
+            assertFalse(session.isAlive());
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            final long startMillis = System.currentTimeMillis();
+            final ShellSession.Result result = session.execute("echo started; sleep 30; echo finished", Duration.ofMillis(500));
+            assertTrue(System.currentTimeMillis() - startMillis < 10_000);
+            assertTrue(result.isTimedOut());
+            assertNotEquals(0, result.getExitValue());
+            assertEquals("started\n", output(result));
+            // the session survives
+            assertEquals("ok\n", output(session.execute("echo ok", Duration.ofSeconds(10))));
+        }
+    }
+
+    @Test
+    void testTimeoutIgnoringTerm() throws Exception {
+        try (ShellSession session = ShellSession.builder().get()) {
+            final long startMillis = System.currentTimeMillis();
+            final ShellSession.Result result = session.execute("trap '' TERM; echo started; sleep 30; echo finished", Duration.ofMillis(300));
+            assertTrue(System.currentTimeMillis() - startMillis < 10_000);
+            assertTrue(result.isTimedOut());
+            assertEquals("started\n", output(result));
+            assertEquals("ok\n", output(session.execute("echo ok", Duration.ofSeconds(10))));
+        }
+    }
+}
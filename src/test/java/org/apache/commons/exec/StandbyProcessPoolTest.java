@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link StandbyProcessPool}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class StandbyProcessPoolTest {
+
+    /** Reads two arguments from the standard input, prints them and then copies the payload. */
+    private static final CommandLine TEMPLATE = new CommandLine("sh").addArgument("-c").addArgument("read a; read b; echo \"$a-$b\"; cat", false)
+            .addArgument("${first}").addArgument("${second}");
+
+    private static Map<String, Object> arguments(final String first, final String second) {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("first", first);
+        map.put("second", second);
+        return map;
+    }
+
+    private static String run(final Process process, final String payload) throws Exception {
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(payload.getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        }
+        assertEquals(0, process.waitFor());
+        return output.toString();
+    }
+
+    private static void waitForStandby(final StandbyProcessPool pool, final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getStandbyCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.getStandbyCount());
+    }
+
+    @Test
+    void testClose() throws Exception {
+        final StandbyProcessPool pool = StandbyProcessPool.builder().setCommandLine(TEMPLATE).get();
+        waitForStandby(pool, 1);
+        pool.close();
+        assertEquals(0, pool.getStandbyCount());
+        assertThrows(IOException.class, () -> pool.launch(arguments("a", "b")));
+    }
+
+    @Test
+    void testLaunch() throws Exception {
+        try (StandbyProcessPool pool = StandbyProcessPool.builder().setCommandLine(TEMPLATE).setStandbyCount(2).get()) {
+            waitForStandby(pool, 2);
+            assertEquals("x y-z\npayload\n", run(pool.launch(arguments("x y", "z")), "payload\n"));
+            assertEquals("1-2\n", run(pool.launch(arguments("1", "2")), ""));
+            // the launched processes are replaced
+            waitForStandby(pool, 2);
+            assertEquals(4, pool.getStartedCount());
+        }
+    }
+
+    @Test
+    void testLaunchLineBreak() throws Exception {
+        try (StandbyProcessPool pool = StandbyProcessPool.builder().setCommandLine(TEMPLATE).get()) {
+            assertThrows(IllegalArgumentException.class, () -> pool.launch(arguments("a\nb", "c")));
+        }
+    }
+
+    @Test
+    void testLaunchWithoutStandby() throws Exception {
+        try (StandbyProcessPool pool = StandbyProcessPool.builder().setCommandLine(TEMPLATE).get()) {
+            final String first = run(pool.launch(arguments("a", "b")), "");
+            final String second = run(pool.launch(arguments("c", "d")), "");
+            assertEquals("a-b\n", first);
+            assertEquals("c-d\n", second);
+            assertTrue(pool.getStartedCount() >= 2);
+        }
+    }
+}
@@ -20,9 +20,12 @@
 package org.apache.commons.exec;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
 
@@ -39,4 +42,19 @@ class WatchdogTest {
         assertNotNull(Watchdog.builder().setThreadFactory(null).get());
         assertNotNull(Watchdog.builder().setThreadFactory(null).get().getThreadFactory());
     }
+
+    @Test
+    void testTouch() throws InterruptedException {
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final Watchdog watchdog = Watchdog.builder().setTimeout(Duration.ofMillis(500)).get();
+        watchdog.addTimeoutObserver(w -> timedOut.set(true));
+        watchdog.start();
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(100);
+            watchdog.touch();
+        }
+        assertFalse(timedOut.get(), "Touching the watchdog should restart the countdown");
+        Thread.sleep(1500);
+        assertTrue(timedOut.get(), "The watchdog should time out once it is no longer touched");
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link WorkerPool}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class WorkerPoolTest {
+
+    /** Echoes each line prefixed by the process ID of the shell. */
+    private static final CommandLine PID_ECHO = new CommandLine("sh").addArgument("-c").addArgument("while read l; do echo \"$$ $l\"; done", false);
+
+    private static String request(final WorkerPool pool, final String request) throws IOException {
+        return new String(pool.request(request.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] roundTrip(final WorkerPool.Framing framing, final byte[] message) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framing.write(out, message);
+        return framing.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    void testConcurrentRequests() throws Exception {
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(new CommandLine("cat")).setPoolSize(3).get()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(6);
+            try {
+                final List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 60; i++) {
+                    final String request = "request " + i;
+                    futures.add(executor.submit(() -> request(pool, request)));
+                }
+                for (int i = 0; i < 60; i++) {
+                    assertEquals("request " + i, futures.get(i).get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(3, pool.getStartedCount());
+        }
+    }
+
+    @Test
+    void testCrashedWorkerIsRestarted() throws Exception {
+        final CommandLine once = new CommandLine("sh").addArgument("-c").addArgument("read l; echo \"$l\"; read l; exit 3", false);
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(once).setPoolSize(1).setRestartBackoff(Duration.ofMillis(10), null).get()) {
+            assertEquals("a", request(pool, "a"));
+            // the worker exits instead of answering its second request
+            final ExecuteException e = assertThrows(ExecuteException.class, () -> request(pool, "b"));
+            assertEquals(3, e.getExitValue());
+            assertEquals("c", request(pool, "c"));
+        }
+    }
+
+    @Test
+    void testFramingLengthPrefixed() throws Exception {
+        final byte[] message = "line 1\nline 2\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(message, roundTrip(WorkerPool.Framing.lengthPrefixed(), message));
+        assertArrayEquals(new byte[0], roundTrip(WorkerPool.Framing.lengthPrefixed(), new byte[0]));
+        assertThrows(EOFException.class, () -> WorkerPool.Framing.lengthPrefixed().read(new ByteArrayInputStream(new byte[] { 0, 0, 0, 2, 'a' })));
+    }
+
+    @Test
+    void testFramingNewline() throws Exception {
+        final byte[] message = "hello".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(message, roundTrip(WorkerPool.Framing.newline(), message));
+        assertThrows(IllegalArgumentException.class,
+                () -> WorkerPool.Framing.newline().write(new ByteArrayOutputStream(), "a\nb".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(EOFException.class, () -> WorkerPool.Framing.newline().read(new ByteArrayInputStream(message)));
+    }
+
+    @Test
+    void testFramingSentinel() throws Exception {
+        final WorkerPool.Framing framing = WorkerPool.Framing.sentinel("\n.\n".getBytes(StandardCharsets.UTF_8));
+        final byte[] message = "line 1\n\nline .2".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(message, roundTrip(framing, message));
+        assertThrows(IllegalArgumentException.class, () -> framing.write(new ByteArrayOutputStream(), "a\n.\nb".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testLengthPrefixedWorker() throws Exception {
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(new CommandLine("cat")).setPoolSize(1).setFraming(WorkerPool.Framing.lengthPrefixed())
+                .get()) {
+            final byte[] message = "multi\nline\u0000binary".getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(message, pool.request(message));
+        }
+    }
+
+    @Test
+    void testMaxIdleTime() throws Exception {
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(PID_ECHO).setPoolSize(1).setMaxIdleTime(Duration.ofMillis(200)).get()) {
+            final String first = request(pool, "a");
+            Thread.sleep(1000);
+            final String second = request(pool, "b");
+            assertNotEquals(first.split(" ")[0], second.split(" ")[0]);
+            assertEquals(2, pool.getStartedCount());
+        }
+    }
+
+    @Test
+    void testMaxRequests() throws Exception {
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(PID_ECHO).setPoolSize(1).setMaxRequests(2).get()) {
+            final String first = request(pool, "a").split(" ")[0];
+            assertEquals(first + " b", request(pool, "b"));
+            final String third = request(pool, "c");
+            assertNotEquals(first, third.split(" ")[0]);
+            assertTrue(third.endsWith(" c"), third);
+        }
+    }
+
+    @Test
+    void testRequestAfterClose() throws Exception {
+        final WorkerPool pool = WorkerPool.builder().setCommandLine(new CommandLine("cat")).setPoolSize(1).get();
+        pool.close();
+        assertThrows(IOException.class, () -> request(pool, "a"));
+    }
+
+    @Test
+    void testRequestTimeout() throws Exception {
+        // the shell replaces itself by sleep so that destroying the worker closes its standard output
+        final CommandLine slow = new CommandLine("sh").addArgument("-c").addArgument("while read l; do [ \"$l\" = hang ] && exec sleep 10; echo \"$l\"; done",
+                false);
+        try (WorkerPool pool = WorkerPool.builder().setCommandLine(slow).setPoolSize(1).setRestartBackoff(Duration.ofMillis(10), null).get()) {
+            final ExecuteException e = assertThrows(ExecuteException.class,
+                    () -> pool.request("hang".getBytes(StandardCharsets.UTF_8), Duration.ofMillis(500)));
+            assertTrue(e.getMessage().contains("timed out"), e::getMessage);
+            assertEquals("ok", request(pool, "ok"));
+            assertEquals(2, pool.getStartedCount());
+        }
+    }
+}
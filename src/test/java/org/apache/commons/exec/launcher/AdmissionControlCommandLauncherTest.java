@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec.launcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.exec.CommandLine;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link AdmissionControlCommandLauncher}.
+ */
+class AdmissionControlCommandLauncherTest extends AbstractCommandLauncherTest<AdmissionControlCommandLauncher> {
+
+    /**
+     * A process that runs until {@link #finish()} is called.
+     */
+    private static final class FakeProcess extends Process {
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void destroy() {
+            finish();
+        }
+
+        void finish() {
+            finished.countDown();
+        }
+
+        @Override
+        public int exitValue() {
+            if (finished.getCount() > 0) {
+                throw new IllegalThreadStateException();
+            }
+            return 0;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            finished.await();
+            return 0;
+        }
+    }
+
+    /**
+     * A launcher recording the launched commands.
+     */
+    private static class FakeCommandLauncher extends CommandLauncherImpl {
+
+        private final List<String> launched = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Process exec(final CommandLine cmd, final Map<String, String> env) throws IOException {
+            launched.add(cmd.getExecutable());
+            return new FakeProcess();
+        }
+
+        @Override
+        public Process exec(final CommandLine cmd, final Map<String, String> env, final File workingDir) throws IOException {
+            return exec(cmd, env);
+        }
+    }
+
+    private static Thread launchAsync(final AdmissionControlCommandLauncher launcher, final String executable, final List<Process> processes) {
+        final Thread thread = new Thread(() -> {
+            try {
+                processes.add(launcher.exec(new CommandLine(executable), null));
+            } catch (final IOException e) {
+                // rejected
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueued(final AdmissionControlCommandLauncher launcher, final int queued) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (launcher.getQueuedCount() != queued && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(queued, launcher.getQueuedCount());
+    }
+
+    @Override
+    AdmissionControlCommandLauncher createCommandLauncher() {
+        return AdmissionControlCommandLauncher.builder().get();
+    }
+
+    @Test
+    void testFailedLaunchReleases() throws Exception {
+        final CommandLauncher delegate = new FakeCommandLauncher() {
+            @Override
+            public Process exec(final CommandLine cmd, final Map<String, String> env) throws IOException {
+                throw new IOException("cannot start");
+            }
+        };
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(delegate).setMaxConcurrency(1).get();
+        assertThrows(IOException.class, () -> launcher.exec(new CommandLine("a"), null));
+        assertEquals(0, launcher.getRunningCount());
+    }
+
+    @Test
+    void testListener() throws Exception {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(new FakeCommandLauncher())
+                .setMaxConcurrency(1).setQueueTimeout(Duration.ofMillis(50)).setListener(new AdmissionControlCommandLauncher.Listener() {
+                    @Override
+                    public void onAdmitted(final CommandLine commandLine, final Duration queueWait) {
+                        events.add("admitted " + commandLine.getExecutable());
+                    }
+
+                    @Override
+                    public void onRejected(final CommandLine commandLine, final Duration queueWait) {
+                        events.add("rejected " + commandLine.getExecutable());
+                    }
+
+                    @Override
+                    public void onTerminated(final CommandLine commandLine, final Duration queueWait, final Duration runTime) {
+                        events.add("terminated " + commandLine.getExecutable() + (runTime.toMillis() >= 100 ? "" : " early"));
+                    }
+                }).get();
+        final Process process = launcher.exec(new CommandLine("a"), null);
+        assertThrows(IOException.class, () -> launcher.exec(new CommandLine("b"), null));
+        Thread.sleep(100);
+        process.destroy();
+        process.waitFor();
+        assertEquals(Arrays.asList("admitted a", "rejected b", "terminated a"), events);
+        assertEquals(1, launcher.getAdmittedCount());
+        assertTrue(launcher.getRunTime().toMillis() >= 150, launcher.getRunTime()::toString);
+        assertTrue(launcher.getQueueWaitTime().toMillis() < 50, launcher.getQueueWaitTime()::toString);
+    }
+
+    @Test
+    void testMaxConcurrency() throws Exception {
+        final FakeCommandLauncher delegate = new FakeCommandLauncher();
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(delegate).setMaxConcurrency(2).get();
+        final Process first = launcher.exec(new CommandLine("a"), null);
+        launcher.exec(new CommandLine("b"), null);
+        assertEquals(2, launcher.getRunningCount());
+        final List<Process> processes = new CopyOnWriteArrayList<>();
+        final Thread third = launchAsync(launcher, "c", processes);
+        awaitQueued(launcher, 1);
+        assertEquals(2, delegate.launched.size());
+        first.destroy();
+        first.waitFor();
+        third.join(10_000);
+        assertEquals(1, processes.size());
+        assertEquals(0, launcher.getQueuedCount());
+        assertEquals(2, launcher.getRunningCount());
+        // observing termination more than once releases once
+        first.waitFor();
+        assertEquals(0, first.exitValue());
+        assertEquals(2, launcher.getRunningCount());
+    }
+
+    @Test
+    void testPriority() throws Exception {
+        final FakeCommandLauncher delegate = new FakeCommandLauncher();
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(delegate).setMaxConcurrency(1)
+                .setPriority(cmd -> cmd.getExecutable().startsWith("high") ? 1 : 0).get();
+        final Process first = launcher.exec(new CommandLine("first"), null);
+        final List<Process> processes = new CopyOnWriteArrayList<>();
+        final Thread low = launchAsync(launcher, "low", processes);
+        awaitQueued(launcher, 1);
+        final Thread high = launchAsync(launcher, "high", processes);
+        awaitQueued(launcher, 2);
+        first.destroy();
+        first.waitFor();
+        high.join(10_000);
+        assertEquals("high", delegate.launched.get(1));
+        processes.get(0).destroy();
+        processes.get(0).waitFor();
+        low.join(10_000);
+        assertEquals("low", delegate.launched.get(2));
+    }
+
+    @Test
+    void testTenantFairness() throws Exception {
+        final FakeCommandLauncher delegate = new FakeCommandLauncher();
+        final Map<String, Double> weights = new HashMap<>();
+        weights.put("batch", 1.0);
+        weights.put("interactive", 2.0);
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(delegate).setMaxConcurrency(1)
+                .setTenant(cmd -> cmd.getExecutable().substring(0, cmd.getExecutable().indexOf('-'))).setTenantWeights(weights).get();
+        final List<Process> processes = new CopyOnWriteArrayList<>();
+        processes.add(launcher.exec(new CommandLine("first-0"), null));
+        // a batch flood queued before the interactive launches
+        for (int i = 1; i <= 4; i++) {
+            launchAsync(launcher, "batch-" + i, processes);
+            awaitQueued(launcher, i);
+        }
+        launchAsync(launcher, "interactive-1", processes);
+        awaitQueued(launcher, 5);
+        launchAsync(launcher, "interactive-2", processes);
+        awaitQueued(launcher, 6);
+        for (int i = 0; i < 6; i++) {
+            final Process process = processes.get(i);
+            process.destroy();
+            process.waitFor();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (processes.size() < i + 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+        assertEquals(Arrays.asList("first-0", "interactive-1", "batch-1", "interactive-2", "batch-2", "batch-3", "batch-4"), delegate.launched);
+    }
+
+    @Test
+    void testQueueTimeout() throws Exception {
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(new FakeCommandLauncher())
+                .setMaxConcurrency(1).setQueueTimeout(Duration.ofMillis(100)).get();
+        launcher.exec(new CommandLine("a"), null);
+        final IOException e = assertThrows(IOException.class, () -> launcher.exec(new CommandLine("b"), null));
+        assertTrue(e.getMessage().contains("not admitted"), e::getMessage);
+        assertEquals(1, launcher.getRejectedCount());
+        assertEquals(0, launcher.getQueuedCount());
+        assertEquals(1, launcher.getRunningCount());
+    }
+
+    @Test
+    void testSpawnRate() throws Exception {
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(new FakeCommandLauncher())
+                .setSpawnRate(20).setSpawnBurst(2).get();
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            launcher.exec(new CommandLine("a"), null).destroy();
+        }
+        // 2 immediately, then 4 at 20 per second
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue(elapsedMillis >= 150, () -> "elapsed " + elapsedMillis);
+    }
+
+    @Test
+    void testUnwaitedProcessReleases() throws Exception {
+        final AdmissionControlCommandLauncher launcher = AdmissionControlCommandLauncher.builder().setCommandLauncher(new FakeCommandLauncher())
+                .setMaxConcurrency(1).setQueueTimeout(Duration.ofSeconds(10)).get();
+        // terminates without anybody observing it through the returned process
+        launcher.exec(new CommandLine("a"), null).destroy();
+        launcher.exec(new CommandLine("b"), null);
+        assertEquals(2, launcher.getAdmittedCount());
+        assertEquals(1, launcher.getRunningCount());
+    }
+}
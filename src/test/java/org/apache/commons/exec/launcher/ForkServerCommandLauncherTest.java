@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.commons.exec.launcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * Tests {@link ForkServerCommandLauncher}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ForkServerCommandLauncherTest extends AbstractCommandLauncherTest<ForkServerCommandLauncher> {
+
+    private static String read(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static CommandLine shell(final String script) {
+        return new CommandLine("sh").addArgument("-c").addArgument(script, false);
+    }
+
+    @Override
+    ForkServerCommandLauncher createCommandLauncher() {
+        return ForkServerCommandLauncher.builder().get();
+    }
+
+    @Test
+    void testClose() throws Exception {
+        final ForkServerCommandLauncher launcher = createCommandLauncher();
+        final Process process = launcher.exec(shell("sleep 0.5; exit 4"), null);
+        launcher.close();
+        assertThrows(IOException.class, () -> launcher.exec(new CommandLine("true"), null));
+        // the running child is not affected
+        assertEquals(4, process.waitFor());
+    }
+
+    @Test
+    void testDestroy() throws Exception {
+        try (ForkServerCommandLauncher launcher = createCommandLauncher()) {
+            final Process process = launcher.exec(new CommandLine("sleep").addArgument("30"), null);
+            assertTrue(process.isAlive());
+            assertFalse(process.waitFor(100, TimeUnit.MILLISECONDS));
+            assertThrows(IllegalThreadStateException.class, process::exitValue);
+            process.destroy();
+            assertEquals(128 + 15, process.waitFor());
+            assertFalse(process.isAlive());
+        }
+    }
+
+    @Test
+    void testExec() throws Exception {
+        try (ForkServerCommandLauncher launcher = createCommandLauncher()) {
+            final Process process = launcher.exec(shell("cat; echo \"$0 $1\" >&2; exit 3").addArgument("it's", false).addArgument("a b", false), null);
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write("input".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals("input", read(process.getInputStream()));
+            assertEquals("it's a b\n", read(process.getErrorStream()));
+            assertEquals(3, process.waitFor());
+            assertEquals(3, process.exitValue());
+        }
+    }
+
+    @Test
+    void testExecEnvironmentAndWorkingDirectory() throws Exception {
+        try (ForkServerCommandLauncher launcher = createCommandLauncher()) {
+            final Process process = launcher.exec(shell("echo \"$FOO\"; pwd"), Collections.singletonMap("FOO", "foo bar"), new File("/"));
+            process.getOutputStream().close();
+            assertEquals("foo bar\n/\n", read(process.getInputStream()));
+            assertEquals(0, process.waitFor());
+            assertThrows(IOException.class, () -> launcher.exec(new CommandLine("true"), null, new File("/does/not/exist")));
+        }
+    }
+
+    @Test
+    void testExecMissingExecutable() throws Exception {
+        try (ForkServerCommandLauncher launcher = createCommandLauncher()) {
+            final Process process = launcher.exec(new CommandLine("commons-exec-does-not-exist"), null);
+            process.getOutputStream().close();
+            read(process.getInputStream());
+            read(process.getErrorStream());
+            assertEquals(127, process.waitFor());
+        }
+    }
+
+    @Test
+    void testExecHelperDiesBeforeChildOpensPipes() throws Exception {
+        // a helper that creates the pipes and reports them ready, then exits without starting the child
+        final Path script = Files.createTempFile("fork-server", ".sh");
+        try {
+            Files.write(script, Arrays.asList("#!/bin/sh", "read line", "d=$(printf '%s\\n' \"$line\" | sed \"s/^if mkfifo '\\([^']*\\)'.*/\\1/\")",
+                    "id=$(printf '%s\\n' \"$line\" | sed \"s/.*then echo '\\([0-9]*\\) ready'.*/\\1/\")", "mkfifo \"$d/in\" \"$d/out\" \"$d/err\"",
+                    "echo \"$id ready\"", "exec sleep 1"));
+            script.toFile().setExecutable(true);
+            try (ForkServerCommandLauncher launcher = ForkServerCommandLauncher.builder().setShell(script.toString()).get()) {
+                final long start = System.nanoTime();
+                assertThrows(IOException.class, () -> launcher.exec(new CommandLine("true"), null));
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            }
+            try (ForkServerCommandLauncher launcher = ForkServerCommandLauncher.builder().setShell(script.toString()).setLaunchTimeout(Duration.ofMillis(100))
+                    .get()) {
+                final long start = System.nanoTime();
+                assertThrows(IOException.class, () -> launcher.exec(new CommandLine("true"), null));
+                // the timeout, not the exit of the helper, failed the launch
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+            }
+        } finally {
+            Files.delete(script);
+        }
+    }
+
+    @Test
+    void testExecWithExecutor() throws Exception {
+        try (ForkServerCommandLauncher launcher = createCommandLauncher()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final DefaultExecutor executor = DefaultExecutor.builder().setCommandLauncher(launcher).get();
+            executor.setStreamHandler(new PumpStreamHandler(out));
+            for (int i = 0; i < 20; i++) {
+                assertEquals(0, executor.execute(new CommandLine("echo").addArgument(Integer.toString(i))));
+            }
+            assertTrue(out.toString().endsWith("18\n19\n"), out::toString);
+        }
+    }
+}
@@ -100,4 +100,12 @@ class StringUtilTest {
                 "Can't handle single and double quotes in same argument");
     }
 
+    @Test
+    void testQuoteShellWord() {
+        assertEquals("'hi'", StringUtils.quoteShellWord("hi"));
+        assertEquals("''", StringUtils.quoteShellWord(""));
+        assertEquals("'echo \"$HOME\" *'", StringUtils.quoteShellWord("echo \"$HOME\" *"));
+        assertEquals("'it'\\''s'", StringUtils.quoteShellWord("it's"));
+    }
+
 }